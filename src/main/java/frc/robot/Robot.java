@@ -15,6 +15,9 @@ package frc.robot;
 
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.util.PhoenixConfigService;
+import frc.util.PhoenixSignalRegistry;
+import frc.util.TalonFXOutput;
 import frc.util.VirtualSubsystem;
 import org.littletonrobotics.junction.LogFileUtil;
 import org.littletonrobotics.junction.LogTable;
@@ -88,6 +91,9 @@ public class Robot extends LoggedRobot {
 
     LogTable.disableProtobufWarning();
 
+    // Before any subsystem configures its devices
+    PhoenixConfigService.loadHashes();
+
     // Instantiate our RobotContainer. This will perform all our button bindings,
     // and put our autonomous chooser on the dashboard.
     robotContainer = new RobotContainer();
@@ -96,6 +102,8 @@ public class Robot extends LoggedRobot {
   /** This function is called periodically during all modes. */
   @Override
   public void robotPeriodic() {
+    // Refresh every Phoenix status signal in one batch before anything reads them
+    PhoenixSignalRegistry.refreshAll();
     VirtualSubsystem.runPeriodically();
     CommandScheduler.getInstance().run();
     // Runs the Scheduler. This is responsible for polling buttons, adding
@@ -105,6 +113,8 @@ public class Robot extends LoggedRobot {
     // the Command-based framework to work.
 
     CommandScheduler.getInstance().run();
+    TalonFXOutput.logAll();
+    PhoenixConfigService.logStatus();
   }
 
   /** This function is called once when the robot is disabled. */
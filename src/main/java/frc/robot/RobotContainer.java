@@ -43,7 +43,7 @@ public class RobotContainer {
   // Subsystems
   private final Drive drive;
   //   private final Flywheel flywheel;
-  public VisionSubsystem m_vision = new VisionSubsystem();
+  public final VisionSubsystem m_vision;
   private final BobotState m_BobotState;
 
   // Controller
@@ -60,6 +60,9 @@ public class RobotContainer {
 
   /** The container for the robot. Contains subsystems, OI devices, and commands. */
   public RobotContainer() {
+    // Vision is created first so the drive can drain its measurements
+    m_vision = new VisionSubsystem();
+
     switch (Constants.AdvantageKitConstants.getMode()) {
       case REAL:
         // Real robot, instantiate hardware IO implementations
@@ -77,11 +80,10 @@ public class RobotContainer {
                 new ModuleIOTalonFX(0),
                 new ModuleIOTalonFX(1),
                 new ModuleIOTalonFX(2),
-                new ModuleIOTalonFX(3));
-        // m_vision::pollLatestVisionMeasurement);
+                new ModuleIOTalonFX(3),
+                m_vision.getMeasurementChannel());
         // flywheel = new Flywheel(new FlywheelIOTalonFX());
         m_BobotState = new BobotState();
-        m_vision = new VisionSubsystem();
 
         break;
 
@@ -93,11 +95,10 @@ public class RobotContainer {
                 new ModuleIOSim(),
                 new ModuleIOSim(),
                 new ModuleIOSim(),
-                new ModuleIOSim());
-        // m_vision::pollLatestVisionMeasurement);
+                new ModuleIOSim(),
+                m_vision.getMeasurementChannel());
         // flywheel = new Flywheel(new FlywheelIOSim());
         m_BobotState = new BobotState();
-        m_vision = new VisionSubsystem();
 
         break;
 
@@ -109,11 +110,10 @@ public class RobotContainer {
                 new ModuleIO() {},
                 new ModuleIO() {},
                 new ModuleIO() {},
-                new ModuleIO() {});
-        // m_vision::pollLatestVisionMeasurement);
+                new ModuleIO() {},
+                m_vision.getMeasurementChannel());
         // flywheel = new Flywheel(new FlywheelIO() {});
         m_BobotState = new BobotState();
-        m_vision = new VisionSubsystem();
         break;
     }
 
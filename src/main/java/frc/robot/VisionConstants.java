@@ -150,6 +150,41 @@ public final class VisionConstants {
   public static final int MAX_FRAME_FIDS = 16;
   public static final double POSE_AMBIGUITY_CUTOFF = .05;
 
+  // Measurements waiting for the drive, and how old one may get before the pose estimator's
+  // 1.5 second history no longer covers it
+  public static final int MEASUREMENT_CHANNEL_CAPACITY = 16;
+  public static final double MEASUREMENT_MAX_AGE_SECONDS = 1.5;
+
+  // Pose estimates a camera keeps between two cycles, enough for a 100 FPS camera through a 100 ms
+  // loop overrun. The oldest estimate is dropped beyond that.
+  public static final int CAMERA_ESTIMATE_BUFFER_CAPACITY = 10;
+
+  // Threads processing frames for all cameras, one per RIO core, and how long a frame may wait for
+  // one of them before it is too stale to process
+  public static final int VISION_WORKER_THREADS = 2;
+  public static final double VISION_FRAME_DEADLINE_SECONDS = 0.1;
+
+  // Solve one robot pose from the tag corners of every camera instead of using each camera's own
+  // estimate. Frames older than the window relative to the newest frame are left out, and solves
+  // with a larger RMS reprojection error are not used.
+  public static final boolean USE_MULTI_CAMERA_SOLVE = false;
+  public static final double MULTI_CAMERA_SOLVE_WINDOW_SECONDS = 0.05;
+  public static final double MULTI_CAMERA_SOLVE_MAX_RMS_PIXELS = 3.0;
+
+  // Solve single tag frames whose ambiguity is above the cutoff with the heading from the drive.
+  // The range error grows with the square of the distance, the cross-range error comes from the
+  // tag's bearing and the heading error. Tags further than the maximum distance are not used.
+  //
+  // Off until it is checked on the robot. The deviations below are untuned guesses, not measured
+  // on our cameras or gyro: fit the range term from single tag frames at known distances and the
+  // heading term from the gyro's drift before enabling.
+  public static final boolean USE_GYRO_CONSTRAINED_SINGLE_TAG = false;
+  public static final double SINGLE_TAG_RANGE_STD_DEV_PER_METER_SQUARED = 0.02;
+  public static final double SINGLE_TAG_MIN_RANGE_STD_DEV_METERS = 0.05;
+  public static final double SINGLE_TAG_BEARING_STD_DEV_RAD = 0.005;
+  public static final double GYRO_HEADING_STD_DEV_RAD = 0.01;
+  public static final double SINGLE_TAG_MAX_DISTANCE_METERS = 4.0;
+
   /***********************************************************************
    * Represents parameters for computing unit deviation
    * based on average distance.
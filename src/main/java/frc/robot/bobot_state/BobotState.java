@@ -8,6 +8,7 @@ import edu.wpi.first.wpilibj2.command.button.Trigger;
 import frc.robot.VisionConstants;
 import frc.robot.bobot_state.TargetAngleTrackers.NoteAngleTracker;
 import frc.robot.bobot_state.TargetAngleTrackers.SpeakerAngleTracker;
+import frc.robot.subsystems.drive.DriveSnapshot;
 // import frc.robot.bobot_state.interpolation.FloorInterpolator;
 // import frc.robot.bobot_state.interpolation.ShootingInterpolator.InterpolatedCalculation;
 // import frc.robot.bobot_state.interpolation.SpeakerInterpolator;
@@ -19,6 +20,7 @@ import frc.util.VirtualSubsystem;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.DoubleFunction;
 import java.util.stream.Collectors;
 import org.littletonrobotics.junction.Logger;
 import org.photonvision.targeting.PhotonTrackedTarget;
@@ -39,10 +41,11 @@ public class BobotState extends VirtualSubsystem {
   //         "Speaker", speakerInterpolator,
   //         "Floor", floorInterpolator);
 
-  private static Pose2d robotPose = new Pose2d();
+  /** Drive state published by the drive at the end of its periodic */
+  private static DriveSnapshot driveSnapshot = DriveSnapshot.EMPTY;
 
-  /** {@link #robotPose} predicted ahead via a pose expontential of our current velocity */
-  private static Pose2d predictedPose = new Pose2d();
+  /** Looks up the drive's fused pose at a past time, set by the drive */
+  private static DoubleFunction<Optional<Pose2d>> poseHistory = timestamp -> Optional.empty();
 
   private static Set<TargetWithSource> visibleAprilTags = new HashSet<>();
 
@@ -57,13 +60,14 @@ public class BobotState extends VirtualSubsystem {
 
   public static Trigger inRangeOfSpeakerInterpolation() {
     return new Trigger(
-        () -> OffsetTags.SPEAKER_AIM.getDistanceFrom(robotPose) < Units.feetToMeters(15));
+        () -> OffsetTags.SPEAKER_AIM.getDistanceFrom(getRobotPose()) < Units.feetToMeters(15));
   }
 
   public static Trigger pastOppWing() {
     return new Trigger(
         () -> {
           double bumperishSizedOffset = Units.inchesToMeters(36) / 2.0;
+          Pose2d robotPose = getRobotPose();
           if (DriverStation.getAlliance().isPresent()) {
             return robotPose.getX() - bumperishSizedOffset < VisionConstants.RED_LINE_X;
           } else {
@@ -72,20 +76,30 @@ public class BobotState extends VirtualSubsystem {
         });
   }
 
-  public static void updateRobotPose(Pose2d pose) {
-    robotPose = pose;
+  public static void updateDriveSnapshot(DriveSnapshot snapshot) {
+    driveSnapshot = snapshot;
   }
 
-  public static Pose2d getRobotPose() {
-    return robotPose;
+  public static DriveSnapshot getDriveSnapshot() {
+    return driveSnapshot;
+  }
+
+  public static void updatePoseHistory(DoubleFunction<Optional<Pose2d>> lookup) {
+    poseHistory = lookup;
   }
 
-  public static void updatePredictedPose(Pose2d pose) {
-    predictedPose = pose;
+  /** Fused pose at a past time, or empty if it is older than the drive's pose history */
+  public static Optional<Pose2d> getPoseAt(double timestamp) {
+    return poseHistory.apply(timestamp);
+  }
+
+  public static Pose2d getRobotPose() {
+    return driveSnapshot.wheelOnlyPose();
   }
 
+  /** {@link #getRobotPose()} predicted ahead via a pose expontential of our current velocity */
   public static Pose2d getPredictedPose() {
-    return predictedPose;
+    return driveSnapshot.predictedPose();
   }
 
   public static void updateVisibleAprilTags(Set<TargetWithSource> trackedAprilTags) {
@@ -146,8 +160,8 @@ public class BobotState extends VirtualSubsystem {
   public void periodic() {
     {
       String calcLogRoot = logRoot + "RobotOdometry/";
-      Logger.recordOutput(calcLogRoot + "Estimated", robotPose);
-      Logger.recordOutput(calcLogRoot + "Predicted", predictedPose);
+      Logger.recordOutput(calcLogRoot + "Estimated", getRobotPose());
+      Logger.recordOutput(calcLogRoot + "Predicted", getPredictedPose());
     }
 
     // targetInterpolators.forEach(
@@ -36,13 +36,8 @@ public class SpeakerAngleTracker extends TargetAngleTracker {
     Pose3d robotPose = new Pose3d(BobotState.getRobotPose());
 
     Set<TargetWithSource> targets = BobotState.getVisibleAprilTags();
-    AprilTagAlgorithms.filterTags(targets.stream(), GarageUtils.getSpeakerTag())
-        .reduce(
-            (targetWithSourceA, targetWithSourceB) ->
-                targetWithSourceA.target().getPoseAmbiguity()
-                        <= targetWithSourceB.target().getPoseAmbiguity()
-                    ? targetWithSourceA
-                    : targetWithSourceB)
+    AprilTagAlgorithms.reduceToLeastAmbiguous(
+            AprilTagAlgorithms.filterTags(targets.stream(), GarageUtils.getSpeakerTag()))
         .ifPresent(
             targetWithSource -> {
               this.hasSeenTag = true;
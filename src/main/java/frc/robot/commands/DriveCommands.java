@@ -69,8 +69,8 @@ public class DriveCommands {
                   linearVelocity.getY() * drive.getMaxLinearSpeedMetersPerSec(),
                   omega * drive.getMaxAngularSpeedRadPerSec(),
                   isFlipped
-                      ? drive.getRotation().plus(new Rotation2d(Math.PI))
-                      : drive.getRotation()));
+                      ? drive.getSnapshot().pose().getRotation().plus(new Rotation2d(Math.PI))
+                      : drive.getSnapshot().pose().getRotation()));
         },
         drive);
   }
@@ -2,6 +2,7 @@ package frc.robot.commands;
 
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.wpilibj2.command.Command;
@@ -54,16 +55,12 @@ public class PositionWithAmp extends Command {
 
   @Override
   public void execute() {
-    Pose3d robotPose = new Pose3d(drive.getPose());
+    Pose2d robotPose2d = drive.getSnapshot().pose();
+    Pose3d robotPose = new Pose3d(robotPose2d);
 
     Set<TargetWithSource> targets = BobotState.getVisibleAprilTags();
-    AprilTagAlgorithms.filterTags(targets.stream(), offsetTag.getId())
-        .reduce(
-            (targetWithSourceA, targetWithSourceB) ->
-                targetWithSourceA.target().getPoseAmbiguity()
-                        <= targetWithSourceB.target().getPoseAmbiguity()
-                    ? targetWithSourceA
-                    : targetWithSourceB)
+    AprilTagAlgorithms.reduceToLeastAmbiguous(
+            AprilTagAlgorithms.filterTags(targets.stream(), offsetTag.getId()))
         .ifPresent(
             targetWithSource -> {
               hasSeenTag = true;
@@ -76,13 +73,11 @@ public class PositionWithAmp extends Command {
     double rotationSpeedRad;
     if (Math.abs(xErrorMeters) < 1.0) {
       double yawErrorRad =
-          targetPose.toPose2d().getRotation().getRadians()
-              - robotPose.toPose2d().getRotation().getRadians();
+          targetPose.toPose2d().getRotation().getRadians() - robotPose2d.getRotation().getRadians();
       rotationSpeedRad = thetaController.calculate(yawMeasurementOffset, yawErrorRad);
     } else {
       rotationSpeedRad =
-          thetaController.calculate(
-              drive.getPose().getRotation().getRadians(), yawMeasurementOffset);
+          thetaController.calculate(robotPose2d.getRotation().getRadians(), yawMeasurementOffset);
     }
 
     double xSpeedMeters =
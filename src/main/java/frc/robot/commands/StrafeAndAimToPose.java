@@ -78,7 +78,7 @@ public class StrafeAndAimToPose extends Command {
   @Override
   public void execute() {
     targetPose = poseSupplier.get();
-    Pose3d robotPose = new Pose3d(drive.getPose());
+    Pose3d robotPose = new Pose3d(drive.getSnapshot().pose());
 
     yawErrorRad =
         targetPose.relativeTo(robotPose).getTranslation().toTranslation2d().getAngle().getRadians();
@@ -123,15 +123,14 @@ public class TeleopDrive {
     double ySpeedDelivered = ySpeedCommanded * DriveConstants.kMaxSpeedMetersPerSecond;
     double rotDelivered = currentRotation * DriveConstants.kMaxAngularSpeed;
 
+    Rotation2d robotRotation = driveSubsystem.getSnapshot().pose().getRotation();
     ChassisSpeeds speeds =
         fieldRelative
             ? ChassisSpeeds.fromFieldRelativeSpeeds(
                 xSpeedDelivered,
                 ySpeedDelivered,
                 rotDelivered,
-                isFlipped
-                    ? driveSubsystem.getPose().getRotation().plus(new Rotation2d(Math.PI))
-                    : driveSubsystem.getPose().getRotation())
+                isFlipped ? robotRotation.plus(new Rotation2d(Math.PI)) : robotRotation)
             : new ChassisSpeeds(xSpeedDelivered, ySpeedDelivered, rotDelivered);
 
     driveSubsystem.runVelocity(speeds);
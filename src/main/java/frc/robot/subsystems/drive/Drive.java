@@ -8,11 +8,11 @@ import com.pathplanner.lib.pathfinding.Pathfinding;
 import com.pathplanner.lib.util.HolonomicPathFollowerConfig;
 import com.pathplanner.lib.util.PathPlannerLogging;
 import com.pathplanner.lib.util.ReplanningConfig;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
-import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
@@ -20,22 +20,37 @@ import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
-import frc.robot.Constants.DriveConstants;
 import frc.robot.bobot_state.BobotState;
 import frc.robot.pathplanner.LocalADStarAK;
-import frc.util.GeomUtils;
-import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import frc.robot.subsystems.vision.VisionMeasurementChannel;
+import frc.robot.subsystems.vision.VisionSubsystem.VisionMeasurement;
+import frc.util.PoseHistoryBuffer;
+import java.util.Optional;
+import java.util.function.Consumer;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
 public class Drive extends SubsystemBase {
 
   private static final double kLookaheadTimeSeconds = 0.20;
+  // Limits how far the gyro yaw rate is trusted to predict past the nearest gyro sample
+  private static final double kMaxYawExtrapolationSeconds = 0.1;
+  // Same trust in the odometry as the SwerveDrivePoseEstimator defaults
+  private static final double kStateStdDevMeters = 0.1;
+  private static final double kStateStdDevRad = 0.1;
+  // Fuse vision with the fixed-lag smoother instead of the per-measurement correction
+  private static final boolean kUseFixedLagSmoother = false;
+  private static final double kSmootherKeyframePeriodSeconds = 0.02;
+  private static final double kSmootherWindowSeconds = 1.0;
+  private static final double kSmootherBudgetSeconds = 0.002;
+  // Keep computing and logging the diagnostic poses while connected to the FMS
+  private static final boolean kDiagnosticPosesInCompetition = false;
+  // Recompute module setpoints on every odometry frame instead of once per cycle, when supported
+  private static final boolean kUseHighRateControl = false;
 
   private static final double MAX_LINEAR_SPEED = Units.feetToMeters(14.5);
   private static final double TRACK_WIDTH_X = Units.inchesToMeters(28.0);
@@ -44,29 +59,14 @@ public class Drive extends SubsystemBase {
       Math.hypot(TRACK_WIDTH_X / 2.0, TRACK_WIDTH_Y / 2.0);
   private static final double MAX_ANGULAR_SPEED = MAX_LINEAR_SPEED / DRIVE_BASE_RADIUS;
 
-  static final Lock odometryLock = new ReentrantLock();
   private final GyroIO gyroIO;
   private final GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
   private final Module[] modules = new Module[4]; // FL, FR, BL, BR
-  private final ModuleIOInputsAutoLogged[] m_moduleInputs =
-      new ModuleIOInputsAutoLogged[] {
-        new ModuleIOInputsAutoLogged(),
-        new ModuleIOInputsAutoLogged(),
-        new ModuleIOInputsAutoLogged(),
-        new ModuleIOInputsAutoLogged(),
-      };
 
   private final SysIdRoutine sysId;
 
   private SwerveDriveKinematics kinematics = new SwerveDriveKinematics(getModuleTranslations());
   // private Rotation2d rawGyroRotation = new Rotation2d();
-  private SwerveModulePosition[] lastModulePositions = // For delta tracking
-      new SwerveModulePosition[] {
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition()
-      };
 
   // private SwerveDrivePoseEstimator poseEstimator =
   //     new SwerveDrivePoseEstimator(kinematics, m_trackedRotation, lastModulePositions, new
@@ -74,38 +74,79 @@ public class Drive extends SubsystemBase {
 
   // Adding 4451 Odo code
   private Rotation2d m_trackedRotation = new Rotation2d();
-  private final SwerveDrivePoseEstimator m_combinedPoseEstimator =
-      new SwerveDrivePoseEstimator(
-          kinematics, m_trackedRotation, getModulePositions(), new Pose2d());
-
-  private final SwerveDrivePoseEstimator m_visionOnlyPoseEstimator =
-      new SwerveDrivePoseEstimator(
-          kinematics, m_trackedRotation, getModulePositions(), new Pose2d());
-
-  private final SwerveDrivePoseEstimator m_wheelOnlyPoseEstimator =
-      new SwerveDrivePoseEstimator(
-          kinematics, m_trackedRotation, getModulePositions(), new Pose2d());
-
-  private final List<SwerveDrivePoseEstimator> m_poseEstimators =
-      List.of(m_combinedPoseEstimator, m_visionOnlyPoseEstimator, m_wheelOnlyPoseEstimator);
-
-  // private final Supplier<VisionMeasurement> m_visionMeasurementSupplier;
+  private double m_trackedHeadingRad = 0.0;
+  private int m_yawSampleCursor = 0;
+
+  // Wheel-only odometry is integrated on primitives, so every sample is garbage-free
+  private final SwerveOdometryIntegrator m_wheelOnlyOdometry =
+      new SwerveOdometryIntegrator(getModuleTranslations());
+  private final double[] m_sampleDistancesMeters = new double[4];
+  private final double[] m_sampleAnglesRad = new double[4];
+
+  // About four seconds of wheel odometry at the odometry frequency
+  private final PoseHistoryBuffer m_poseHistory = new PoseHistoryBuffer(1024);
+  private final double[] m_poseHistorySample = new double[3];
+
+  // Both estimates are corrections of the wheel-only odometry and share its history
+  private final FusedPoseEstimator m_combinedPoseEstimator =
+      kUseFixedLagSmoother
+          ? new FixedLagPoseSmoother(
+              m_wheelOnlyOdometry,
+              m_poseHistory,
+              kSmootherKeyframePeriodSeconds,
+              kSmootherWindowSeconds,
+              kSmootherBudgetSeconds)
+          : new SwervePoseEstimator(
+              m_wheelOnlyOdometry,
+              m_poseHistory,
+              kStateStdDevMeters,
+              kStateStdDevMeters,
+              kStateStdDevRad);
+  // Snaps to every measurement, only following the odometry in between
+  private final SwervePoseEstimator m_visionOnlyPoseEstimator =
+      new SwervePoseEstimator(
+          m_wheelOnlyOdometry,
+          m_poseHistory,
+          Double.POSITIVE_INFINITY,
+          Double.POSITIVE_INFINITY,
+          Double.POSITIVE_INFINITY);
+  private boolean m_diagnosticPosesEnabled = true;
+
+  private final VisionMeasurementChannel m_visionMeasurements;
+  private final Consumer<VisionMeasurement> m_visionMeasurementConsumer =
+      this::addVisionMeasurement;
+
+  // Null unless high-rate control is enabled and every module supports it
+  private final HighRateDriveLoop m_highRateLoop;
+
+  private DriveSnapshot m_snapshot = DriveSnapshot.EMPTY;
 
   public Drive(
       GyroIO gyroIO,
       ModuleIO flModuleIO,
       ModuleIO frModuleIO,
       ModuleIO blModuleIO,
-      ModuleIO brModuleIO
-      // Supplier<VisionMeasurement> visionMeasurementSupplier
-      ) {
+      ModuleIO brModuleIO,
+      VisionMeasurementChannel visionMeasurements) {
     this.gyroIO = gyroIO;
     modules[0] = new Module(flModuleIO, 3);
     modules[1] = new Module(frModuleIO, 2); // Change this order instead of re-instantiating
     modules[2] = new Module(blModuleIO, 1); // 6
     modules[3] = new Module(brModuleIO, 0); // 8
 
-    // m_visionMeasurementSupplier = visionMeasurementSupplier;
+    m_visionMeasurements = visionMeasurements;
+    BobotState.updatePoseHistory(this::getPoseAt);
+
+    boolean highRateSupported = kUseHighRateControl;
+    for (var module : modules) {
+      highRateSupported &= module.supportsHighRateControl();
+    }
+    if (highRateSupported) {
+      m_highRateLoop = new HighRateDriveLoop(modules, getModuleTranslations(), MAX_LINEAR_SPEED);
+      PhoenixOdometryThread.getInstance().addFrameListener(m_highRateLoop);
+    } else {
+      m_highRateLoop = null;
+    }
 
     // Start threads (no-op for each if no signals have been created)
     PhoenixOdometryThread.getInstance().start();
@@ -114,7 +155,7 @@ public class Drive extends SubsystemBase {
     AutoBuilder.configureHolonomic(
         this::getPose,
         this::setPose,
-        () -> kinematics.toChassisSpeeds(getModuleStates()),
+        () -> m_snapshot.robotRelativeSpeeds(),
         this::runVelocity,
         new HolonomicPathFollowerConfig(
             MAX_LINEAR_SPEED, DRIVE_BASE_RADIUS, new ReplanningConfig()),
@@ -146,6 +187,7 @@ public class Drive extends SubsystemBase {
                 (state) -> Logger.recordOutput("Drive/SysIdState", state.toString())),
             new SysIdRoutine.Mechanism(
                 (voltage) -> {
+                  releaseHighRateLoop();
                   for (int i = 0; i < 4; i++) {
                     modules[i].runCharacterization(voltage.in(Volts));
                   }
@@ -154,27 +196,30 @@ public class Drive extends SubsystemBase {
                 this));
   }
 
-  // private void addVisionMeasurements() {
-  //   // Pose2d currentPose = getPose();
-
-  //   VisionMeasurement visionMeasurement;
-  //   while ((visionMeasurement = m_visionMeasurementSupplier.get()) != null) {
-  //     Pose2d visionPose = visionMeasurement.estimation().estimatedPose.toPose2d();
-  //     // Ignore the vision pose's rotation
-  //     // Pose2d visionPoseWithoutRotation = new Pose2d(visionPose.getTranslation(),
-  //     // currentPose.getRotation());
-  //     double timestampSeconds = visionMeasurement.estimation().timestampSeconds;
-  //     var confidence = visionMeasurement.confidence();
-
-  //     m_combinedPoseEstimator.addVisionMeasurement(visionPose, timestampSeconds, confidence);
-  //     m_visionOnlyPoseEstimator.addVisionMeasurement(visionPose, timestampSeconds, confidence);
-  //   }
-  // }
+  /** Applies a vision measurement to the estimators that fuse vision. */
+  private void addVisionMeasurement(VisionMeasurement visionMeasurement) {
+    Pose3d visionPose = visionMeasurement.pose();
+    double timestampSeconds = visionMeasurement.timestamp();
+    double x = visionPose.getX();
+    double y = visionPose.getY();
+    double thetaRad = visionPose.getRotation().getZ();
+    var confidence = visionMeasurement.confidence();
+    double stdDevX = confidence.get(0, 0);
+    double stdDevY = confidence.get(1, 0);
+    double stdDevThetaRad = confidence.get(2, 0);
+
+    m_combinedPoseEstimator.addVisionMeasurement(
+        timestampSeconds, x, y, thetaRad, stdDevX, stdDevY, stdDevThetaRad);
+    if (m_diagnosticPosesEnabled) {
+      m_visionOnlyPoseEstimator.addVisionMeasurement(
+          timestampSeconds, x, y, thetaRad, stdDevX, stdDevY, stdDevThetaRad);
+    }
+  }
 
   public SwerveModuleState[] getModuleStates() {
 
     SwerveModuleState[] states = new SwerveModuleState[modules.length];
-    for (int i = 0; i < m_moduleInputs.length; i++) {
+    for (int i = 0; i < modules.length; i++) {
       states[i] = modules[i].getState();
     }
     return states;
@@ -182,30 +227,29 @@ public class Drive extends SubsystemBase {
 
   public SwerveModulePosition[] getModulePositions() {
     SwerveModulePosition[] positions = new SwerveModulePosition[modules.length];
-    for (int i = 0; i < m_moduleInputs.length; i++) {
-      positions[i] = m_moduleInputs[i].position;
+    for (int i = 0; i < modules.length; i++) {
+      positions[i] = modules[i].getPosition();
     }
     return positions;
   }
 
   @Override
   public void periodic() {
-    SwerveModuleState[] states = getModuleStates();
-    SwerveModulePosition[] positions = getModulePositions();
-
-    Logger.recordOutput("SwereveStates/Measued", states);
-
-    // odometryLock.lock(); // Prevents odometry updates while reading data
+    // Take this cycle's odometry frames before any IO reads them
+    PhoenixOdometryThread.getInstance().pollFrames();
     gyroIO.updateInputs(gyroInputs);
 
-    // odometryLock.unlock();
     Logger.processInputs("Drive/Gyro", gyroInputs);
     for (var module : modules) {
       module.periodic();
     }
 
+    SwerveModuleState[] moduleStates = getModuleStates();
+    Logger.recordOutput("SwereveStates/Measued", moduleStates);
+
     // Stop moving when disabled
     if (DriverStation.isDisabled()) {
+      releaseHighRateLoop();
       for (var module : modules) {
         module.stop();
       }
@@ -217,72 +261,145 @@ public class Drive extends SubsystemBase {
     }
 
     // Update odometry
-    double[] sampleTimestamps =
-        modules[0].getOdometryTimestamps(); // All signals are sampled together
+    // All signals share the same frames, the minimum only guards against mismatched replay logs
+    double[] sampleTimestamps = modules[0].getOdometryTimestamps();
     int sampleCount = sampleTimestamps.length;
+    for (var module : modules) {
+      sampleCount = Math.min(sampleCount, module.getOdometrySampleCount());
+    }
+    m_yawSampleCursor = 0;
     for (int i = 0; i < sampleCount; i++) {
-      // Read wheel positions and deltas from each module
-      SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
-      SwerveModulePosition[] moduleDeltas = new SwerveModulePosition[4];
-      for (int moduleIndex = 0;
-          moduleIndex < 4 && sampleCount == sampleTimestamps.length;
-          moduleIndex++) {
-        modulePositions[moduleIndex] = modules[moduleIndex].getOdometryPositions()[i];
-        moduleDeltas[moduleIndex] =
-            new SwerveModulePosition(
-                modulePositions[moduleIndex].distanceMeters
-                    - lastModulePositions[moduleIndex].distanceMeters,
-                modulePositions[moduleIndex].angle);
-        lastModulePositions[moduleIndex] = modulePositions[moduleIndex];
+      // Read wheel positions from each module into the reused buffers
+      for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
+        m_sampleDistancesMeters[moduleIndex] = modules[moduleIndex].getOdometryDistanceMeters(i);
+        m_sampleAnglesRad[moduleIndex] = modules[moduleIndex].getOdometryAngleRad(i);
       }
+      m_wheelOnlyOdometry.computeTwist(m_sampleDistancesMeters, m_sampleAnglesRad);
 
       // Update gyro angle
       if (gyroInputs.connected) {
-        // Use the real gyro angle
-        m_trackedRotation = gyroInputs.yawPosition;
+        // Use the real gyro angle at the time of this sample
+        m_trackedHeadingRad = getGyroHeadingRad(sampleTimestamps[i]);
       } else {
         // Use the angle delta from the kinematics and module deltas
-        Twist2d twist = kinematics.toTwist2d(moduleDeltas);
-        m_trackedRotation = m_trackedRotation.plus(new Rotation2d(twist.dtheta));
+        m_trackedHeadingRad += m_wheelOnlyOdometry.getTwistDtheta();
       }
+      m_wheelOnlyOdometry.integrate(m_trackedHeadingRad);
+      m_poseHistory.addSample(
+          sampleTimestamps[i],
+          m_wheelOnlyOdometry.getX(),
+          m_wheelOnlyOdometry.getY(),
+          m_wheelOnlyOdometry.getThetaRad());
+    }
+    m_trackedRotation = new Rotation2d(m_trackedHeadingRad);
+
+    // The vision-only view is only for diagnosing vision, skip it in matches unless asked for
+    boolean diagnosticPosesEnabled =
+        kDiagnosticPosesInCompetition || !DriverStation.isFMSAttached();
+    if (diagnosticPosesEnabled && !m_diagnosticPosesEnabled) {
+      m_visionOnlyPoseEstimator.reset();
+    }
+    m_diagnosticPosesEnabled = diagnosticPosesEnabled;
 
-      m_combinedPoseEstimator.update(m_trackedRotation, positions);
-      m_wheelOnlyPoseEstimator.update(m_trackedRotation, positions);
-      // addVisionMeasurements();
-      //
-      Pose2d combinedPose = getPose();
-      Pose2d visionOnlyPose = m_visionOnlyPoseEstimator.getEstimatedPosition();
-      Pose2d wheelOnlyPose = m_wheelOnlyPoseEstimator.getEstimatedPosition();
+    // Odometry is up to date, so measurements can be fused at their timestamps in time order
+    m_visionMeasurements.drain(Timer.getFPGATimestamp(), m_visionMeasurementConsumer);
+    m_combinedPoseEstimator.update();
 
-      Pose2d predictedPose = getPredictedPose();
+    // Kinematics and prediction run once here, everything later in the cycle reads the snapshot
+    updateSnapshot(moduleStates);
 
-      BobotState.updateRobotPose(wheelOnlyPose);
-      BobotState.updatePredictedPose(predictedPose);
+    // Only the latest values survive a cycle in the log, so record them once after integrating
+    Pose2d combinedPose = m_snapshot.pose();
+    Pose2d visionOnlyPose = m_snapshot.visionOnlyPose();
+    Pose2d wheelOnlyPose = m_snapshot.wheelOnlyPose();
+    Pose2d predictedPose = m_snapshot.predictedPose();
 
-      Logger.recordOutput("Drive/Velocity", getVelocitySpeeds());
+    Logger.recordOutput("Drive/Velocity", m_snapshot.robotRelativeSpeeds());
 
-      Logger.recordOutput("Odometry/Combined/Pose", combinedPose);
-      Logger.recordOutput("Odometry/Combined/RotationDeg", combinedPose.getRotation().getDegrees());
+    Logger.recordOutput("Odometry/Combined/Pose", combinedPose);
+    Logger.recordOutput("Odometry/Combined/RotationDeg", combinedPose.getRotation().getDegrees());
 
+    if (m_diagnosticPosesEnabled) {
       Logger.recordOutput("Odometry/VisionOnly/Pose", visionOnlyPose);
       Logger.recordOutput(
           "Odometry/VisionOnly/RotationDeg", visionOnlyPose.getRotation().getDegrees());
+    }
 
-      Logger.recordOutput("Odometry/WheelOnly/Pose", wheelOnlyPose);
+    Logger.recordOutput("Odometry/WheelOnly/Pose", wheelOnlyPose);
+    Logger.recordOutput("Odometry/WheelOnly/RotationDeg", wheelOnlyPose.getRotation().getDegrees());
+
+    Logger.recordOutput("Odometry/Predicted/Pose", predictedPose);
+    Logger.recordOutput("Odometry/Predicted/RotationDeg", predictedPose.getRotation().getDegrees());
+
+    PhoenixOdometryThread odometryThread = PhoenixOdometryThread.getInstance();
+    odometryThread.getStats().logSummary("Odometry/Thread", odometryThread.getOverrunCount());
+    Logger.recordOutput("Odometry/Vision/Accepted", m_visionMeasurements.getAcceptedCount());
+    Logger.recordOutput("Odometry/Vision/DroppedStale", m_visionMeasurements.getStaleCount());
+    Logger.recordOutput("Odometry/Vision/DroppedOverflow", m_visionMeasurements.getOverflowCount());
+    Logger.recordOutput(
+        "Odometry/Vision/DroppedOutsideHistory", m_combinedPoseEstimator.getRejectedCount());
+    if (m_combinedPoseEstimator instanceof FixedLagPoseSmoother smoother) {
+      Logger.recordOutput("Odometry/Smoother/Keyframes", smoother.getKeyframeCount());
+      Logger.recordOutput("Odometry/Smoother/Iterations", smoother.getLastIterations());
+      Logger.recordOutput("Odometry/Smoother/SolveMs", smoother.getLastSolveSeconds() * 1000.0);
+    }
+    if (m_highRateLoop != null) {
+      Logger.recordOutput("Drive/HighRate/Active", m_highRateLoop.isActive());
       Logger.recordOutput(
-          "Odometry/WheelOnly/RotationDeg", wheelOnlyPose.getRotation().getDegrees());
+          "Drive/HighRate/ControlledFrames", m_highRateLoop.getControlledFrameCount());
+    }
+  }
 
-      Logger.recordOutput("Odometry/Predicted/Pose", predictedPose);
-      Logger.recordOutput(
-          "Odometry/Predicted/RotationDeg", predictedPose.getRotation().getDegrees());
+  /** Rebuilds the snapshot from the current pose estimates and publishes it. */
+  private void updateSnapshot(SwerveModuleState[] moduleStates) {
+    Pose2d combinedPose = getPose();
+    m_snapshot =
+        DriveSnapshot.of(
+            Timer.getFPGATimestamp(),
+            kinematics,
+            moduleStates,
+            combinedPose,
+            m_diagnosticPosesEnabled ? m_visionOnlyPoseEstimator.getPose() : combinedPose,
+            m_wheelOnlyOdometry.getPose(),
+            kLookaheadTimeSeconds);
+    BobotState.updateDriveSnapshot(m_snapshot);
+  }
 
-      // Apply update
-      m_wheelOnlyPoseEstimator.updateWithTime(sampleTimestamps[i], m_trackedRotation, positions);
+  /**
+   * Returns the gyro heading at the time of an odometry sample. Gyro samples around the time are
+   * interpolated, past either end the nearest sample is extrapolated with the measured yaw rate.
+   * Must be called with increasing timestamps within a cycle.
+   *
+   * @param timestamp Timestamp of the odometry sample in seconds
+   */
+  private double getGyroHeadingRad(double timestamp) {
+    double[] yawTimestamps = gyroInputs.odometryYawTimestamps;
+    Rotation2d[] yawPositions = gyroInputs.odometryYawPositions;
+    int yawSampleCount = Math.min(yawTimestamps.length, yawPositions.length);
+    if (yawSampleCount == 0) {
+      return gyroInputs.yawPosition.getRadians();
+    }
+
+    while (m_yawSampleCursor < yawSampleCount - 1
+        && yawTimestamps[m_yawSampleCursor + 1] <= timestamp) {
+      m_yawSampleCursor++;
+    }
+    double startTimestamp = yawTimestamps[m_yawSampleCursor];
+    double startYawRad = yawPositions[m_yawSampleCursor].getRadians();
+
+    if (timestamp < startTimestamp || m_yawSampleCursor == yawSampleCount - 1) {
+      double dt =
+          MathUtil.clamp(
+              timestamp - startTimestamp,
+              -kMaxYawExtrapolationSeconds,
+              kMaxYawExtrapolationSeconds);
+      return startYawRad + gyroInputs.yawVelocityRadPerSec * dt;
     }
-  }
 
-  private ChassisSpeeds getVelocitySpeeds() {
-    return DriveConstants.kDriveKinematics.toChassisSpeeds(getModuleStates());
+    double endTimestamp = yawTimestamps[m_yawSampleCursor + 1];
+    double endYawRad = yawPositions[m_yawSampleCursor + 1].getRadians();
+    double fraction = (timestamp - startTimestamp) / (endTimestamp - startTimestamp);
+    return startYawRad + MathUtil.angleModulus(endYawRad - startYawRad) * fraction;
   }
 
   public void zeroHeading() {
@@ -290,25 +407,26 @@ public class Drive extends SubsystemBase {
     // If no gyro is connected we have to manually reset our tracked rotation.
     if (!gyroInputs.connected) {
       m_trackedRotation = new Rotation2d();
+      m_trackedHeadingRad = 0.0;
     }
   }
 
-  private Twist2d getVelocityTwist() {
-    return GeomUtils.toTwist2d(getVelocitySpeeds());
-  }
-
+  /** Returns the current pose extrapolated ahead with the speeds measured this cycle. */
   public Pose2d getPredictedPose(double lookaheadTimeSeconds) {
-    Twist2d velocity = getVelocityTwist();
-    return getPose()
-        .exp(
-            new Twist2d(
-                velocity.dx * lookaheadTimeSeconds,
-                velocity.dy * lookaheadTimeSeconds,
-                velocity.dtheta * lookaheadTimeSeconds));
+    return DriveSnapshot.predictPose(
+        getPose(), m_snapshot.robotRelativeSpeeds(), lookaheadTimeSeconds);
   }
 
   public Pose2d getPredictedPose() {
-    return getPredictedPose(kLookaheadTimeSeconds);
+    return m_snapshot.predictedPose();
+  }
+
+  /**
+   * Returns the drive state computed at the end of the last {@link #periodic()}. Prefer this over
+   * the individual getters when reading several values in one cycle.
+   */
+  public DriveSnapshot getSnapshot() {
+    return m_snapshot;
   }
 
   /**
@@ -317,7 +435,26 @@ public class Drive extends SubsystemBase {
    * @param speeds Speeds in meters/sec
    */
   public void runVelocity(ChassisSpeeds speeds) {
+    if (m_highRateLoop != null) {
+      // The odometry thread computes and sends the module setpoints from here on
+      for (var module : modules) {
+        module.yieldToHighRateLoop();
+      }
+      m_highRateLoop.setGoal(speeds);
+      Logger.recordOutput("Drive/HighRate/Goal", speeds);
+      return;
+    }
+    runVelocityOnMainLoop(speeds);
+  }
 
+  /** Hands the module outputs back to the main loop if the high-rate loop has them. */
+  private void releaseHighRateLoop() {
+    if (m_highRateLoop != null) {
+      m_highRateLoop.clearGoal();
+    }
+  }
+
+  private void runVelocityOnMainLoop(ChassisSpeeds speeds) {
     // // Calculate module setpoints
     ChassisSpeeds discreteSpeeds = ChassisSpeeds.discretize(speeds, 0.02);
     SwerveModuleState[] setpointStates = kinematics.toSwerveModuleStates(discreteSpeeds);
@@ -356,7 +493,9 @@ public class Drive extends SubsystemBase {
       headings[i] = getModuleTranslations()[i].getAngle();
     }
     kinematics.resetHeadings(headings);
-    stop();
+    // The X arrangement only exists in the main loop kinematics
+    releaseHighRateLoop();
+    runVelocityOnMainLoop(new ChassisSpeeds());
   }
 
   /** Returns a command to run a quasistatic test in the specified direction. */
@@ -392,7 +531,7 @@ public class Drive extends SubsystemBase {
   @AutoLogOutput(key = "Odometry/Robot")
   public Pose2d getPose() {
     // return Module.getAngle();
-    return m_combinedPoseEstimator.getEstimatedPosition();
+    return m_combinedPoseEstimator.getPose();
   }
 
   /** Returns the current odometry rotation. */
@@ -402,10 +541,40 @@ public class Drive extends SubsystemBase {
 
   /** Resets the current odometry pose. */
   public void setPose(Pose2d pose) {
-    m_poseEstimators.forEach(
-        poseEstimator -> {
-          poseEstimator.resetPosition(m_trackedRotation, getModulePositions(), pose);
-        });
+    m_wheelOnlyOdometry.resetPose(pose, m_trackedHeadingRad);
+    m_poseHistory.clear();
+    m_combinedPoseEstimator.reset();
+    m_visionOnlyPoseEstimator.reset();
+    // Commands read the pose from the snapshot, so they must not act on the old pose until the
+    // next periodic
+    updateSnapshot(m_snapshot.moduleStates());
+  }
+
+  /**
+   * Returns the estimated pose at a past time, applying the current vision correction to the wheel
+   * odometry at that time. Only call from the main thread, other threads should sample {@link
+   * #getPoseHistory()} directly.
+   *
+   * @param timestamp Time in seconds
+   * @return The pose, or empty if the time is older than the pose history
+   */
+  public Optional<Pose2d> getPoseAt(double timestamp) {
+    if (!m_combinedPoseEstimator.sample(timestamp, m_poseHistorySample)) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new Pose2d(
+            m_poseHistorySample[0],
+            m_poseHistorySample[1],
+            new Rotation2d(m_poseHistorySample[2])));
+  }
+
+  /**
+   * Returns the wheel-only odometry history, written once per odometry sample. Safe to sample from
+   * any thread.
+   */
+  public PoseHistoryBuffer getPoseHistory() {
+    return m_poseHistory;
   }
 
   /**
@@ -0,0 +1,90 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.util.GeomUtils;
+
+/**
+ * Drive state computed once at the end of every {@link Drive#periodic()}.
+ *
+ * <p>Everything that reads drive state later in the cycle (BobotState, PathPlanner and commands)
+ * shares this one instance instead of recomputing module states and kinematics on every call.
+ * Nothing in it may be modified after it is published.
+ *
+ * @param timestamp FPGA time the snapshot was taken in seconds
+ * @param moduleStates Measured module states, in FL, FR, BL, BR order
+ * @param robotRelativeSpeeds Measured speeds from the module states through the drive's
+ *     kinematics
+ * @param fieldRelativeSpeeds {@code robotRelativeSpeeds} rotated into the field frame
+ * @param pose Fused pose estimate
+ * @param visionOnlyPose Pose estimate snapping to every vision measurement, or {@code pose} while
+ *     the diagnostic poses are off in competition
+ * @param wheelOnlyPose Pose from wheel odometry and the gyro alone
+ * @param predictedPose {@code pose} extrapolated ahead with the measured speeds
+ */
+public record DriveSnapshot(
+    double timestamp,
+    SwerveModuleState[] moduleStates,
+    ChassisSpeeds robotRelativeSpeeds,
+    ChassisSpeeds fieldRelativeSpeeds,
+    Pose2d pose,
+    Pose2d visionOnlyPose,
+    Pose2d wheelOnlyPose,
+    Pose2d predictedPose) {
+  /** Snapshot of a robot at rest at the origin, used before the first cycle. */
+  public static final DriveSnapshot EMPTY =
+      new DriveSnapshot(
+          0.0,
+          new SwerveModuleState[] {
+            new SwerveModuleState(),
+            new SwerveModuleState(),
+            new SwerveModuleState(),
+            new SwerveModuleState()
+          },
+          new ChassisSpeeds(),
+          new ChassisSpeeds(),
+          new Pose2d(),
+          new Pose2d(),
+          new Pose2d(),
+          new Pose2d());
+
+  /**
+   * Builds the snapshot of a cycle, running the forward kinematics and the pose prediction once.
+   *
+   * @param kinematics The drive's kinematics, from the same module layout as its odometry
+   * @param lookaheadSeconds How far ahead of {@code pose} the predicted pose is
+   */
+  public static DriveSnapshot of(
+      double timestamp,
+      SwerveDriveKinematics kinematics,
+      SwerveModuleState[] moduleStates,
+      Pose2d pose,
+      Pose2d visionOnlyPose,
+      Pose2d wheelOnlyPose,
+      double lookaheadSeconds) {
+    ChassisSpeeds robotRelativeSpeeds = kinematics.toChassisSpeeds(moduleStates);
+    return new DriveSnapshot(
+        timestamp,
+        moduleStates,
+        robotRelativeSpeeds,
+        ChassisSpeeds.fromRobotRelativeSpeeds(robotRelativeSpeeds, pose.getRotation()),
+        pose,
+        visionOnlyPose,
+        wheelOnlyPose,
+        predictPose(pose, robotRelativeSpeeds, lookaheadSeconds));
+  }
+
+  /** Extrapolates a pose ahead, assuming the robot-relative speeds hold. */
+  public static Pose2d predictPose(
+      Pose2d pose, ChassisSpeeds robotRelativeSpeeds, double lookaheadSeconds) {
+    Twist2d velocity = GeomUtils.toTwist2d(robotRelativeSpeeds);
+    return pose.exp(
+        new Twist2d(
+            velocity.dx * lookaheadSeconds,
+            velocity.dy * lookaheadSeconds,
+            velocity.dtheta * lookaheadSeconds));
+  }
+}
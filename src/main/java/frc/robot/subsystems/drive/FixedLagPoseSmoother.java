@@ -0,0 +1,646 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.util.PoseHistoryBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed-lag smoother over the last second of wheel odometry and vision.
+ *
+ * <p>The window holds keyframe poses at a fixed spacing, sampled from the shared odometry history.
+ * Consecutive keyframes are tied together by the odometry motion between them, and every vision
+ * measurement becomes a prior on the keyframe just before it, moved to the keyframe's time with
+ * the odometry in between. Each cycle re-solves the whole window with Gauss-Newton, so a late
+ * camera frame also corrects everything after it. The normal equations are block tridiagonal and
+ * solved in linear time on preallocated arrays, warm started from the previous solution, and
+ * iterations stop once the per-cycle budget is spent.
+ *
+ * <p>Keyframes that leave the window are dropped and the oldest remaining keyframe keeps a prior
+ * on its last estimate, which approximates marginalizing them out. Between keyframes and after the
+ * newest one, the estimate follows the odometry.
+ */
+public class FixedLagPoseSmoother implements FusedPoseEstimator {
+  private static final int kMaxIterations = 5;
+  private static final double kConvergedStep = 1E-6;
+  private static final double kMinStdDev = 1E-3;
+
+  // Trust in the odometry motion between two consecutive keyframes
+  private static final double kOdometryStdDevMeters = 0.01;
+  private static final double kOdometryStdDevRad = 0.005;
+  // Trust in the estimate of the oldest keyframe, once older keyframes were dropped
+  private static final double kMarginalStdDevMeters = 0.1;
+  private static final double kMarginalStdDevRad = 0.1;
+
+  // Layout of one keyframe in the keyframe array
+  private static final int kTime = 0;
+  private static final int kOdometryX = 1;
+  private static final int kOdometryY = 2;
+  private static final int kOdometryTheta = 3;
+  private static final int kEstimateX = 4;
+  private static final int kEstimateY = 5;
+  private static final int kEstimateTheta = 6;
+  private static final int kVisionInfoX = 7;
+  private static final int kVisionInfoY = 8;
+  private static final int kVisionInfoTheta = 9;
+  private static final int kVisionX = 10;
+  private static final int kVisionY = 11;
+  private static final int kVisionTheta = 12;
+  private static final int kStride = 13;
+
+  private final SwerveOdometryIntegrator odometry;
+  private final PoseHistoryBuffer odometryHistory;
+  private final double keyframePeriodSeconds;
+  private final double windowSeconds;
+  private final long budgetNanos;
+  private final int capacity;
+
+  private final double[] keyframes;
+  private int keyframeCount = 0;
+
+  // Prior on the oldest keyframe
+  private double priorX = 0.0;
+  private double priorY = 0.0;
+  private double priorTheta = 0.0;
+  private double priorInfoXY = 0.0;
+  private double priorInfoTheta = 0.0;
+
+  // Normal equations, 3x3 row-major blocks per keyframe
+  private final double[] diagonal;
+  private final double[] upper;
+  private final double[] gradient;
+  private final double[] reducedInverse;
+  private final double[] reducedRhs;
+  private final double[] step;
+
+  // Scratch
+  private final double[] pose = new double[3];
+  private final double[] relative = new double[3];
+  private final double[] jacobianA = new double[9];
+  private final double[] jacobianB = new double[9];
+  private final double[] block = new double[9];
+  private final double[] blockProduct = new double[9];
+  private final double[] weights = new double[3];
+  private final double[] residual = new double[3];
+  private final double[] vector = new double[3];
+
+  private long rejectedCount = 0;
+  private int lastIterations = 0;
+  private long lastSolveNanos = 0;
+
+  /**
+   * @param odometry Wheel odometry the estimate follows
+   * @param odometryHistory History of {@code odometry}, at least as long as the window
+   * @param keyframePeriodSeconds Spacing between keyframes
+   * @param windowSeconds How far back measurements can still correct the trajectory
+   * @param budgetSeconds Longest time spent optimizing per cycle, one iteration always runs
+   */
+  public FixedLagPoseSmoother(
+      SwerveOdometryIntegrator odometry,
+      PoseHistoryBuffer odometryHistory,
+      double keyframePeriodSeconds,
+      double windowSeconds,
+      double budgetSeconds) {
+    this.odometry = odometry;
+    this.odometryHistory = odometryHistory;
+    this.keyframePeriodSeconds = keyframePeriodSeconds;
+    this.windowSeconds = windowSeconds;
+    this.budgetNanos = (long) (budgetSeconds * 1e9);
+    capacity = (int) Math.ceil(windowSeconds / keyframePeriodSeconds) + 2;
+
+    keyframes = new double[capacity * kStride];
+    diagonal = new double[capacity * 9];
+    upper = new double[capacity * 9];
+    gradient = new double[capacity * 3];
+    reducedInverse = new double[capacity * 9];
+    reducedRhs = new double[capacity * 3];
+    step = new double[capacity * 3];
+  }
+
+  @Override
+  public void reset() {
+    keyframeCount = 0;
+  }
+
+  @Override
+  public boolean addVisionMeasurement(
+      double timestamp,
+      double x,
+      double y,
+      double thetaRad,
+      double stdDevX,
+      double stdDevY,
+      double stdDevThetaRad) {
+    addKeyframes();
+    if (keyframeCount == 0
+        || timestamp < keyframes[kTime]
+        || !odometryHistory.sample(timestamp, pose)) {
+      rejectedCount++;
+      return false;
+    }
+
+    // Move the measurement back to the keyframe before it along the odometry
+    int keyframe = findKeyframe(timestamp);
+    int offset = keyframe * kStride;
+    relative(
+        pose[0],
+        pose[1],
+        pose[2],
+        keyframes[offset + kOdometryX],
+        keyframes[offset + kOdometryY],
+        keyframes[offset + kOdometryTheta],
+        relative);
+    compose(x, y, thetaRad, relative[0], relative[1], relative[2], pose);
+
+    // Measurements on the same keyframe combine into one prior with the summed information
+    accumulate(offset + kVisionInfoX, offset + kVisionX, pose[0], stdDevX, false);
+    accumulate(offset + kVisionInfoY, offset + kVisionY, pose[1], stdDevY, false);
+    accumulate(offset + kVisionInfoTheta, offset + kVisionTheta, pose[2], stdDevThetaRad, true);
+    return true;
+  }
+
+  private void accumulate(
+      int infoIndex, int meanIndex, double value, double stdDev, boolean isAngle) {
+    double std = Math.max(stdDev, kMinStdDev);
+    double info = 1.0 / (std * std);
+    double totalInfo = keyframes[infoIndex] + info;
+    double mean = keyframes[meanIndex];
+    if (keyframes[infoIndex] == 0.0) {
+      keyframes[meanIndex] = value;
+    } else {
+      double difference = isAngle ? MathUtil.angleModulus(value - mean) : value - mean;
+      keyframes[meanIndex] = mean + difference * info / totalInfo;
+    }
+    keyframes[infoIndex] = totalInfo;
+  }
+
+  @Override
+  public void update() {
+    addKeyframes();
+    if (keyframeCount == 0) {
+      lastIterations = 0;
+      lastSolveNanos = 0;
+      return;
+    }
+
+    // Warm started from the last solution, so one iteration is usually enough
+    long startNanos = System.nanoTime();
+    int iterations = 0;
+    double largestStep;
+    do {
+      largestStep = iterate();
+      iterations++;
+    } while (largestStep > kConvergedStep
+        && iterations < kMaxIterations
+        && System.nanoTime() - startNanos < budgetNanos);
+    lastIterations = iterations;
+    lastSolveNanos = System.nanoTime() - startNanos;
+  }
+
+  /** Extends the window up to the newest odometry and drops keyframes that left it. */
+  private void addKeyframes() {
+    double newestTimestamp = odometryHistory.getNewestTimestamp();
+    if (Double.isNaN(newestTimestamp)) {
+      return;
+    }
+    if (keyframeCount > 0 && newestTimestamp < keyframes[(keyframeCount - 1) * kStride + kTime]) {
+      // Time restarted, e.g. when switching between simulation and replay
+      keyframeCount = 0;
+    }
+
+    double nextTimestamp =
+        keyframeCount == 0
+            ? newestTimestamp
+            : keyframes[(keyframeCount - 1) * kStride + kTime] + keyframePeriodSeconds;
+    nextTimestamp = Math.max(nextTimestamp, newestTimestamp - windowSeconds);
+    while (nextTimestamp <= newestTimestamp) {
+      addKeyframe(nextTimestamp);
+      nextTimestamp += keyframePeriodSeconds;
+    }
+    if (keyframeCount == 0) {
+      return;
+    }
+
+    int expired = 0;
+    double oldestAllowed = keyframes[(keyframeCount - 1) * kStride + kTime] - windowSeconds;
+    while (expired < keyframeCount - 1 && keyframes[expired * kStride + kTime] < oldestAllowed) {
+      expired++;
+    }
+    dropOldest(expired);
+  }
+
+  private void addKeyframe(double timestamp) {
+    if (!odometryHistory.sample(timestamp, pose)) {
+      return;
+    }
+    if (keyframeCount == capacity) {
+      dropOldest(1);
+    }
+
+    int offset = keyframeCount * kStride;
+    keyframes[offset + kTime] = timestamp;
+    keyframes[offset + kOdometryX] = pose[0];
+    keyframes[offset + kOdometryY] = pose[1];
+    keyframes[offset + kOdometryTheta] = pose[2];
+    if (keyframeCount == 0) {
+      // A new window starts out equal to the odometry and is held there tightly
+      keyframes[offset + kEstimateX] = pose[0];
+      keyframes[offset + kEstimateY] = pose[1];
+      keyframes[offset + kEstimateTheta] = pose[2];
+      setPrior(pose[0], pose[1], pose[2], kMinStdDev, kMinStdDev);
+    } else {
+      // Follow the odometry from the previous keyframe's estimate
+      int previous = offset - kStride;
+      relative(
+          keyframes[previous + kOdometryX],
+          keyframes[previous + kOdometryY],
+          keyframes[previous + kOdometryTheta],
+          pose[0],
+          pose[1],
+          pose[2],
+          relative);
+      compose(
+          keyframes[previous + kEstimateX],
+          keyframes[previous + kEstimateY],
+          keyframes[previous + kEstimateTheta],
+          relative[0],
+          relative[1],
+          relative[2],
+          pose);
+      keyframes[offset + kEstimateX] = pose[0];
+      keyframes[offset + kEstimateY] = pose[1];
+      keyframes[offset + kEstimateTheta] = pose[2];
+    }
+    keyframes[offset + kVisionInfoX] = 0.0;
+    keyframes[offset + kVisionInfoY] = 0.0;
+    keyframes[offset + kVisionInfoTheta] = 0.0;
+    keyframeCount++;
+  }
+
+  private void dropOldest(int count) {
+    if (count <= 0) {
+      return;
+    }
+    System.arraycopy(keyframes, count * kStride, keyframes, 0, (keyframeCount - count) * kStride);
+    keyframeCount -= count;
+    setPrior(
+        keyframes[kEstimateX],
+        keyframes[kEstimateY],
+        keyframes[kEstimateTheta],
+        kMarginalStdDevMeters,
+        kMarginalStdDevRad);
+  }
+
+  private void setPrior(double x, double y, double theta, double stdDevMeters, double stdDevRad) {
+    priorX = x;
+    priorY = y;
+    priorTheta = theta;
+    priorInfoXY = 1.0 / (stdDevMeters * stdDevMeters);
+    priorInfoTheta = 1.0 / (stdDevRad * stdDevRad);
+  }
+
+  /**
+   * Runs one Gauss-Newton iteration over the window.
+   *
+   * @return Largest change of any estimate
+   */
+  private double iterate() {
+    int count = keyframeCount;
+    Arrays.fill(diagonal, 0, count * 9, 0.0);
+    Arrays.fill(upper, 0, count * 9, 0.0);
+    Arrays.fill(gradient, 0, count * 3, 0.0);
+
+    // Prior on the oldest keyframe
+    addUnary(
+        0,
+        keyframes[kEstimateX] - priorX,
+        keyframes[kEstimateY] - priorY,
+        MathUtil.angleModulus(keyframes[kEstimateTheta] - priorTheta),
+        priorInfoXY,
+        priorInfoXY,
+        priorInfoTheta);
+
+    weights[0] = 1.0 / (kOdometryStdDevMeters * kOdometryStdDevMeters);
+    weights[1] = weights[0];
+    weights[2] = 1.0 / (kOdometryStdDevRad * kOdometryStdDevRad);
+    for (int k = 0; k < count; k++) {
+      int offset = k * kStride;
+      double estimateX = keyframes[offset + kEstimateX];
+      double estimateY = keyframes[offset + kEstimateY];
+      double estimateTheta = keyframes[offset + kEstimateTheta];
+
+      // Vision prior
+      if (keyframes[offset + kVisionInfoX] > 0.0) {
+        addUnary(
+            k,
+            estimateX - keyframes[offset + kVisionX],
+            estimateY - keyframes[offset + kVisionY],
+            MathUtil.angleModulus(estimateTheta - keyframes[offset + kVisionTheta]),
+            keyframes[offset + kVisionInfoX],
+            keyframes[offset + kVisionInfoY],
+            keyframes[offset + kVisionInfoTheta]);
+      }
+
+      if (k == count - 1) {
+        break;
+      }
+
+      // Odometry between this keyframe and the next
+      int next = offset + kStride;
+      relative(
+          keyframes[offset + kOdometryX],
+          keyframes[offset + kOdometryY],
+          keyframes[offset + kOdometryTheta],
+          keyframes[next + kOdometryX],
+          keyframes[next + kOdometryY],
+          keyframes[next + kOdometryTheta],
+          relative);
+      double cos = Math.cos(estimateTheta);
+      double sin = Math.sin(estimateTheta);
+      double dx = keyframes[next + kEstimateX] - estimateX;
+      double dy = keyframes[next + kEstimateY] - estimateY;
+      double localX = cos * dx + sin * dy;
+      double localY = -sin * dx + cos * dy;
+      residual[0] = localX - relative[0];
+      residual[1] = localY - relative[1];
+      residual[2] =
+          MathUtil.angleModulus(keyframes[next + kEstimateTheta] - estimateTheta - relative[2]);
+
+      setBlock(jacobianA, -cos, -sin, localY, sin, -cos, -localX, 0.0, 0.0, -1.0);
+      setBlock(jacobianB, cos, sin, 0.0, -sin, cos, 0.0, 0.0, 0.0, 1.0);
+      addWeightedProduct(jacobianA, jacobianA, diagonal, k * 9);
+      addWeightedProduct(jacobianB, jacobianB, diagonal, (k + 1) * 9);
+      addWeightedProduct(jacobianA, jacobianB, upper, k * 9);
+      addWeightedGradient(jacobianA, k * 3);
+      addWeightedGradient(jacobianB, (k + 1) * 3);
+    }
+
+    solve(count);
+
+    double largestStep = 0.0;
+    for (int k = 0; k < count; k++) {
+      int offset = k * kStride;
+      keyframes[offset + kEstimateX] += step[k * 3];
+      keyframes[offset + kEstimateY] += step[k * 3 + 1];
+      keyframes[offset + kEstimateTheta] =
+          MathUtil.angleModulus(keyframes[offset + kEstimateTheta] + step[k * 3 + 2]);
+      largestStep =
+          Math.max(
+              largestStep,
+              Math.max(
+                  Math.abs(step[k * 3 + 2]),
+                  Math.max(Math.abs(step[k * 3]), Math.abs(step[k * 3 + 1]))));
+    }
+    return largestStep;
+  }
+
+  private void addUnary(
+      int k, double rx, double ry, double rtheta, double infoX, double infoY, double infoTheta) {
+    diagonal[k * 9] += infoX;
+    diagonal[k * 9 + 4] += infoY;
+    diagonal[k * 9 + 8] += infoTheta;
+    gradient[k * 3] += infoX * rx;
+    gradient[k * 3 + 1] += infoY * ry;
+    gradient[k * 3 + 2] += infoTheta * rtheta;
+  }
+
+  /** Adds left^T * W * right to the block at the offset. */
+  private void addWeightedProduct(double[] left, double[] right, double[] target, int offset) {
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        double sum = 0.0;
+        for (int m = 0; m < 3; m++) {
+          sum += left[m * 3 + i] * weights[m] * right[m * 3 + j];
+        }
+        target[offset + i * 3 + j] += sum;
+      }
+    }
+  }
+
+  /** Adds J^T * W * residual to the gradient at the offset. */
+  private void addWeightedGradient(double[] jacobian, int offset) {
+    for (int i = 0; i < 3; i++) {
+      double sum = 0.0;
+      for (int m = 0; m < 3; m++) {
+        sum += jacobian[m * 3 + i] * weights[m] * residual[m];
+      }
+      gradient[offset + i] += sum;
+    }
+  }
+
+  /** Solves the block tridiagonal system H * step = -gradient with the block Thomas algorithm. */
+  private void solve(int count) {
+    for (int k = 0; k < count; k++) {
+      // Reduced diagonal block and right hand side after eliminating the previous keyframe
+      System.arraycopy(diagonal, k * 9, block, 0, 9);
+      for (int i = 0; i < 3; i++) {
+        vector[i] = -gradient[k * 3 + i];
+      }
+      if (k > 0) {
+        // L = U^T * inverse, block -= L * U, rhs -= L * previous rhs
+        int previous = (k - 1) * 9;
+        for (int i = 0; i < 3; i++) {
+          for (int j = 0; j < 3; j++) {
+            double sum = 0.0;
+            for (int m = 0; m < 3; m++) {
+              sum += upper[previous + m * 3 + i] * reducedInverse[previous + m * 3 + j];
+            }
+            blockProduct[i * 3 + j] = sum;
+          }
+        }
+        for (int i = 0; i < 3; i++) {
+          for (int j = 0; j < 3; j++) {
+            double sum = 0.0;
+            for (int m = 0; m < 3; m++) {
+              sum += blockProduct[i * 3 + m] * upper[previous + m * 3 + j];
+            }
+            block[i * 3 + j] -= sum;
+          }
+          double sum = 0.0;
+          for (int m = 0; m < 3; m++) {
+            sum += blockProduct[i * 3 + m] * reducedRhs[(k - 1) * 3 + m];
+          }
+          vector[i] -= sum;
+        }
+      }
+      invert3x3(block, reducedInverse, k * 9);
+      System.arraycopy(vector, 0, reducedRhs, k * 3, 3);
+    }
+
+    for (int k = count - 1; k >= 0; k--) {
+      for (int i = 0; i < 3; i++) {
+        vector[i] = reducedRhs[k * 3 + i];
+        if (k < count - 1) {
+          for (int m = 0; m < 3; m++) {
+            vector[i] -= upper[k * 9 + i * 3 + m] * step[(k + 1) * 3 + m];
+          }
+        }
+      }
+      for (int i = 0; i < 3; i++) {
+        double sum = 0.0;
+        for (int m = 0; m < 3; m++) {
+          sum += reducedInverse[k * 9 + i * 3 + m] * vector[m];
+        }
+        step[k * 3 + i] = sum;
+      }
+    }
+  }
+
+  private static void setBlock(
+      double[] target,
+      double a,
+      double b,
+      double c,
+      double d,
+      double e,
+      double f,
+      double g,
+      double h,
+      double k) {
+    target[0] = a;
+    target[1] = b;
+    target[2] = c;
+    target[3] = d;
+    target[4] = e;
+    target[5] = f;
+    target[6] = g;
+    target[7] = h;
+    target[8] = k;
+  }
+
+  private static void invert3x3(double[] m, double[] target, int offset) {
+    double a = m[0], b = m[1], c = m[2];
+    double d = m[3], e = m[4], f = m[5];
+    double g = m[6], h = m[7], k = m[8];
+
+    double det = a * (e * k - f * h) - b * (d * k - f * g) + c * (d * h - e * g);
+    double invDet = 1.0 / det;
+
+    target[offset] = (e * k - f * h) * invDet;
+    target[offset + 1] = (c * h - b * k) * invDet;
+    target[offset + 2] = (b * f - c * e) * invDet;
+    target[offset + 3] = (f * g - d * k) * invDet;
+    target[offset + 4] = (a * k - c * g) * invDet;
+    target[offset + 5] = (c * d - a * f) * invDet;
+    target[offset + 6] = (d * h - e * g) * invDet;
+    target[offset + 7] = (b * g - a * h) * invDet;
+    target[offset + 8] = (a * e - b * d) * invDet;
+  }
+
+  /** Returns the newest keyframe at or before a time, or the oldest keyframe. */
+  private int findKeyframe(double timestamp) {
+    int keyframe = keyframeCount - 1;
+    while (keyframe > 0 && keyframes[keyframe * kStride + kTime] > timestamp) {
+      keyframe--;
+    }
+    return keyframe;
+  }
+
+  /** Writes from^-1 * to into out. */
+  private static void relative(
+      double fromX,
+      double fromY,
+      double fromTheta,
+      double toX,
+      double toY,
+      double toTheta,
+      double[] out) {
+    double cos = Math.cos(fromTheta);
+    double sin = Math.sin(fromTheta);
+    double dx = toX - fromX;
+    double dy = toY - fromY;
+    out[0] = cos * dx + sin * dy;
+    out[1] = -sin * dx + cos * dy;
+    out[2] = MathUtil.angleModulus(toTheta - fromTheta);
+  }
+
+  /** Writes base * delta into out. */
+  private static void compose(
+      double baseX,
+      double baseY,
+      double baseTheta,
+      double deltaX,
+      double deltaY,
+      double deltaTheta,
+      double[] out) {
+    double cos = Math.cos(baseTheta);
+    double sin = Math.sin(baseTheta);
+    out[0] = baseX + cos * deltaX - sin * deltaY;
+    out[1] = baseY + sin * deltaX + cos * deltaY;
+    out[2] = MathUtil.angleModulus(baseTheta + deltaTheta);
+  }
+
+  @Override
+  public Pose2d getPose() {
+    if (keyframeCount == 0) {
+      return odometry.getPose();
+    }
+    int offset = (keyframeCount - 1) * kStride;
+    relative(
+        keyframes[offset + kOdometryX],
+        keyframes[offset + kOdometryY],
+        keyframes[offset + kOdometryTheta],
+        odometry.getX(),
+        odometry.getY(),
+        odometry.getThetaRad(),
+        relative);
+    compose(
+        keyframes[offset + kEstimateX],
+        keyframes[offset + kEstimateY],
+        keyframes[offset + kEstimateTheta],
+        relative[0],
+        relative[1],
+        relative[2],
+        pose);
+    return new Pose2d(pose[0], pose[1], new Rotation2d(pose[2]));
+  }
+
+  @Override
+  public boolean sample(double timestamp, double[] out) {
+    if (!odometryHistory.sample(timestamp, out)) {
+      return false;
+    }
+    if (keyframeCount == 0) {
+      return true;
+    }
+    int offset = findKeyframe(timestamp) * kStride;
+    relative(
+        keyframes[offset + kOdometryX],
+        keyframes[offset + kOdometryY],
+        keyframes[offset + kOdometryTheta],
+        out[0],
+        out[1],
+        out[2],
+        relative);
+    compose(
+        keyframes[offset + kEstimateX],
+        keyframes[offset + kEstimateY],
+        keyframes[offset + kEstimateTheta],
+        relative[0],
+        relative[1],
+        relative[2],
+        out);
+    return true;
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  /** Returns the number of Gauss-Newton iterations run in the last update. */
+  public int getLastIterations() {
+    return lastIterations;
+  }
+
+  /** Returns the time spent optimizing in the last update in seconds. */
+  public double getLastSolveSeconds() {
+    return lastSolveNanos / 1e9;
+  }
+
+  /** Returns the number of keyframes in the window. */
+  public int getKeyframeCount() {
+    return keyframeCount;
+  }
+}
@@ -0,0 +1,53 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+
+/**
+ * Fuses vision measurements into the wheel odometry owned by {@link Drive}.
+ *
+ * <p>Implementations read the odometry through the shared pose history and are only used from the
+ * main thread.
+ */
+public interface FusedPoseEstimator {
+  /** Makes the estimate equal to the odometry again, e.g. after the odometry pose was reset. */
+  void reset();
+
+  /**
+   * Fuses a vision measurement.
+   *
+   * @param timestamp Time the measurement was captured in seconds
+   * @param x Measured x in meters
+   * @param y Measured y in meters
+   * @param thetaRad Measured heading in radians
+   * @param stdDevX Standard deviation of x in meters
+   * @param stdDevY Standard deviation of y in meters
+   * @param stdDevThetaRad Standard deviation of the heading in radians
+   * @return Whether the measurement was used, false if it is too old
+   */
+  boolean addVisionMeasurement(
+      double timestamp,
+      double x,
+      double y,
+      double thetaRad,
+      double stdDevX,
+      double stdDevY,
+      double stdDevThetaRad);
+
+  /** Finishes the cycle once its odometry and vision measurements were added. */
+  default void update() {}
+
+  /** Returns a copy of the current estimate. */
+  Pose2d getPose();
+
+  /**
+   * Returns the estimate at a past time.
+   *
+   * @param timestamp Time in seconds
+   * @param out Receives x, y and heading in radians
+   * @return Whether the time was within the odometry history
+   */
+  boolean sample(double timestamp, double[] out);
+
+  /** Returns the number of measurements dropped for being too old. */
+  long getRejectedCount();
+}
@@ -1,46 +1,47 @@
 package frc.robot.subsystems.drive;
 
-import com.ctre.phoenix6.BaseStatusSignal;
-import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.Pigeon2Configuration;
 import com.ctre.phoenix6.hardware.Pigeon2;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
-import java.util.Queue;
+import frc.util.PhoenixConfigService;
+import frc.util.PhoenixSignalRegistry;
 
 /** IO implementation for Pigeon2 */
 public class GyroIOPigeon2 implements GyroIO {
   private final Pigeon2 pigeon = new Pigeon2(10);
   private final StatusSignal<Double> yaw = pigeon.getYaw();
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final int yawPositionColumn;
   private final StatusSignal<Double> yawVelocity = pigeon.getAngularVelocityZWorld();
 
   public GyroIOPigeon2() {
-    pigeon.getConfigurator().apply(new Pigeon2Configuration());
-    pigeon.getConfigurator().setYaw(0.0);
+    var config = new Pigeon2Configuration();
+    PhoenixConfigService.apply(pigeon, config, () -> pigeon.getConfigurator().apply(config));
+    PhoenixConfigService.run(pigeon, () -> pigeon.getConfigurator().setYaw(0.0));
     yaw.setUpdateFrequency(Module.ODOMETRY_FREQUENCY);
     yawVelocity.setUpdateFrequency(100.0);
     pigeon.optimizeBusUtilization();
-    yawTimestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
-    yawPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(pigeon, pigeon.getYaw());
+    PhoenixSignalRegistry.register(pigeon, yaw, yawVelocity);
+    yawPositionColumn = PhoenixOdometryThread.getInstance().registerSignal(pigeon, pigeon.getYaw());
   }
 
   @Override
   public void updateInputs(GyroIOInputs inputs) {
-    inputs.connected = BaseStatusSignal.refreshAll(yaw, yawVelocity).equals(StatusCode.OK);
+    // Signals were refreshed in one batch by PhoenixSignalRegistry at the start of the loop
+    inputs.connected = yaw.getStatus().isOK() && yawVelocity.getStatus().isOK();
     inputs.yawPosition = Rotation2d.fromDegrees(yaw.getValueAsDouble());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(yawVelocity.getValueAsDouble());
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream()
-            .map((Double value) -> Rotation2d.fromDegrees(value))
-            .toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    PhoenixOdometryThread odometryThread = PhoenixOdometryThread.getInstance();
+    int sampleCount = odometryThread.getFrameCount();
+    inputs.odometryYawTimestamps = new double[sampleCount];
+    inputs.odometryYawPositions = new Rotation2d[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryYawTimestamps[i] = odometryThread.getFrameTimestamp(i);
+      inputs.odometryYawPositions[i] =
+          Rotation2d.fromDegrees(odometryThread.getFrameValue(i, yawPositionColumn));
+    }
   }
 
   public void zero() {
@@ -0,0 +1,117 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Recomputes swerve module setpoints on every {@link PhoenixOdometryThread} frame.
+ *
+ * <p>The main loop only publishes the latest chassis speeds goal through an atomic reference. Each
+ * odometry frame then discretizes the goal over one odometry period, runs the inverse kinematics,
+ * desaturates, and optimizes every module against the turn angle sampled in that same frame, so the
+ * module outputs follow the goal at the odometry rate instead of once per 20 ms cycle. All of this
+ * runs on primitives so the odometry thread never allocates.
+ *
+ * <p>While a goal is set the loop owns the module outputs. Clearing the goal hands them back to the
+ * main loop.
+ */
+public class HighRateDriveLoop implements PhoenixOdometryThread.FrameListener {
+  private static final double kDtSeconds = 1.0 / Module.ODOMETRY_FREQUENCY;
+
+  private final Module[] modules;
+  private final double[] moduleX;
+  private final double[] moduleY;
+  private final double maxLinearSpeed;
+
+  private final AtomicReference<ChassisSpeeds> goal = new AtomicReference<>();
+
+  // Odometry thread only
+  private final double[] moduleSpeeds;
+  private final double[] moduleAnglesRad;
+  private volatile long controlledFrames = 0;
+
+  /**
+   * @param modules Modules to drive, each must support high-rate control
+   * @param moduleTranslations Module positions relative to the robot center, in module order
+   * @param maxLinearSpeed Fastest any module may be commanded in meters per second
+   */
+  public HighRateDriveLoop(
+      Module[] modules, Translation2d[] moduleTranslations, double maxLinearSpeed) {
+    this.modules = modules;
+    this.maxLinearSpeed = maxLinearSpeed;
+    moduleX = new double[modules.length];
+    moduleY = new double[modules.length];
+    for (int i = 0; i < modules.length; i++) {
+      moduleX[i] = moduleTranslations[i].getX();
+      moduleY[i] = moduleTranslations[i].getY();
+    }
+    moduleSpeeds = new double[modules.length];
+    moduleAnglesRad = new double[modules.length];
+  }
+
+  /** Sets the robot-relative speeds to follow. The speeds must not be modified afterwards. */
+  public void setGoal(ChassisSpeeds speeds) {
+    goal.set(speeds);
+  }
+
+  /**
+   * Stops following the goal and returns the module outputs to the main loop. A frame already in
+   * progress may still send one last setpoint.
+   */
+  public void clearGoal() {
+    goal.set(null);
+  }
+
+  /** Returns whether the loop currently owns the module outputs. */
+  public boolean isActive() {
+    return goal.get() != null;
+  }
+
+  /** Returns the number of frames the loop has sent setpoints on. */
+  public long getControlledFrameCount() {
+    return controlledFrames;
+  }
+
+  @Override
+  public void onFrame(double[] frame) {
+    ChassisSpeeds speeds = goal.get();
+    if (speeds == null) {
+      return;
+    }
+
+    // Same as ChassisSpeeds.discretize, correcting for the rotation during one odometry period
+    double dtheta = speeds.omegaRadiansPerSecond * kDtSeconds;
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1.0;
+    double halfDthetaByTanHalfDtheta =
+        Math.abs(cosMinusOne) < 1e-9
+            ? 1.0 - dtheta * dtheta / 12.0
+            : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    double vx =
+        speeds.vxMetersPerSecond * halfDthetaByTanHalfDtheta
+            + speeds.vyMetersPerSecond * halfDtheta;
+    double vy =
+        speeds.vyMetersPerSecond * halfDthetaByTanHalfDtheta
+            - speeds.vxMetersPerSecond * halfDtheta;
+    double omega = speeds.omegaRadiansPerSecond;
+
+    // Inverse kinematics, keeping the previous heading of any module asked to stand still
+    double fastestSpeed = 0.0;
+    for (int i = 0; i < modules.length; i++) {
+      double moduleVx = vx - omega * moduleY[i];
+      double moduleVy = vy + omega * moduleX[i];
+      moduleSpeeds[i] = Math.hypot(moduleVx, moduleVy);
+      if (moduleSpeeds[i] > 1e-6) {
+        moduleAnglesRad[i] = Math.atan2(moduleVy, moduleVx);
+      }
+      fastestSpeed = Math.max(fastestSpeed, moduleSpeeds[i]);
+    }
+    double scale = fastestSpeed > maxLinearSpeed ? maxLinearSpeed / fastestSpeed : 1.0;
+
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].runHighRateSetpoint(frame, moduleSpeeds[i] * scale, moduleAnglesRad[i]);
+    }
+    controlledFrames++;
+  }
+}
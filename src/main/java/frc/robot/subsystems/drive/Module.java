@@ -1,5 +1,6 @@
 package frc.robot.subsystems.drive;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Rotation2d;
@@ -12,23 +13,31 @@ import org.littletonrobotics.junction.Logger;
 public class Module {
   private static final double WHEEL_RADIUS = Units.inchesToMeters(2.0);
   static final double ODOMETRY_FREQUENCY = 250.0;
+  private static final int ODOMETRY_BUFFER_SIZE = 20;
 
   private final ModuleIO io;
   private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
   private final int index;
+  private final String logKey;
 
   private final SimpleMotorFeedforward driveFeedforward;
   private final PIDController driveFeedback;
   private final PIDController turnFeedback;
+  private final boolean useOnboardClosedLoop;
   private Rotation2d angleSetpoint = null; // Setpoint for closed loop control, null for open loop
   private Double speedSetpoint = null; // Setpoint for closed loop control, null for open loop
   private Rotation2d turnRelativeOffset = null; // Relative + Offset = Absolute
-  private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
   private SwerveModuleState modstates = new SwerveModuleState();
 
+  // Reused odometry buffers, only reallocated if a cycle ever receives more samples than they hold
+  private double[] odometryDistancesMeters = new double[ODOMETRY_BUFFER_SIZE];
+  private double[] odometryAnglesRad = new double[ODOMETRY_BUFFER_SIZE];
+  private int odometrySampleCount = 0;
+
   public Module(ModuleIO io, int index) {
     this.io = io;
     this.index = index;
+    this.logKey = "Drive/Module" + Integer.toString(index);
 
     // Switch constants based on mode (the physics simulator is treated as a
     // separate robot with different tuning)
@@ -52,6 +61,13 @@ public class Module {
     }
 
     turnFeedback.enableContinuousInput(-Math.PI, Math.PI);
+
+    // The same gains drive the motor controller's loops when it runs them itself
+    useOnboardClosedLoop = io.hasOnboardClosedLoop();
+    if (useOnboardClosedLoop) {
+      io.configureDrivePID(driveFeedback.getP(), driveFeedback.getI(), driveFeedback.getD());
+      io.configureTurnPID(turnFeedback.getP(), turnFeedback.getI(), turnFeedback.getD());
+    }
     setBrakeMode(true);
   }
 
@@ -67,7 +83,7 @@ public class Module {
 
   public void periodic() {
     updateInputs(inputs);
-    Logger.processInputs("Drive/Module" + Integer.toString(index), inputs);
+    Logger.processInputs(logKey, inputs);
 
     // On first cycle, reset relative turn encoder
     // Wait until absolute angle is nonzero in case it wasn't initialized yet
@@ -78,8 +94,12 @@ public class Module {
 
     // Run closed loop turn control
     if (angleSetpoint != null) {
-      io.setTurnVoltage(
-          turnFeedback.calculate(getAngle().getRadians(), angleSetpoint.getRadians()));
+      if (useOnboardClosedLoop) {
+        io.setTurnPosition(angleSetpoint);
+      } else {
+        io.setTurnVoltage(
+            turnFeedback.calculate(getAngle().getRadians(), angleSetpoint.getRadians()));
+      }
 
       // Run closed loop drive control
       // Only allowed if closed loop turn control is running
@@ -89,25 +109,37 @@ public class Module {
         // When the error is 90°, the velocity setpoint should be 0. As the wheel turns
         // towards the setpoint, its velocity should increase. This is achieved by
         // taking the component of the velocity in the direction of the setpoint.
-        double adjustSpeedSetpoint = speedSetpoint * Math.cos(turnFeedback.getPositionError());
+        double turnErrorRad =
+            MathUtil.angleModulus(angleSetpoint.getRadians() - getAngle().getRadians());
+        double adjustSpeedSetpoint = speedSetpoint * Math.cos(turnErrorRad);
 
         // Run drive controller
         double velocityRadPerSec = adjustSpeedSetpoint / WHEEL_RADIUS;
-        io.setDriveVoltage(
-            driveFeedforward.calculate(velocityRadPerSec)
-                + driveFeedback.calculate(inputs.driveVelocityRadPerSec, velocityRadPerSec));
+        if (useOnboardClosedLoop) {
+          io.setDriveVelocity(velocityRadPerSec, driveFeedforward.calculate(velocityRadPerSec));
+        } else {
+          io.setDriveVoltage(
+              driveFeedforward.calculate(velocityRadPerSec)
+                  + driveFeedback.calculate(inputs.driveVelocityRadPerSec, velocityRadPerSec));
+        }
       }
     }
 
     // Calculate positions for odometry
-    int sampleCount = inputs.odometryTimestamps.length; // All signals are sampled together
-    odometryPositions = new SwerveModulePosition[sampleCount];
-    for (int i = 0; i < sampleCount && i < inputs.odometryDrivePositionsRad.length; i++) {
-      double positionMeters = inputs.odometryDrivePositionsRad[i] * WHEEL_RADIUS;
-      Rotation2d angle = inputs.odometryTurnPositions[i].plus(inputs.turnAbsolutePosition);
-      // turnRelativeOffset != null ? turnRelativeOffset : new Rotation2d());
-      odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
+    int sampleCount =
+        Math.min(
+            inputs.odometryTimestamps.length, // All signals are sampled together
+            Math.min(inputs.odometryDrivePositionsRad.length, inputs.odometryTurnPositions.length));
+    if (sampleCount > odometryDistancesMeters.length) {
+      odometryDistancesMeters = new double[sampleCount];
+      odometryAnglesRad = new double[sampleCount];
+    }
+    double turnOffsetRad = turnRelativeOffset != null ? turnRelativeOffset.getRadians() : 0.0;
+    for (int i = 0; i < sampleCount; i++) {
+      odometryDistancesMeters[i] = inputs.odometryDrivePositionsRad[i] * WHEEL_RADIUS;
+      odometryAnglesRad[i] = inputs.odometryTurnPositions[i].getRadians() + turnOffsetRad;
     }
+    odometrySampleCount = sampleCount;
   }
 
   /** Runs the module with the specified setpoint state. Returns the optimized state. */
@@ -123,6 +155,38 @@ public class Module {
     return optimizedState;
   }
 
+  /** Returns whether the module can be driven by a {@link HighRateDriveLoop}. */
+  public boolean supportsHighRateControl() {
+    return io.supportsHighRateControl();
+  }
+
+  /** Clears the main loop setpoints while a {@link HighRateDriveLoop} drives the module. */
+  public void yieldToHighRateLoop() {
+    angleSetpoint = null;
+    speedSetpoint = null;
+  }
+
+  /**
+   * Optimizes and sends a setpoint against the module angle sampled in an odometry frame. Odometry
+   * thread only.
+   *
+   * @param frame Frame passed to the {@link PhoenixOdometryThread.FrameListener}
+   * @param speedMetersPerSec Unoptimized module speed
+   * @param angleRad Unoptimized module angle
+   */
+  void runHighRateSetpoint(double[] frame, double speedMetersPerSec, double angleRad) {
+    // Same as SwerveModuleState.optimize followed by the cosine scaling in periodic
+    double turnErrorRad = MathUtil.angleModulus(angleRad - io.getFrameTurnAngleRad(frame));
+    if (Math.abs(turnErrorRad) > Math.PI / 2.0) {
+      speedMetersPerSec = -speedMetersPerSec;
+      angleRad = MathUtil.angleModulus(angleRad + Math.PI);
+      turnErrorRad = MathUtil.angleModulus(turnErrorRad + Math.PI);
+    }
+    double velocityRadPerSec = speedMetersPerSec * Math.cos(turnErrorRad) / WHEEL_RADIUS;
+    io.setHighRateSetpoint(
+        velocityRadPerSec, driveFeedforward.calculate(velocityRadPerSec), angleRad);
+  }
+
   /** Runs the module with the specified voltage while controlling to zero degrees. */
   public void runCharacterization(double volts) {
     // Closed loop turn control
@@ -179,9 +243,19 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
-  /** Returns the module positions received this cycle. */
-  public SwerveModulePosition[] getOdometryPositions() {
-    return odometryPositions;
+  /** Returns the number of odometry samples received this cycle. */
+  public int getOdometrySampleCount() {
+    return odometrySampleCount;
+  }
+
+  /** Returns the drive position in meters of the given odometry sample from this cycle. */
+  public double getOdometryDistanceMeters(int sampleIndex) {
+    return odometryDistancesMeters[sampleIndex];
+  }
+
+  /** Returns the turn angle in radians of the given odometry sample from this cycle. */
+  public double getOdometryAngleRad(int sampleIndex) {
+    return odometryAnglesRad[sampleIndex];
   }
 
   /** Returns the timestamps of the samples received this cycle. */
@@ -49,6 +49,56 @@ public interface ModuleIO {
   /** Run the turn motor at the specified voltage. */
   public default void setTurnVoltage(double volts) {}
 
+  /**
+   * Returns whether the drive and turn closed loops run on the motor controllers. If so, {@link
+   * #setDriveVelocity} and {@link #setTurnPosition} are used instead of voltages.
+   */
+  public default boolean hasOnboardClosedLoop() {
+    return false;
+  }
+
+  /**
+   * Run the drive motor at the specified wheel velocity using the onboard closed loop.
+   *
+   * @param velocityRadPerSec Wheel velocity setpoint
+   * @param feedforwardVolts Feedforward added to the closed loop output
+   */
+  public default void setDriveVelocity(double velocityRadPerSec, double feedforwardVolts) {}
+
+  /** Run the turn motor to the specified module angle using the onboard closed loop. */
+  public default void setTurnPosition(Rotation2d position) {}
+
+  /**
+   * Returns whether the module can be driven from the odometry thread by {@link HighRateDriveLoop}.
+   * If so, {@link #getFrameTurnAngleRad} and {@link #setHighRateSetpoint} must be safe to call
+   * from that thread.
+   */
+  public default boolean supportsHighRateControl() {
+    return false;
+  }
+
+  /** Returns the module angle sampled in an odometry frame. Odometry thread only. */
+  public default double getFrameTurnAngleRad(double[] frame) {
+    return 0.0;
+  }
+
+  /**
+   * Run the onboard closed loops from the odometry thread. Until the next main loop setter is
+   * called, these setpoints take over the motors.
+   *
+   * @param driveVelocityRadPerSec Wheel velocity setpoint
+   * @param driveFeedforwardVolts Feedforward added to the drive closed loop output
+   * @param angleRad Module angle setpoint
+   */
+  public default void setHighRateSetpoint(
+      double driveVelocityRadPerSec, double driveFeedforwardVolts, double angleRad) {}
+
+  /** Set the onboard drive gains, in volts per wheel radian per second. */
+  public default void configureDrivePID(double kP, double kI, double kD) {}
+
+  /** Set the onboard turn gains, in volts per radian of module angle. */
+  public default void configureTurnPID(double kP, double kI, double kD) {}
+
   /** Enable or disable brake mode on the drive motor. */
   public default void setDriveBrakeMode(boolean enable) {}
 
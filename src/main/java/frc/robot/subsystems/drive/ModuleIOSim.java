@@ -1,6 +1,7 @@
 package frc.robot.subsystems.drive;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.system.plant.DCMotor;
 import edu.wpi.first.wpilibj.Timer;
@@ -12,9 +13,14 @@ import edu.wpi.first.wpilibj.simulation.DCMotorSim;
  * <p>Uses two flywheel sims for the drive and turn motors, with the absolute position initialized
  * to a random value. The flywheel sims are not physically accurate, but provide a decent
  * approximation for the behavior of the module.
+ *
+ * <p>Like a motor controller running its own closed loop, the velocity and position controllers
+ * run at 1 kHz by stepping the physics in 1 ms increments within each loop.
  */
 public class ModuleIOSim implements ModuleIO {
   private static final double LOOP_PERIOD_SECS = 0.02;
+  private static final int CLOSED_LOOP_SUBSTEPS = 20;
+  private static final double SUBSTEP_PERIOD_SECS = LOOP_PERIOD_SECS / CLOSED_LOOP_SUBSTEPS;
 
   private DCMotorSim driveSim = new DCMotorSim(DCMotor.getNEO(1), 6.75, 0.025);
   private DCMotorSim turnSim = new DCMotorSim(DCMotor.getNEO(1), 150.0 / 7.0, 0.004);
@@ -23,10 +29,32 @@ public class ModuleIOSim implements ModuleIO {
   private double driveAppliedVolts = 0.0;
   private double turnAppliedVolts = 0.0;
 
+  private final PIDController driveFeedback = new PIDController(0.0, 0.0, 0.0, SUBSTEP_PERIOD_SECS);
+  private final PIDController turnFeedback = new PIDController(0.0, 0.0, 0.0, SUBSTEP_PERIOD_SECS);
+  private boolean driveClosedLoop = false;
+  private boolean turnClosedLoop = false;
+  private double driveFeedforwardVolts = 0.0;
+
+  public ModuleIOSim() {
+    turnFeedback.enableContinuousInput(-Math.PI, Math.PI);
+  }
+
   @Override
   public void updateInputs(ModuleIOInputs inputs) {
-    driveSim.update(LOOP_PERIOD_SECS);
-    turnSim.update(LOOP_PERIOD_SECS);
+    for (int i = 0; i < CLOSED_LOOP_SUBSTEPS; i++) {
+      if (driveClosedLoop) {
+        applyDriveVoltage(
+            driveFeedforwardVolts
+                + driveFeedback.calculate(driveSim.getAngularVelocityRadPerSec()));
+      }
+      if (turnClosedLoop) {
+        applyTurnVoltage(
+            turnFeedback.calculate(
+                turnSim.getAngularPositionRad() + turnAbsoluteInitPosition.getRadians()));
+      }
+      driveSim.update(SUBSTEP_PERIOD_SECS);
+      turnSim.update(SUBSTEP_PERIOD_SECS);
+    }
 
     inputs.drivePositionRad = driveSim.getAngularPositionRad();
     inputs.driveVelocityRadPerSec = driveSim.getAngularVelocityRadPerSec();
@@ -47,12 +75,50 @@ public class ModuleIOSim implements ModuleIO {
 
   @Override
   public void setDriveVoltage(double volts) {
-    driveAppliedVolts = MathUtil.clamp(volts, -12.0, 12.0);
-    driveSim.setInputVoltage(driveAppliedVolts);
+    driveClosedLoop = false;
+    applyDriveVoltage(volts);
   }
 
   @Override
   public void setTurnVoltage(double volts) {
+    turnClosedLoop = false;
+    applyTurnVoltage(volts);
+  }
+
+  @Override
+  public boolean hasOnboardClosedLoop() {
+    return true;
+  }
+
+  @Override
+  public void setDriveVelocity(double velocityRadPerSec, double feedforwardVolts) {
+    driveClosedLoop = true;
+    driveFeedback.setSetpoint(velocityRadPerSec);
+    driveFeedforwardVolts = feedforwardVolts;
+  }
+
+  @Override
+  public void setTurnPosition(Rotation2d position) {
+    turnClosedLoop = true;
+    turnFeedback.setSetpoint(position.getRadians());
+  }
+
+  @Override
+  public void configureDrivePID(double kP, double kI, double kD) {
+    driveFeedback.setPID(kP, kI, kD);
+  }
+
+  @Override
+  public void configureTurnPID(double kP, double kI, double kD) {
+    turnFeedback.setPID(kP, kI, kD);
+  }
+
+  private void applyDriveVoltage(double volts) {
+    driveAppliedVolts = MathUtil.clamp(volts, -12.0, 12.0);
+    driveSim.setInputVoltage(driveAppliedVolts);
+  }
+
+  private void applyTurnVoltage(double volts) {
     turnAppliedVolts = MathUtil.clamp(volts, -12.0, 12.0);
     turnSim.setInputVoltage(turnAppliedVolts);
   }
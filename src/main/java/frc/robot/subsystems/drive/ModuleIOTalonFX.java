@@ -4,16 +4,19 @@ import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.CANcoderConfiguration;
 import com.ctre.phoenix6.configs.MotorOutputConfigs;
+import com.ctre.phoenix6.configs.Slot0Configs;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
-import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.CANcoder;
 import com.ctre.phoenix6.hardware.TalonFX;
+import com.ctre.phoenix6.signals.FeedbackSensorSourceValue;
 import com.ctre.phoenix6.signals.InvertedValue;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.util.Units;
-import java.util.Queue;
+import frc.util.PhoenixConfigService;
+import frc.util.PhoenixSignalRegistry;
+import frc.util.TalonFXOutput;
 
 /**
  * Module IO implementation for Talon FX drive motor controller, Talon FX turn motor controller, and
@@ -26,23 +29,40 @@ import java.util.Queue;
  * motion on the drive motor will propel the robot forward) and copy the reported values from the
  * absolute encoders using AdvantageScope. These values are logged under
  * "/Drive/ModuleX/TurnAbsolutePositionRad"
+ *
+ * <p>With {@link #USE_ONBOARD_CLOSED_LOOP}, the drive velocity and turn position loops run on the
+ * Talons at 1 kHz. The turn Talon then uses the CANcoder as a remote feedback sensor, and the
+ * encoder offset is applied as the CANcoder's magnet offset so both report the module angle.
+ *
+ * <p>Onboard closed loop also enables high-rate control. The {@link HighRateDriveLoop} then sends
+ * setpoints from the odometry thread through a separate pair of outputs, which the main loop
+ * outputs take back over from the next time they are used.
  */
 public class ModuleIOTalonFX implements ModuleIO {
+  // Off until checked on the robot. Before turning it on, confirm with the robot on blocks that
+  // the CANcoder's direction matches the inverted turn motor (a small positive turn voltage must
+  // raise TurnAbsolutePositionRad), that the modules point straight at zero with the magnet
+  // offsets, and that the converted drive and turn gains track as well as the Java loops.
+  private static final boolean USE_ONBOARD_CLOSED_LOOP = false;
+
   private final TalonFX driveTalon;
   private final TalonFX turnTalon;
   private final CANcoder cancoder;
-
-  private final Queue<Double> timestampQueue;
+  private final TalonFXOutput driveOutput;
+  private final TalonFXOutput turnOutput;
+  private final TalonFXOutput highRateDriveOutput;
+  private final TalonFXOutput highRateTurnOutput;
+  private volatile boolean highRateControlled = false;
 
   private final StatusSignal<Double> drivePosition;
-  private final Queue<Double> drivePositionQueue;
+  private final int drivePositionColumn;
   private final StatusSignal<Double> driveVelocity;
   private final StatusSignal<Double> driveAppliedVolts;
   private final StatusSignal<Double> driveCurrent;
 
   private final StatusSignal<Double> turnAbsolutePosition;
   private final StatusSignal<Double> turnPosition;
-  private final Queue<Double> turnPositionQueue;
+  private final int turnPositionColumn;
   private final StatusSignal<Double> turnVelocity;
   private final StatusSignal<Double> turnAppliedVolts;
   private final StatusSignal<Double> turnCurrent;
@@ -56,6 +76,10 @@ public class ModuleIOTalonFX implements ModuleIO {
   private final Rotation2d absoluteEncoderOffset;
   private boolean isDriveMotorInverted;
 
+  // Turn motor rotations per reported rotation, and the offset still to subtract in software
+  private final double turnSensorRatio = USE_ONBOARD_CLOSED_LOOP ? 1.0 : TURN_GEAR_RATIO;
+  private final Rotation2d turnSoftwareOffset;
+
   public ModuleIOTalonFX(int index) { // Change the order in Drive.java staring at line 102
     switch (index) {
       case 0:
@@ -92,6 +116,15 @@ public class ModuleIOTalonFX implements ModuleIO {
         throw new RuntimeException("Invalid module index");
     }
 
+    // The swerve motors are not Pro licensed, so no FOC
+    driveOutput =
+        new TalonFXOutput(driveTalon, "ControlOutputs/Module" + index + "/Drive", false);
+    turnOutput = new TalonFXOutput(turnTalon, "ControlOutputs/Module" + index + "/Turn", false);
+    highRateDriveOutput =
+        new TalonFXOutput(driveTalon, "ControlOutputs/Module" + index + "/HighRateDrive", false);
+    highRateTurnOutput =
+        new TalonFXOutput(turnTalon, "ControlOutputs/Module" + index + "/HighRateTurn", false);
+
     // var driveConfig = new TalonFXConfiguration();
     // driveConfig.CurrentLimits.SupplyCurrentLimit = 40.0;
     // driveConfig.CurrentLimits.SupplyCurrentLimitEnable = true;
@@ -100,18 +133,39 @@ public class ModuleIOTalonFX implements ModuleIO {
 
     // driveTalon.getConfigurator().apply(driveConfig);
 
+    // A full config first, so its stamp lets the partial configs below be skipped only while this
+    // exact Talon still holds them
+    var driveConfig = new TalonFXConfiguration();
+    driveConfig.MotorOutput.Inverted =
+        isDriveMotorInverted
+            ? InvertedValue.Clockwise_Positive
+            : InvertedValue.CounterClockwise_Positive;
+    PhoenixConfigService.apply(
+        driveTalon, driveConfig, () -> driveTalon.getConfigurator().apply(driveConfig));
+
     var turnConfig = new TalonFXConfiguration();
     turnConfig.CurrentLimits.SupplyCurrentLimit = 30.0;
     turnConfig.CurrentLimits.SupplyCurrentLimitEnable = true;
-    turnTalon.getConfigurator().apply(turnConfig);
+    var cancoderConfig = new CANcoderConfiguration();
+    if (USE_ONBOARD_CLOSED_LOOP) {
+      turnConfig.Feedback.FeedbackRemoteSensorID = cancoder.getDeviceID();
+      turnConfig.Feedback.FeedbackSensorSource = FeedbackSensorSourceValue.RemoteCANcoder;
+      turnConfig.Feedback.RotorToSensorRatio = TURN_GEAR_RATIO;
+      turnConfig.ClosedLoopGeneral.ContinuousWrap = true;
+      cancoderConfig.MagnetSensor.MagnetOffset = -absoluteEncoderOffset.getRotations();
+      turnSoftwareOffset = new Rotation2d();
+    } else {
+      turnSoftwareOffset = absoluteEncoderOffset;
+    }
+    PhoenixConfigService.apply(
+        turnTalon, turnConfig, () -> turnTalon.getConfigurator().apply(turnConfig));
     setTurnBrakeMode(true);
 
-    cancoder.getConfigurator().apply(new CANcoderConfiguration());
-
-    timestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
+    PhoenixConfigService.apply(
+        cancoder, cancoderConfig, () -> cancoder.getConfigurator().apply(cancoderConfig));
 
     drivePosition = driveTalon.getPosition();
-    drivePositionQueue =
+    drivePositionColumn =
         PhoenixOdometryThread.getInstance().registerSignal(driveTalon, driveTalon.getPosition());
     driveVelocity = driveTalon.getVelocity();
     driveAppliedVolts = driveTalon.getMotorVoltage();
@@ -119,7 +173,7 @@ public class ModuleIOTalonFX implements ModuleIO {
 
     turnAbsolutePosition = cancoder.getAbsolutePosition();
     turnPosition = turnTalon.getPosition();
-    turnPositionQueue =
+    turnPositionColumn =
         PhoenixOdometryThread.getInstance().registerSignal(turnTalon, turnTalon.getPosition());
     turnVelocity = turnTalon.getVelocity();
     turnAppliedVolts = turnTalon.getMotorVoltage();
@@ -138,14 +192,17 @@ public class ModuleIOTalonFX implements ModuleIO {
         turnCurrent);
     driveTalon.optimizeBusUtilization();
     turnTalon.optimizeBusUtilization();
+
+    PhoenixSignalRegistry.register(
+        driveTalon, drivePosition, driveVelocity, driveAppliedVolts, driveCurrent);
+    PhoenixSignalRegistry.register(
+        turnTalon, turnPosition, turnVelocity, turnAppliedVolts, turnCurrent);
+    PhoenixSignalRegistry.register(cancoder, turnAbsolutePosition);
   }
 
   @Override
   public void updateInputs(ModuleIOInputs inputs) {
-    BaseStatusSignal.refreshAll(drivePosition, driveVelocity, driveAppliedVolts, driveCurrent);
-    BaseStatusSignal.refreshAll(
-        turnAbsolutePosition, turnPosition, turnVelocity, turnAppliedVolts, turnCurrent);
-
+    // Signals were refreshed in one batch by PhoenixSignalRegistry at the start of the loop
     inputs.drivePositionRad =
         Units.rotationsToRadians(drivePosition.getValueAsDouble()) / DRIVE_GEAR_RATIO;
     inputs.driveVelocityRadPerSec =
@@ -155,27 +212,29 @@ public class ModuleIOTalonFX implements ModuleIO {
 
     inputs.turnAbsolutePosition =
         Rotation2d.fromRotations(turnAbsolutePosition.getValueAsDouble())
-            .minus(absoluteEncoderOffset);
+            .minus(turnSoftwareOffset);
     inputs.turnPosition =
-        Rotation2d.fromRotations(turnPosition.getValueAsDouble() / TURN_GEAR_RATIO);
+        Rotation2d.fromRotations(turnPosition.getValueAsDouble() / turnSensorRatio);
     inputs.turnVelocityRadPerSec =
-        Units.rotationsToRadians(turnVelocity.getValueAsDouble()) / TURN_GEAR_RATIO;
+        Units.rotationsToRadians(turnVelocity.getValueAsDouble()) / turnSensorRatio;
     inputs.turnAppliedVolts = turnAppliedVolts.getValueAsDouble();
     inputs.turnCurrentAmps = new double[] {turnCurrent.getValueAsDouble()};
 
-    inputs.odometryTimestamps =
-        timestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream()
-            .mapToDouble((Double value) -> Units.rotationsToRadians(value) / DRIVE_GEAR_RATIO)
-            .toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream()
-            .map((Double value) -> Rotation2d.fromRotations(value / TURN_GEAR_RATIO))
-            .toArray(Rotation2d[]::new);
-    timestampQueue.clear();
-    // drivePositionQueue.clear();
-    // turnPositionQueue.clear();
+    // Every frame holds both positions sampled at its timestamp, so the arrays always line up
+    PhoenixOdometryThread odometryThread = PhoenixOdometryThread.getInstance();
+    int sampleCount = odometryThread.getFrameCount();
+    inputs.odometryTimestamps = new double[sampleCount];
+    inputs.odometryDrivePositionsRad = new double[sampleCount];
+    inputs.odometryTurnPositions = new Rotation2d[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryTimestamps[i] = odometryThread.getFrameTimestamp(i);
+      inputs.odometryDrivePositionsRad[i] =
+          Units.rotationsToRadians(odometryThread.getFrameValue(i, drivePositionColumn))
+              / DRIVE_GEAR_RATIO;
+      inputs.odometryTurnPositions[i] =
+          Rotation2d.fromRotations(
+              odometryThread.getFrameValue(i, turnPositionColumn) / turnSensorRatio);
+    }
 
     Rotation2d angle = inputs.turnPosition;
     inputs.state = new SwerveModuleState(inputs.driveVelocityRadPerSec, angle);
@@ -184,13 +243,90 @@ public class ModuleIOTalonFX implements ModuleIO {
 
   @Override
   public void setDriveVoltage(double volts) {
-
-    driveTalon.setControl(new VoltageOut(volts));
+    takeBackHighRateControl();
+    driveOutput.setVoltage(volts);
   }
 
   @Override
   public void setTurnVoltage(double volts) {
-    turnTalon.setControl(new VoltageOut(volts));
+    takeBackHighRateControl();
+    turnOutput.setVoltage(volts);
+  }
+
+  /** Makes the main loop outputs resend, since the high-rate outputs overrode them. */
+  private void takeBackHighRateControl() {
+    if (highRateControlled) {
+      highRateControlled = false;
+      driveOutput.invalidate();
+      turnOutput.invalidate();
+    }
+  }
+
+  @Override
+  public boolean hasOnboardClosedLoop() {
+    return USE_ONBOARD_CLOSED_LOOP;
+  }
+
+  @Override
+  public void setDriveVelocity(double velocityRadPerSec, double feedforwardVolts) {
+    takeBackHighRateControl();
+    driveOutput.setVelocity(
+        Units.radiansToRotations(velocityRadPerSec) * DRIVE_GEAR_RATIO, feedforwardVolts);
+  }
+
+  @Override
+  public void setTurnPosition(Rotation2d position) {
+    takeBackHighRateControl();
+    turnOutput.setPosition(position.getRotations());
+  }
+
+  @Override
+  public boolean supportsHighRateControl() {
+    return USE_ONBOARD_CLOSED_LOOP;
+  }
+
+  @Override
+  public double getFrameTurnAngleRad(double[] frame) {
+    return Units.rotationsToRadians(
+        PhoenixOdometryThread.FrameListener.getValue(frame, turnPositionColumn) / turnSensorRatio);
+  }
+
+  @Override
+  public void setHighRateSetpoint(
+      double driveVelocityRadPerSec, double driveFeedforwardVolts, double angleRad) {
+    if (!highRateControlled) {
+      // The main loop's outputs overrode these since they last sent, so they must resend
+      highRateControlled = true;
+      highRateDriveOutput.invalidate();
+      highRateTurnOutput.invalidate();
+    }
+    highRateDriveOutput.setVelocity(
+        Units.radiansToRotations(driveVelocityRadPerSec) * DRIVE_GEAR_RATIO, driveFeedforwardVolts);
+    highRateTurnOutput.setPosition(Units.radiansToRotations(angleRad));
+  }
+
+  @Override
+  public void configureDrivePID(double kP, double kI, double kD) {
+    // The Talon's error is in motor rotations per second rather than wheel radians per second
+    double wheelRadPerMotorRotation = Units.rotationsToRadians(1.0) / DRIVE_GEAR_RATIO;
+    var config = new Slot0Configs();
+    config.kP = kP * wheelRadPerMotorRotation;
+    config.kI = kI * wheelRadPerMotorRotation;
+    config.kD = kD * wheelRadPerMotorRotation;
+    PhoenixConfigService.apply(
+        driveTalon, config, () -> driveTalon.getConfigurator().apply(config));
+  }
+
+  @Override
+  public void configureTurnPID(double kP, double kI, double kD) {
+    // The Talon's error is in module rotations rather than radians
+    double radPerRotation = Units.rotationsToRadians(1.0);
+    var config = new Slot0Configs();
+    config.kP = kP * radPerRotation;
+    config.kI = kI * radPerRotation;
+    config.kD = kD * radPerRotation;
+    PhoenixConfigService.apply(
+        turnTalon, config, () -> turnTalon.getConfigurator().apply(config));
   }
 
   @Override
@@ -201,7 +337,8 @@ public class ModuleIOTalonFX implements ModuleIO {
             ? InvertedValue.Clockwise_Positive
             : InvertedValue.CounterClockwise_Positive;
     config.NeutralMode = enable ? NeutralModeValue.Brake : NeutralModeValue.Coast;
-    driveTalon.getConfigurator().apply(config);
+    PhoenixConfigService.apply(
+        driveTalon, config, () -> driveTalon.getConfigurator().apply(config));
   }
 
   @Override
@@ -212,6 +349,7 @@ public class ModuleIOTalonFX implements ModuleIO {
             ? InvertedValue.Clockwise_Positive
             : InvertedValue.CounterClockwise_Positive;
     config.NeutralMode = enable ? NeutralModeValue.Brake : NeutralModeValue.Coast;
-    turnTalon.getConfigurator().apply(config);
+    PhoenixConfigService.apply(
+        turnTalon, config, () -> turnTalon.getConfigurator().apply(config));
   }
 }
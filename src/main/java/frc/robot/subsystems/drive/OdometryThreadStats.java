@@ -0,0 +1,87 @@
+package frc.robot.subsystems.drive;
+
+import frc.util.AtomicHistogram;
+import java.util.concurrent.atomic.AtomicLong;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Timing and health measurements of the {@link PhoenixOdometryThread}.
+ *
+ * <p>The odometry thread records into atomic histograms and counters every loop without
+ * allocating. The main loop calls {@link #logSummary(String, long)} every cycle, which summarizes
+ * the last second of measurements into AdvantageKit outputs once per second.
+ */
+public class OdometryThreadStats {
+  private static final long SUMMARY_PERIOD_MICROS = 1_000_000;
+
+  // All histograms are in microseconds
+  private final AtomicHistogram periodMicros = new AtomicHistogram(100, 200);
+  private final AtomicHistogram jitterMicros = new AtomicHistogram(50, 200);
+  private final AtomicHistogram cycleMicros = new AtomicHistogram(25, 200);
+  private final AtomicHistogram latencyMicros = new AtomicHistogram(100, 200);
+  private final AtomicLong waitTimeouts = new AtomicLong();
+  private final AtomicLong missedDeadlines = new AtomicLong();
+
+  private long lastSummaryMicros = Logger.getRealTimestamp();
+
+  /**
+   * Records one loop of the odometry thread. Odometry thread only.
+   *
+   * @param periodNanos Time since the previous wakeup
+   * @param nominalPeriodNanos Period the thread is trying to hold
+   * @param cycleNanos Time spent refreshing signals, publishing the frame and running listeners
+   * @param averageLatencySeconds Average latency of the sampled signals
+   */
+  void recordLoop(
+      long periodNanos, long nominalPeriodNanos, long cycleNanos, double averageLatencySeconds) {
+    periodMicros.record(periodNanos / 1000);
+    jitterMicros.record(Math.abs(periodNanos - nominalPeriodNanos) / 1000);
+    cycleMicros.record(cycleNanos / 1000);
+    latencyMicros.record((long) (averageLatencySeconds * 1e6));
+  }
+
+  /** Records a waitForAll call that timed out before every signal updated. */
+  void recordWaitTimeout() {
+    waitTimeouts.incrementAndGet();
+  }
+
+  /** Records wakeups skipped because the thread fell at least a full period behind. */
+  void recordMissedDeadlines(long count) {
+    missedDeadlines.addAndGet(count);
+  }
+
+  /**
+   * Logs percentiles of the measurements since the last summary, at most once per second. Main
+   * loop only.
+   *
+   * @param key Log key to record under
+   * @param droppedFrames Total frames dropped because the main loop fell behind
+   */
+  public void logSummary(String key, long droppedFrames) {
+    long nowMicros = Logger.getRealTimestamp();
+    long elapsedMicros = nowMicros - lastSummaryMicros;
+    if (elapsedMicros < SUMMARY_PERIOD_MICROS) {
+      return;
+    }
+    lastSummaryMicros = nowMicros;
+
+    long loops = periodMicros.snapshotWindow();
+    jitterMicros.snapshotWindow();
+    cycleMicros.snapshotWindow();
+    latencyMicros.snapshotWindow();
+
+    Logger.recordOutput(key + "/FrequencyHz", loops * 1e6 / elapsedMicros);
+    Logger.recordOutput(key + "/PeriodP50Ms", periodMicros.getWindowPercentile(0.5) / 1e3);
+    Logger.recordOutput(key + "/PeriodP99Ms", periodMicros.getWindowPercentile(0.99) / 1e3);
+    Logger.recordOutput(key + "/PeriodMaxMs", periodMicros.getWindowPercentile(1.0) / 1e3);
+    Logger.recordOutput(key + "/AverageJitterMs", jitterMicros.getWindowMean() / 1e3);
+    Logger.recordOutput(key + "/JitterP99Ms", jitterMicros.getWindowPercentile(0.99) / 1e3);
+    Logger.recordOutput(key + "/MaxJitterMs", jitterMicros.getWindowPercentile(1.0) / 1e3);
+    Logger.recordOutput(key + "/CycleP50Ms", cycleMicros.getWindowPercentile(0.5) / 1e3);
+    Logger.recordOutput(key + "/CycleP99Ms", cycleMicros.getWindowPercentile(0.99) / 1e3);
+    Logger.recordOutput(key + "/AverageLatencyMs", latencyMicros.getWindowMean() / 1e3);
+    Logger.recordOutput(key + "/WaitTimeouts", waitTimeouts.get());
+    Logger.recordOutput(key + "/MissedDeadlines", missedDeadlines.get());
+    Logger.recordOutput(key + "/DroppedFrames", droppedFrames);
+  }
+}
@@ -2,31 +2,75 @@ package frc.robot.subsystems.drive;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.hardware.ParentDevice;
+import frc.util.DoubleRingBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import org.littletonrobotics.junction.Logger;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements.
  *
- * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. When using
- * a CANivore, the thread uses the "waitForAll" blocking method to enable more consistent sampling.
- * This also allows Phoenix Pro users to benefit from lower latency between devices using CANivore
- * time synchronization.
+ * <p>Every wakeup publishes a single frame holding the sample timestamp followed by the value of
+ * every registered signal, so all modules and the gyro always see the same samples at the same
+ * timestamps. Frames travel through one lock-free {@link DoubleRingBuffer} with this thread as the
+ * producer. The main loop drains it once per cycle with {@link #pollFrames()} before any IO
+ * updates its inputs, and each IO then reads its own columns out of that batch.
+ *
+ * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. When every
+ * signal is on a single CANivore, the thread uses the "waitForAll" blocking method to enable more
+ * consistent sampling. This also allows Phoenix Pro users to benefit from lower latency between
+ * devices using CANivore time synchronization. Otherwise the thread wakes on absolute deadlines so
+ * the rate does not drift, and refreshes each bus's signals together.
+ *
+ * <p>{@link FrameListener}s run on this thread right after each frame is published, for control
+ * that should react to every sample rather than once per main loop cycle.
  */
 public class PhoenixOdometryThread extends Thread {
+  /** Receives every frame on the odometry thread. Must not block or allocate. */
+  @FunctionalInterface
+  public interface FrameListener {
+    /**
+     * @param frame The sample timestamp followed by the value of every signal. Only valid during
+     *     the call, read values with {@link #getValue(double[], int)}.
+     */
+    void onFrame(double[] frame);
+
+    /** Returns the value of a signal in a frame passed to {@link #onFrame(double[])}. */
+    static double getValue(double[] frame, int column) {
+      return frame[1 + column];
+    }
+  }
+
   private final Lock signalsLock =
       new ReentrantLock(); // Prevents conflicts when registering signals
   private BaseStatusSignal[] signals = new BaseStatusSignal[0];
-  private final List<Queue<Double>> queues = new ArrayList<>();
-  private final List<Queue<Double>> timestampQueues = new ArrayList<>();
+  private final List<String> networks = new ArrayList<>();
+  private BaseStatusSignal[][] signalsByNetwork = new BaseStatusSignal[0][];
   private boolean isCANFD = false;
+  private FrameListener[] frameListeners = new FrameListener[0];
+
+  static final int QUEUE_CAPACITY = 32;
+
+  private static final long PERIOD_NANOS = (long) (1e9 / Module.ODOMETRY_FREQUENCY);
+
+  private final OdometryThreadStats stats = new OdometryThreadStats();
+
+  // Created on start, once every signal has been registered and the frame width is known
+  private DoubleRingBuffer frameQueue = null;
+  private double[] frameBuffer = new double[0];
+
+  // Frames drained by the main loop this cycle, packed back-to-back
+  private double[] polledFrames = new double[0];
+  private int polledFrameCount = 0;
+  private int frameWidth = 1;
 
   private static PhoenixOdometryThread instance = null;
 
@@ -44,83 +88,168 @@ public class PhoenixOdometryThread extends Thread {
 
   @Override
   public void start() {
-    if (timestampQueues.size() > 0) {
+    if (signals.length > 0) {
+      // refreshAll and waitForAll only accept signals from a single bus
+      Map<String, List<BaseStatusSignal>> groups = new LinkedHashMap<>();
+      for (int i = 0; i < signals.length; i++) {
+        groups.computeIfAbsent(networks.get(i), network -> new ArrayList<>()).add(signals[i]);
+      }
+      signalsByNetwork = new BaseStatusSignal[groups.size()][];
+      int group = 0;
+      for (List<BaseStatusSignal> networkSignals : groups.values()) {
+        signalsByNetwork[group++] = networkSignals.toArray(new BaseStatusSignal[0]);
+      }
+      isCANFD = groups.size() == 1 && CANBus.isNetworkFD(networks.get(0));
+
+      frameWidth = 1 + signals.length;
+      frameQueue = new DoubleRingBuffer(QUEUE_CAPACITY, frameWidth);
+      frameBuffer = new double[frameWidth];
+      polledFrames = new double[frameQueue.capacity() * frameWidth];
       super.start();
     }
   }
 
-  public Queue<Double> registerSignal(ParentDevice device, StatusSignal<Double> signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
+  /**
+   * Registers a signal to be sampled with every frame. Must be called before {@link #start()}.
+   *
+   * @return Column of the signal, to be passed to {@link #getFrameValue(int, int)}
+   */
+  public int registerSignal(ParentDevice device, StatusSignal<Double> signal) {
     signalsLock.lock();
-    Drive.odometryLock.lock();
     try {
-      isCANFD = CANBus.isNetworkFD(device.getNetwork());
-      BaseStatusSignal[] newSignals = new BaseStatusSignal[signals.length + 20];
+      if (frameQueue != null) {
+        throw new IllegalStateException("Signals must be registered before the thread starts");
+      }
+      networks.add(device.getNetwork());
+      BaseStatusSignal[] newSignals = new BaseStatusSignal[signals.length + 1];
       System.arraycopy(signals, 0, newSignals, 0, signals.length);
       newSignals[signals.length] = signal;
       signals = newSignals;
-      queues.add(queue);
+      return signals.length - 1;
     } finally {
       signalsLock.unlock();
-      Drive.odometryLock.unlock();
     }
-    return queue;
   }
 
-  public Queue<Double> makeTimestampQueue() {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
+  /** Adds a listener run on every frame. Must be called before {@link #start()}. */
+  public void addFrameListener(FrameListener listener) {
+    signalsLock.lock();
     try {
-      timestampQueues.add(queue);
+      if (frameQueue != null) {
+        throw new IllegalStateException("Listeners must be added before the thread starts");
+      }
+      FrameListener[] newListeners = new FrameListener[frameListeners.length + 1];
+      System.arraycopy(frameListeners, 0, newListeners, 0, frameListeners.length);
+      newListeners[frameListeners.length] = listener;
+      frameListeners = newListeners;
     } finally {
-      Drive.odometryLock.unlock();
+      signalsLock.unlock();
     }
-    return queue;
+  }
+
+  /**
+   * Moves every frame published since the last call into the batch read by the IO classes. Call
+   * once per main loop cycle, before any IO updates its inputs.
+   */
+  public void pollFrames() {
+    polledFrameCount =
+        frameQueue == null ? 0 : frameQueue.drainTo(polledFrames, frameQueue.capacity());
+  }
+
+  /** Returns the number of frames in the current batch. */
+  public int getFrameCount() {
+    return polledFrameCount;
+  }
+
+  /** Returns the timestamp of a frame in the current batch in seconds. */
+  public double getFrameTimestamp(int frame) {
+    return polledFrames[frame * frameWidth];
+  }
+
+  /**
+   * Returns the value of a signal in a frame of the current batch.
+   *
+   * @param frame Index of the frame, oldest first
+   * @param column Column returned by {@link #registerSignal}
+   */
+  public double getFrameValue(int frame, int column) {
+    return polledFrames[frame * frameWidth + 1 + column];
+  }
+
+  /** Returns the timing and health measurements of this thread. */
+  public OdometryThreadStats getStats() {
+    return stats;
+  }
+
+  /** Returns the total number of frames dropped because the main loop fell behind. */
+  public long getOverrunCount() {
+    return frameQueue == null ? 0 : frameQueue.getOverrunCount();
   }
 
   @Override
   public void run() {
+    long deadlineNanos = System.nanoTime() + PERIOD_NANOS;
+    long lastWakeNanos = System.nanoTime();
+
     while (true) {
       // Wait for updates from all signals
-      signalsLock.lock();
-      try {
-        if (isCANFD) {
-          BaseStatusSignal.waitForAll(2.0 / Module.ODOMETRY_FREQUENCY, signals);
-        } else {
-          // "waitForAll" does not support blocking on multiple
-          // signals with a bus that is not CAN FD, regardless
-          // of Pro licensing. No reasoning for this behavior
-          // is provided by the documentation.
-          Thread.sleep((long) (1000.0 / Module.ODOMETRY_FREQUENCY));
-          System.out.print(isCANFD);
-          if (signals.length > 0) BaseStatusSignal.refreshAll();
+      if (isCANFD) {
+        StatusCode status = BaseStatusSignal.waitForAll(2.0 / Module.ODOMETRY_FREQUENCY, signals);
+        if (status != StatusCode.OK) {
+          stats.recordWaitTimeout();
         }
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      } finally {
-        signalsLock.unlock();
+      } else {
+        // "waitForAll" does not support blocking on multiple
+        // signals with a bus that is not CAN FD, regardless
+        // of Pro licensing. No reasoning for this behavior
+        // is provided by the documentation.
+        deadlineNanos = waitForDeadline(deadlineNanos);
       }
-
-      // Save new data to queues
-      Drive.odometryLock.lock();
-      try {
-        double timestamp = Logger.getRealTimestamp() / 1e6;
-        double totalLatency = 0.0;
-        for (BaseStatusSignal signal : signals) {
-          totalLatency += signal.getTimestamp().getLatency();
-        }
-        if (signals.length > 0) {
-          timestamp -= totalLatency / signals.length;
+      long wakeNanos = System.nanoTime();
+      if (!isCANFD) {
+        for (BaseStatusSignal[] networkSignals : signalsByNetwork) {
+          BaseStatusSignal.refreshAll(networkSignals);
         }
-        for (int i = 0; i < signals.length; i++) {
-          queues.get(i).offer(signals[i].getValueAsDouble());
-        }
-        for (int i = 0; i < timestampQueues.size(); i++) {
-          timestampQueues.get(i).offer(timestamp);
-        }
-      } finally {
-        Drive.odometryLock.unlock();
       }
+
+      // Publish the frame. The consumer only sees it once every value has been written.
+      double timestamp = Logger.getRealTimestamp() / 1e6;
+      double totalLatency = 0.0;
+      for (int i = 0; i < signals.length; i++) {
+        frameBuffer[i + 1] = signals[i].getValueAsDouble();
+        totalLatency += signals[i].getTimestamp().getLatency();
+      }
+      double averageLatency = totalLatency / signals.length;
+      frameBuffer[0] = timestamp - averageLatency;
+      frameQueue.offer(frameBuffer);
+      for (FrameListener listener : frameListeners) {
+        listener.onFrame(frameBuffer);
+      }
+
+      stats.recordLoop(
+          wakeNanos - lastWakeNanos, PERIOD_NANOS, System.nanoTime() - wakeNanos, averageLatency);
+      lastWakeNanos = wakeNanos;
+    }
+  }
+
+  /**
+   * Parks until an absolute deadline. If the thread already fell a full period behind, the missed
+   * wakeups are counted and skipped rather than run back-to-back.
+   *
+   * @return The deadline of the following wakeup
+   */
+  private long waitForDeadline(long deadlineNanos) {
+    long lateNanos = System.nanoTime() - deadlineNanos;
+    if (lateNanos >= PERIOD_NANOS) {
+      long missed = lateNanos / PERIOD_NANOS;
+      stats.recordMissedDeadlines(missed);
+      deadlineNanos += missed * PERIOD_NANOS;
+    }
+
+    long remainingNanos;
+    while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remainingNanos);
     }
+    return deadlineNanos + PERIOD_NANOS;
   }
 }
@@ -0,0 +1,198 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+
+/**
+ * Allocation-free swerve odometry.
+ *
+ * <p>Performs the same math as {@link
+ * edu.wpi.first.math.kinematics.SwerveDriveKinematics#toTwist2d} and {@link Pose2d#exp}, but on
+ * primitive buffers that are allocated once. This lets us integrate every high-frequency odometry
+ * sample without creating garbage on the RIO.
+ */
+public class SwerveOdometryIntegrator {
+  private final int moduleCount;
+
+  // Rows of the forward kinematics matrix (pseudo-inverse of the inverse kinematics), laid out as
+  // [m0x, m0y, m1x, m1y, ...] to match the interleaved module delta vector
+  private final double[] forwardVx;
+  private final double[] forwardVy;
+  private final double[] forwardOmega;
+
+  private final double[] lastDistancesMeters;
+  private boolean hasLastDistances = false;
+
+  private double twistDx = 0.0;
+  private double twistDy = 0.0;
+  private double twistDtheta = 0.0;
+
+  private double poseX = 0.0;
+  private double poseY = 0.0;
+  private double poseThetaRad = 0.0;
+  private double headingOffsetRad = 0.0;
+
+  public SwerveOdometryIntegrator(Translation2d... moduleTranslations) {
+    moduleCount = moduleTranslations.length;
+    forwardVx = new double[moduleCount * 2];
+    forwardVy = new double[moduleCount * 2];
+    forwardOmega = new double[moduleCount * 2];
+    lastDistancesMeters = new double[moduleCount];
+
+    // Each module contributes the rows [1, 0, -y] and [0, 1, x] to the inverse kinematics matrix A.
+    // The forward kinematics are (A^T A)^-1 A^T, where A^T A only depends on these sums.
+    double sumX = 0.0;
+    double sumY = 0.0;
+    double sumSquares = 0.0;
+    for (Translation2d translation : moduleTranslations) {
+      sumX += translation.getX();
+      sumY += translation.getY();
+      sumSquares +=
+          translation.getX() * translation.getX() + translation.getY() * translation.getY();
+    }
+
+    double[][] inverse =
+        invert3x3(
+            new double[][] {
+              {moduleCount, 0.0, -sumY},
+              {0.0, moduleCount, sumX},
+              {-sumY, sumX, sumSquares}
+            });
+    double[][] rows = new double[][] {forwardVx, forwardVy, forwardOmega};
+
+    for (int row = 0; row < 3; row++) {
+      for (int i = 0; i < moduleCount; i++) {
+        double x = moduleTranslations[i].getX();
+        double y = moduleTranslations[i].getY();
+        rows[row][i * 2] = inverse[row][0] - inverse[row][2] * y;
+        rows[row][i * 2 + 1] = inverse[row][1] + inverse[row][2] * x;
+      }
+    }
+  }
+
+  private static double[][] invert3x3(double[][] m) {
+    double a = m[0][0], b = m[0][1], c = m[0][2];
+    double d = m[1][0], e = m[1][1], f = m[1][2];
+    double g = m[2][0], h = m[2][1], k = m[2][2];
+
+    double det = a * (e * k - f * h) - b * (d * k - f * g) + c * (d * h - e * g);
+    double invDet = 1.0 / det;
+
+    return new double[][] {
+      {(e * k - f * h) * invDet, (c * h - b * k) * invDet, (b * f - c * e) * invDet},
+      {(f * g - d * k) * invDet, (a * k - c * g) * invDet, (c * d - a * f) * invDet},
+      {(d * h - e * g) * invDet, (b * g - a * h) * invDet, (a * e - b * d) * invDet}
+    };
+  }
+
+  /**
+   * Computes the robot-relative twist between the previous and the given module positions. The
+   * first call only latches the positions and produces a zero twist.
+   *
+   * @param distancesMeters Drive position of each module in meters
+   * @param anglesRad Turn angle of each module in radians
+   */
+  public void computeTwist(double[] distancesMeters, double[] anglesRad) {
+    double dx = 0.0;
+    double dy = 0.0;
+    double dtheta = 0.0;
+
+    for (int i = 0; i < moduleCount; i++) {
+      double deltaMeters = hasLastDistances ? distancesMeters[i] - lastDistancesMeters[i] : 0.0;
+      lastDistancesMeters[i] = distancesMeters[i];
+
+      double moduleDx = deltaMeters * Math.cos(anglesRad[i]);
+      double moduleDy = deltaMeters * Math.sin(anglesRad[i]);
+
+      dx += forwardVx[i * 2] * moduleDx + forwardVx[i * 2 + 1] * moduleDy;
+      dy += forwardVy[i * 2] * moduleDx + forwardVy[i * 2 + 1] * moduleDy;
+      dtheta += forwardOmega[i * 2] * moduleDx + forwardOmega[i * 2 + 1] * moduleDy;
+    }
+
+    hasLastDistances = true;
+    twistDx = dx;
+    twistDy = dy;
+    twistDtheta = dtheta;
+  }
+
+  /**
+   * Applies the last twist from {@link #computeTwist} to the pose. Like {@link
+   * edu.wpi.first.math.kinematics.Odometry}, the heading is trusted over the twist's rotation.
+   *
+   * @param headingRad Current gyro (or otherwise tracked) heading in radians
+   */
+  public void integrate(double headingRad) {
+    double newThetaRad = MathUtil.angleModulus(headingRad + headingOffsetRad);
+    double dtheta = MathUtil.angleModulus(newThetaRad - poseThetaRad);
+
+    // Pose exponential, see Pose2d#exp
+    double sinTheta = Math.sin(dtheta);
+    double cosTheta = Math.cos(dtheta);
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1E-9) {
+      s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+      c = 0.5 * dtheta;
+    } else {
+      s = sinTheta / dtheta;
+      c = (1 - cosTheta) / dtheta;
+    }
+    double localDx = twistDx * s - twistDy * c;
+    double localDy = twistDx * c + twistDy * s;
+
+    double poseSin = Math.sin(poseThetaRad);
+    double poseCos = Math.cos(poseThetaRad);
+    poseX += localDx * poseCos - localDy * poseSin;
+    poseY += localDx * poseSin + localDy * poseCos;
+    poseThetaRad = newThetaRad;
+  }
+
+  /**
+   * Resets the pose, keeping the last module positions so the next twist stays continuous.
+   *
+   * @param pose New robot pose
+   * @param headingRad Heading that will be passed to {@link #integrate} at this pose
+   */
+  public void resetPose(Pose2d pose, double headingRad) {
+    poseX = pose.getX();
+    poseY = pose.getY();
+    poseThetaRad = pose.getRotation().getRadians();
+    headingOffsetRad = poseThetaRad - headingRad;
+  }
+
+  /** Returns whether at least one set of module positions has been latched. */
+  public boolean hasSample() {
+    return hasLastDistances;
+  }
+
+  public double getTwistDx() {
+    return twistDx;
+  }
+
+  public double getTwistDy() {
+    return twistDy;
+  }
+
+  public double getTwistDtheta() {
+    return twistDtheta;
+  }
+
+  public double getX() {
+    return poseX;
+  }
+
+  public double getY() {
+    return poseY;
+  }
+
+  public double getThetaRad() {
+    return poseThetaRad;
+  }
+
+  /** Returns a copy of the current pose. Allocates, so prefer the primitive getters per sample. */
+  public Pose2d getPose() {
+    return new Pose2d(poseX, poseY, new Rotation2d(poseThetaRad));
+  }
+}
@@ -0,0 +1,198 @@
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.util.PoseHistoryBuffer;
+
+/**
+ * Allocation-free vision fusion on top of wheel odometry.
+ *
+ * <p>Instead of keeping its own pose history like {@link
+ * edu.wpi.first.math.estimator.SwerveDrivePoseEstimator}, the estimate is stored as a single
+ * field-frame correction applied to the shared wheel odometry: {@code estimate(t) = correction *
+ * odometry(t)}. A vision measurement samples the odometry history at its timestamp, applies the
+ * same steady-state Kalman gain as WPILib to the twist between the estimate and the measurement,
+ * and solves for the new correction. Several views with different gains can share one odometry
+ * history this way.
+ *
+ * <p>Measurements are assumed to arrive in time order, which the vision measurement channel
+ * guarantees within a cycle. Across cycles a camera can still deliver a frame older than one
+ * already applied. Such a measurement is fused against the current correction at its own
+ * timestamp, so the estimate it corrects already includes the newer measurements. The newer
+ * measurements are not replayed on top of it the way SwerveDrivePoseEstimator would. With the
+ * small gains vision gets the difference is small, and nothing is dropped for arriving late.
+ * Measurements older than the odometry history are rejected.
+ */
+public class SwervePoseEstimator implements FusedPoseEstimator {
+  private final SwerveOdometryIntegrator odometry;
+  private final PoseHistoryBuffer odometryHistory;
+  private final double[] stateVariances = new double[3];
+  private final double[] odometrySample = new double[3];
+
+  // Correction from the odometry frame into the field frame
+  private double correctionX = 0.0;
+  private double correctionY = 0.0;
+  private double correctionThetaRad = 0.0;
+  private double correctionCos = 1.0;
+  private double correctionSin = 0.0;
+
+  private long acceptedCount = 0;
+  private long rejectedCount = 0;
+
+  /**
+   * @param odometry Wheel odometry the estimate is corrected from
+   * @param odometryHistory History of {@code odometry}, sampled at measurement timestamps
+   * @param stateStdDevs Trust in the odometry as x and y in meters and heading in radians. Zero
+   *     means the odometry is perfect, so only the measurements are ignored. Infinite means the
+   *     estimate snaps to every measurement.
+   */
+  public SwervePoseEstimator(
+      SwerveOdometryIntegrator odometry,
+      PoseHistoryBuffer odometryHistory,
+      double... stateStdDevs) {
+    this.odometry = odometry;
+    this.odometryHistory = odometryHistory;
+    for (int i = 0; i < 3; i++) {
+      stateVariances[i] = stateStdDevs[i] * stateStdDevs[i];
+    }
+  }
+
+  @Override
+  public void reset() {
+    setCorrection(0.0, 0.0, 0.0);
+  }
+
+  @Override
+  public boolean addVisionMeasurement(
+      double timestamp,
+      double x,
+      double y,
+      double thetaRad,
+      double stdDevX,
+      double stdDevY,
+      double stdDevThetaRad) {
+    if (!odometryHistory.sample(timestamp, odometrySample)) {
+      rejectedCount++;
+      return false;
+    }
+    double odometryX = odometrySample[0];
+    double odometryY = odometrySample[1];
+    double odometryThetaRad = odometrySample[2];
+
+    // Estimate at the measurement time
+    double estimateX = correctionX + correctionCos * odometryX - correctionSin * odometryY;
+    double estimateY = correctionY + correctionSin * odometryX + correctionCos * odometryY;
+    double estimateThetaRad = correctionThetaRad + odometryThetaRad;
+
+    // Measurement relative to the estimate, see Pose2d#log
+    double estimateCos = Math.cos(estimateThetaRad);
+    double estimateSin = Math.sin(estimateThetaRad);
+    double relativeX = estimateCos * (x - estimateX) + estimateSin * (y - estimateY);
+    double relativeY = -estimateSin * (x - estimateX) + estimateCos * (y - estimateY);
+    double dtheta = MathUtil.angleModulus(thetaRad - estimateThetaRad);
+
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1.0;
+    double halfThetaByTanOfHalfDtheta =
+        Math.abs(cosMinusOne) < 1E-9
+            ? 1.0 - 1.0 / 12.0 * dtheta * dtheta
+            : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    double twistDx = relativeX * halfThetaByTanOfHalfDtheta + relativeY * halfDtheta;
+    double twistDy = -relativeX * halfDtheta + relativeY * halfThetaByTanOfHalfDtheta;
+
+    // Scale the twist by the Kalman gain
+    twistDx *= getGain(0, stdDevX);
+    twistDy *= getGain(1, stdDevY);
+    double twistDtheta = dtheta * getGain(2, stdDevThetaRad);
+
+    // Corrected estimate at the measurement time, see Pose2d#exp
+    double sinTheta = Math.sin(twistDtheta);
+    double cosTheta = Math.cos(twistDtheta);
+    double s;
+    double c;
+    if (Math.abs(twistDtheta) < 1E-9) {
+      s = 1.0 - 1.0 / 6.0 * twistDtheta * twistDtheta;
+      c = 0.5 * twistDtheta;
+    } else {
+      s = sinTheta / twistDtheta;
+      c = (1 - cosTheta) / twistDtheta;
+    }
+    double localDx = twistDx * s - twistDy * c;
+    double localDy = twistDx * c + twistDy * s;
+    double correctedX = estimateX + localDx * estimateCos - localDy * estimateSin;
+    double correctedY = estimateY + localDx * estimateSin + localDy * estimateCos;
+    double correctedThetaRad = estimateThetaRad + twistDtheta;
+
+    // Solve corrected = correction * odometry for the new correction
+    double newThetaRad = MathUtil.angleModulus(correctedThetaRad - odometryThetaRad);
+    double newCos = Math.cos(newThetaRad);
+    double newSin = Math.sin(newThetaRad);
+    setCorrection(
+        correctedX - (newCos * odometryX - newSin * odometryY),
+        correctedY - (newSin * odometryX + newCos * odometryY),
+        newThetaRad);
+    acceptedCount++;
+    return true;
+  }
+
+  /** Same gain as SwerveDrivePoseEstimator for a diagonal state and measurement covariance. */
+  private double getGain(int axis, double measurementStdDev) {
+    double q = stateVariances[axis];
+    if (q == 0.0) {
+      return 0.0;
+    }
+    if (Double.isInfinite(q)) {
+      return 1.0;
+    }
+    return q / (q + Math.sqrt(q * measurementStdDev * measurementStdDev));
+  }
+
+  private void setCorrection(double x, double y, double thetaRad) {
+    correctionX = x;
+    correctionY = y;
+    correctionThetaRad = thetaRad;
+    correctionCos = Math.cos(thetaRad);
+    correctionSin = Math.sin(thetaRad);
+  }
+
+  public double getX() {
+    return correctionX + correctionCos * odometry.getX() - correctionSin * odometry.getY();
+  }
+
+  public double getY() {
+    return correctionY + correctionSin * odometry.getX() + correctionCos * odometry.getY();
+  }
+
+  public double getThetaRad() {
+    return MathUtil.angleModulus(correctionThetaRad + odometry.getThetaRad());
+  }
+
+  @Override
+  public Pose2d getPose() {
+    return new Pose2d(getX(), getY(), new Rotation2d(getThetaRad()));
+  }
+
+  @Override
+  public boolean sample(double timestamp, double[] out) {
+    if (!odometryHistory.sample(timestamp, out)) {
+      return false;
+    }
+    double odometryX = out[0];
+    double odometryY = out[1];
+    out[0] = correctionX + correctionCos * odometryX - correctionSin * odometryY;
+    out[1] = correctionY + correctionSin * odometryX + correctionCos * odometryY;
+    out[2] = MathUtil.angleModulus(correctionThetaRad + out[2]);
+    return true;
+  }
+
+  /** Returns the number of measurements applied. */
+  public long getAcceptedCount() {
+    return acceptedCount;
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+}
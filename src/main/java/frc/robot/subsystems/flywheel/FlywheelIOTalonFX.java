@@ -18,17 +18,20 @@ import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.Slot0Configs;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
 import com.ctre.phoenix6.controls.Follower;
-import com.ctre.phoenix6.controls.VelocityVoltage;
-import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.TalonFX;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.math.util.Units;
+import frc.util.PhoenixConfigService;
+import frc.util.PhoenixSignalRegistry;
+import frc.util.TalonFXOutput;
 
 public class FlywheelIOTalonFX implements FlywheelIO {
   private static final double GEAR_RATIO = 1.5;
 
   private final TalonFX leader = new TalonFX(21);
   private final TalonFX follower = new TalonFX(20);
+  private final TalonFXOutput leaderOutput =
+      new TalonFXOutput(leader, "ControlOutputs/Flywheel", true);
 
   private final StatusSignal<Double> leaderPosition = leader.getPosition();
   private final StatusSignal<Double> leaderVelocity = leader.getVelocity();
@@ -41,20 +44,21 @@ public class FlywheelIOTalonFX implements FlywheelIO {
     config.CurrentLimits.SupplyCurrentLimit = 30.0;
     config.CurrentLimits.SupplyCurrentLimitEnable = true;
     config.MotorOutput.NeutralMode = NeutralModeValue.Coast;
-    leader.getConfigurator().apply(config);
-    follower.getConfigurator().apply(config);
+    PhoenixConfigService.apply(leader, config, () -> leader.getConfigurator().apply(config));
+    PhoenixConfigService.apply(follower, config, () -> follower.getConfigurator().apply(config));
     follower.setControl(new Follower(leader.getDeviceID(), false));
 
     BaseStatusSignal.setUpdateFrequencyForAll(
         50.0, leaderPosition, leaderVelocity, leaderAppliedVolts, leaderCurrent, followerCurrent);
     leader.optimizeBusUtilization();
     follower.optimizeBusUtilization();
+    PhoenixSignalRegistry.register(
+        leader, leaderPosition, leaderVelocity, leaderAppliedVolts, leaderCurrent);
+    PhoenixSignalRegistry.register(follower, followerCurrent);
   }
 
   @Override
   public void updateInputs(FlywheelIOInputs inputs) {
-    BaseStatusSignal.refreshAll(
-        leaderPosition, leaderVelocity, leaderAppliedVolts, leaderCurrent, followerCurrent);
     inputs.positionRad = Units.rotationsToRadians(leaderPosition.getValueAsDouble()) / GEAR_RATIO;
     inputs.velocityRadPerSec =
         Units.rotationsToRadians(leaderVelocity.getValueAsDouble()) / GEAR_RATIO;
@@ -65,26 +69,17 @@ public class FlywheelIOTalonFX implements FlywheelIO {
 
   @Override
   public void setVoltage(double volts) {
-    leader.setControl(new VoltageOut(volts));
+    leaderOutput.setVoltage(volts);
   }
 
   @Override
   public void setVelocity(double velocityRadPerSec, double ffVolts) {
-    leader.setControl(
-        new VelocityVoltage(
-            Units.radiansToRotations(velocityRadPerSec),
-            0.0,
-            true,
-            ffVolts,
-            0,
-            false,
-            false,
-            false));
+    leaderOutput.setVelocity(Units.radiansToRotations(velocityRadPerSec), ffVolts);
   }
 
   @Override
   public void stop() {
-    leader.stopMotor();
+    leaderOutput.stop();
   }
 
   @Override
@@ -93,6 +88,6 @@ public class FlywheelIOTalonFX implements FlywheelIO {
     config.kP = kP;
     config.kI = kI;
     config.kD = kD;
-    leader.getConfigurator().apply(config);
+    PhoenixConfigService.apply(leader, config, () -> leader.getConfigurator().apply(config));
   }
 }
@@ -0,0 +1,66 @@
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTableValue;
+import edu.wpi.first.networktables.PubSubOption;
+import edu.wpi.first.networktables.RawSubscriber;
+import java.util.EnumSet;
+import java.util.function.Consumer;
+import org.photonvision.common.dataflow.structures.Packet;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Hands every pipeline result a PhotonVision camera publishes to a consumer as soon as it arrives.
+ *
+ * <p>Replaces calling {@link org.photonvision.PhotonCamera#getLatestResult()} from a thread that
+ * sleeps between polls. The consumer runs on the NetworkTables listener thread, which is shared by
+ * every camera, so nothing wakes up unless a camera actually sent a frame. The subscription keeps
+ * every value, so frames published faster than the listener runs are queued instead of replaced.
+ */
+public class PhotonResultListener {
+  // Held so the subscription, and with it the listener, stays alive
+  private final RawSubscriber subscriber;
+
+  /**
+   * @param cameraName Name of the camera in PhotonVision
+   * @param consumer Called on the NetworkTables listener thread with each decoded result
+   */
+  public PhotonResultListener(String cameraName, Consumer<PhotonPipelineResult> consumer) {
+    NetworkTableInstance instance = NetworkTableInstance.getDefault();
+
+    subscriber =
+        instance
+            .getTable("photonvision")
+            .getSubTable(cameraName)
+            .getRawTopic("rawBytes")
+            .subscribe("rawBytes", new byte[] {}, PubSubOption.sendAll(true));
+
+    instance.addListener(
+        subscriber,
+        EnumSet.of(NetworkTableEvent.Kind.kValueAll),
+        event -> {
+          if (event.valueData == null) {
+            return;
+          }
+
+          PhotonPipelineResult result = decode(event.valueData.value);
+          if (result != null) {
+            consumer.accept(result);
+          }
+        });
+  }
+
+  /** Decodes a raw result the same way as PhotonCamera, or returns null for an empty value. */
+  private static PhotonPipelineResult decode(NetworkTableValue value) {
+    byte[] bytes = value.getRaw();
+    if (bytes == null || bytes.length == 0) {
+      return null;
+    }
+
+    PhotonPipelineResult result = PhotonPipelineResult.serde.unpack(new Packet(bytes));
+    // The value time is when it arrived in microseconds, the same as RawSubscriber#getLastChange
+    result.setTimestampSeconds(value.getTime() / 1e6 - result.getLatencyMillis() / 1e3);
+    return result;
+  }
+}
@@ -0,0 +1,92 @@
+package frc.robot.subsystems.vision;
+
+import frc.robot.subsystems.vision.VisionSubsystem.VisionMeasurement;
+import java.util.function.Consumer;
+
+/**
+ * Bounded hand-off of vision measurements from {@link VisionSubsystem} to the drive's pose
+ * estimators.
+ *
+ * <p>Measurements are kept sorted by timestamp so they are applied in time order even when
+ * cameras report out of order. When full, the oldest measurement is dropped. Measurements older
+ * than the pose estimator's history window are dropped when drained, since the estimator would
+ * ignore them anyway. Memory use is constant no matter how long nothing drains the channel.
+ */
+public class VisionMeasurementChannel {
+  private final VisionMeasurement[] measurements;
+  private final double maxAgeSeconds;
+  private int size = 0;
+
+  private long acceptedCount = 0;
+  private long staleCount = 0;
+  private long overflowCount = 0;
+
+  /**
+   * @param capacity Maximum number of measurements waiting to be drained
+   * @param maxAgeSeconds Age past which a measurement is dropped instead of applied
+   */
+  public VisionMeasurementChannel(int capacity, double maxAgeSeconds) {
+    measurements = new VisionMeasurement[capacity];
+    this.maxAgeSeconds = maxAgeSeconds;
+  }
+
+  /** Adds a measurement in timestamp order, dropping the oldest one if the channel is full. */
+  public synchronized void offer(VisionMeasurement measurement) {
+    double timestamp = getTimestamp(measurement);
+
+    if (size == measurements.length) {
+      overflowCount++;
+      if (timestamp <= getTimestamp(measurements[0])) {
+        return;
+      }
+      System.arraycopy(measurements, 1, measurements, 0, size - 1);
+      size--;
+    }
+
+    int i = size;
+    while (i > 0 && getTimestamp(measurements[i - 1]) > timestamp) {
+      measurements[i] = measurements[i - 1];
+      i--;
+    }
+    measurements[i] = measurement;
+    size++;
+  }
+
+  /**
+   * Passes every waiting measurement to the consumer, oldest first, and empties the channel.
+   *
+   * @param nowSeconds Current time, used to drop stale measurements
+   * @param consumer Receives each measurement that is recent enough to apply
+   */
+  public synchronized void drain(double nowSeconds, Consumer<VisionMeasurement> consumer) {
+    for (int i = 0; i < size; i++) {
+      if (nowSeconds - getTimestamp(measurements[i]) > maxAgeSeconds) {
+        staleCount++;
+      } else {
+        acceptedCount++;
+        consumer.accept(measurements[i]);
+      }
+      measurements[i] = null;
+    }
+    size = 0;
+  }
+
+  /** Returns the number of measurements passed on to be applied. */
+  public synchronized long getAcceptedCount() {
+    return acceptedCount;
+  }
+
+  /** Returns the number of measurements dropped for being older than the estimator's window. */
+  public synchronized long getStaleCount() {
+    return staleCount;
+  }
+
+  /** Returns the number of measurements dropped because the channel was full. */
+  public synchronized long getOverflowCount() {
+    return overflowCount;
+  }
+
+  private static double getTimestamp(VisionMeasurement measurement) {
+    return measurement.timestamp();
+  }
+}
@@ -1,8 +1,14 @@
 package frc.robot.subsystems.vision;
 
 import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
@@ -10,13 +16,16 @@ import frc.robot.Constants.AdvantageKitConstants;
 import frc.robot.VisionConstants;
 import frc.robot.VisionConstants.VisionSource;
 import frc.robot.bobot_state.BobotState;
+import frc.robot.subsystems.drive.DriveSnapshot;
 import frc.robot.subsystems.vision.apriltag.AprilTagAlgorithms;
 import frc.robot.subsystems.vision.apriltag.AprilTagIO;
 import frc.robot.subsystems.vision.apriltag.AprilTagIOInputsAutoLogged;
 import frc.robot.subsystems.vision.apriltag.AprilTagPhoton;
 import frc.robot.subsystems.vision.apriltag.AprilTagPhotonSim;
 import frc.robot.subsystems.vision.apriltag.DuplicateTracker;
-import frc.robot.subsystems.vision.apriltag.EstimatedPose;
+import frc.robot.subsystems.vision.apriltag.FieldTagIndex;
+import frc.robot.subsystems.vision.apriltag.MultiCameraPoseSolver;
+import frc.robot.subsystems.vision.apriltag.TargetMetrics;
 import frc.robot.subsystems.vision.object_detection.ObjectDetectionFiltering;
 import frc.robot.subsystems.vision.object_detection.ObjectDetectionIO;
 import frc.robot.subsystems.vision.object_detection.ObjectDetectionIOInputsAutoLogged;
@@ -28,21 +37,26 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import org.littletonrobotics.junction.Logger;
-import org.photonvision.EstimatedRobotPose;
+import org.photonvision.estimation.TargetModel;
+import org.photonvision.targeting.PhotonPipelineResult;
 import org.photonvision.targeting.PhotonTrackedTarget;
 
 public class VisionSubsystem extends VirtualSubsystem {
+  /**
+   * A robot pose from vision, ready to be fused into the drive's pose estimate.
+   *
+   * @param pose Estimated robot pose
+   * @param timestamp Time the frame was captured in seconds
+   * @param confidence Standard deviations of x and y in meters and of the heading in radians
+   */
   public static record VisionMeasurement(
-      EstimatedRobotPose estimation, Matrix<N3, N1> confidence) {}
+      Pose3d pose, double timestamp, Matrix<N3, N1> confidence) {}
 
-  public static record TargetWithSource(PhotonTrackedTarget target, VisionSource source) {
+  public static record TargetWithSource(
+      PhotonTrackedTarget target, VisionSource source, TargetMetrics metrics) {
     public Transform3d getRobotToTarget() {
-      Transform3d cameraToTarget = target.getBestCameraToTarget();
-      Transform3d robotToCamera = source.robotToCamera();
-      Transform3d robotToTarget = robotToCamera.plus(cameraToTarget);
-      return robotToTarget;
+      return metrics.robotToTarget();
     }
 
     public Pose3d getTargetPoseFrom(Pose3d poseOrigin) {
@@ -66,8 +80,20 @@ public class VisionSubsystem extends VirtualSubsystem {
   // There's only one Camera that will be detecting objects
   private ObjectDetectionCamera objectDetectionCamera;
 
-  private ConcurrentLinkedQueue<VisionMeasurement> visionMeasurements =
-      new ConcurrentLinkedQueue<>();
+  // Shared by every camera, so the thread count does not grow with the number of cameras
+  private final VisionWorkerPool workers =
+      new VisionWorkerPool(
+          VisionConstants.VISION_WORKER_THREADS, VisionConstants.VISION_FRAME_DEADLINE_SECONDS);
+
+  private final VisionMeasurementChannel visionMeasurements =
+      new VisionMeasurementChannel(
+          VisionConstants.MEASUREMENT_CHANNEL_CAPACITY,
+          VisionConstants.MEASUREMENT_MAX_AGE_SECONDS);
+
+  private final MultiCameraPoseSolver multiCameraSolver =
+      new MultiCameraPoseSolver(
+          VisionConstants.APRIL_TAG_SOURCES.size(),
+          VisionConstants.APRIL_TAG_SOURCES.size() * VisionConstants.MAX_FRAME_FIDS);
 
   private Optional<PhotonTrackedTarget> closetObject = Optional.empty();
 
@@ -81,10 +107,10 @@ public class VisionSubsystem extends VirtualSubsystem {
 
       switch (AdvantageKitConstants.getMode()) {
         case REAL:
-          io = new AprilTagPhoton(source);
+          io = new AprilTagPhoton(source, workers);
           break;
         case SIM:
-          io = new AprilTagPhotonSim(source);
+          io = new AprilTagPhotonSim(source, workers);
           break;
           // case REPLAY:
         default:
@@ -100,10 +126,10 @@ public class VisionSubsystem extends VirtualSubsystem {
 
     switch (AdvantageKitConstants.getMode()) {
       case REAL:
-        io = new ObjectDetectionPhoton(VisionConstants.OBJECT_DETECTION_SOURCE);
+        io = new ObjectDetectionPhoton(VisionConstants.OBJECT_DETECTION_SOURCE, workers);
         break;
       case SIM:
-        io = new ObjectDetectionPhotonSim(VisionConstants.OBJECT_DETECTION_SOURCE);
+        io = new ObjectDetectionPhotonSim(VisionConstants.OBJECT_DETECTION_SOURCE, workers);
         break;
       default:
         io = new ObjectDetectionIO() {};
@@ -125,6 +151,8 @@ public class VisionSubsystem extends VirtualSubsystem {
 
     // Check for updates to Measurements away from Notes
     updateClosestObject();
+
+    workers.logStats("Vision/Workers");
   }
 
   public void simulationPeriodic() {
@@ -148,15 +176,38 @@ public class VisionSubsystem extends VirtualSubsystem {
       cam.io.updateInputs(cam.inputs);
       Logger.processInputs(cameraLogRoot, cam.inputs);
 
+      // Every estimate since the last cycle is its own measurement, even on a duplicate frame
+      if (!VisionConstants.USE_MULTI_CAMERA_SOLVE) {
+        for (int i = 0; i < cam.inputs.estimatedPoses.length; i++) {
+          AprilTagAlgorithms.findVisionMeasurement(
+                  cam.inputs.estimatedPoses[i],
+                  cam.inputs.estimatedPoseTimestamps[i],
+                  cam.inputs.estimatedPoseTagCounts[i],
+                  cam.inputs.estimatedPoseAverageTagDistances[i],
+                  cam.inputs.estimatedPoseAmbiguities[i])
+              .ifPresent(visionMeasurements::offer);
+        }
+      }
+
       // If we have a duplicate frame, don't bother updating anything
       if (cam.inputs.isDuplicateFrame) {
         continue;
       }
 
+      if (VisionConstants.USE_GYRO_CONSTRAINED_SINGLE_TAG
+          && !VisionConstants.USE_MULTI_CAMERA_SOLVE) {
+        offerGyroConstrainedMeasurement(cam);
+      }
+
       List<PhotonTrackedTarget> targets = cam.inputs.frame.getTargets();
 
-      currentVisibleAprilTags.addAll(
-          targets.stream().map((target) -> new TargetWithSource(target, cam.source)).toList());
+      for (int i = 0; i < targets.size(); i++) {
+        if (targets.get(i).getFiducialId() != -1) {
+          currentVisibleAprilTags.add(
+              new TargetWithSource(
+                  targets.get(i), cam.source, TargetMetrics.fromInputs(cam.inputs, i)));
+        }
+      }
 
       // Logger.recordOutput(cameraLogRoot + "ListOfVisibleTargets",
       // targets.toArray().toString());
@@ -176,23 +227,148 @@ public class VisionSubsystem extends VirtualSubsystem {
       // targets.stream()
       // .mapToDouble(PhotonTrackedTarget::getYaw)
       // .toArray());
+    }
+
+    if (VisionConstants.USE_MULTI_CAMERA_SOLVE) {
+      offerMultiCameraMeasurement();
+    }
 
-      // Add estimated position and deviation to be used by SwerveDrivePoseEstimator
-      EstimatedPose estimatedPose = cam.inputs.estimatedPose;
+    BobotState.updateVisibleAprilTags(currentVisibleAprilTags);
+  }
 
-      if (estimatedPose.isPresent) {
-        // Find Vision Measurement and add it for our Queue if it exists
-        AprilTagAlgorithms.findVisionMeasurement(estimatedPose.asEstimatedRobotPose())
-            .ifPresent(visionMeasurements::add);
+  /**
+   * Uses a single tag frame that was rejected for its ambiguity by solving it with the drive's
+   * heading, see {@link AprilTagAlgorithms#findGyroConstrainedMeasurement}.
+   */
+  private void offerGyroConstrainedMeasurement(AprilTagCamera cam) {
+    List<PhotonTrackedTarget> targets = cam.inputs.frame.getTargets();
+    int tagIndex = -1;
+    for (int i = 0; i < targets.size(); i++) {
+      if (FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, targets.get(i).getFiducialId())) {
+        if (tagIndex != -1) {
+          // Several tags, the camera's own estimate already covers this frame
+          return;
+        }
+        tagIndex = i;
       }
     }
+    if (tagIndex == -1) {
+      return;
+    }
+    TargetMetrics tag = TargetMetrics.fromInputs(cam.inputs, tagIndex);
+    if (tag.ambiguity() <= VisionConstants.POSE_AMBIGUITY_CUTOFF && tag.ambiguity() != -1) {
+      return;
+    }
 
-    if (!currentVisibleAprilTags.isEmpty()) {
-      currentVisibleAprilTags.removeIf(
-          targetWithSource -> targetWithSource.target.getFiducialId() == -1);
+    // Heading from the drive's pose history at the frame's time
+    double timestamp = cam.inputs.frame.getTimestampSeconds();
+    Optional<Pose2d> poseAtFrame = BobotState.getPoseAt(timestamp);
+    if (poseAtFrame.isEmpty()) {
+      return;
     }
 
-    BobotState.updateVisibleAprilTags(currentVisibleAprilTags);
+    AprilTagAlgorithms.findGyroConstrainedMeasurement(
+            tag, timestamp, poseAtFrame.get().getRotation().getRadians())
+        .ifPresent(visionMeasurements::offer);
+  }
+
+  /**
+   * Combines the newest frame of every camera into one robot pose measurement, see {@link
+   * MultiCameraPoseSolver}.
+   */
+  private void offerMultiCameraMeasurement() {
+    double newestTimestamp = Double.NEGATIVE_INFINITY;
+    for (AprilTagCamera cam : aprilTagCameras) {
+      if (!cam.inputs.isDuplicateFrame && cam.inputs.frame.hasTargets()) {
+        newestTimestamp = Math.max(newestTimestamp, cam.inputs.frame.getTimestampSeconds());
+      }
+    }
+    if (newestTimestamp == Double.NEGATIVE_INFINITY) {
+      return;
+    }
+
+    // Older frames are moved to the newest frame's time assuming the robot kept its speeds
+    DriveSnapshot drive = BobotState.getDriveSnapshot();
+    ChassisSpeeds speeds = drive.robotRelativeSpeeds();
+
+    multiCameraSolver.reset();
+    for (AprilTagCamera cam : aprilTagCameras) {
+      PhotonPipelineResult frame = cam.inputs.frame;
+      double age = newestTimestamp - frame.getTimestampSeconds();
+      if (cam.inputs.isDuplicateFrame
+          || !frame.hasTargets()
+          || age > VisionConstants.MULTI_CAMERA_SOLVE_WINDOW_SECONDS) {
+        continue;
+      }
+
+      // Robot at the frame's time relative to the robot at the newest frame's time
+      Pose2d motion = new Pose2d().exp(getTwist(speeds, -age));
+      Transform3d robotToCamera =
+          new Transform3d(
+                  new Translation3d(motion.getX(), motion.getY(), 0.0),
+                  new Rotation3d(0.0, 0.0, motion.getRotation().getRadians()))
+              .plus(cam.source.robotToCamera());
+      if (!multiCameraSolver.addCamera(
+          robotToCamera, cam.inputs.cameraMatrix, cam.inputs.distCoeffs)) {
+        continue;
+      }
+
+      for (PhotonTrackedTarget target : frame.getTargets()) {
+        int id = target.getFiducialId();
+        if (!FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, id) || !FieldTagIndex.isOnField(id)) {
+          continue;
+        }
+        multiCameraSolver.addTag(
+            TargetModel.kAprilTag36h11.getFieldVertices(FieldTagIndex.getTagPose(id)),
+            target.getDetectedCorners());
+      }
+    }
+    if (multiCameraSolver.getTagCount() == 0) {
+      return;
+    }
+
+    // Warm start from the drive's pose, moved back to the newest frame's time
+    Pose2d initialPose = drive.pose().exp(getTwist(speeds, newestTimestamp - drive.timestamp()));
+    boolean solved =
+        multiCameraSolver.solve(
+            initialPose.getX(), initialPose.getY(), initialPose.getRotation().getRadians());
+
+    String logRoot = "Vision/MultiCamera/";
+    Logger.recordOutput(logRoot + "Solved", solved);
+    Logger.recordOutput(logRoot + "CameraCount", multiCameraSolver.getCameraCount());
+    Logger.recordOutput(logRoot + "TagCount", multiCameraSolver.getTagCount());
+    Logger.recordOutput(logRoot + "Iterations", multiCameraSolver.getIterations());
+    Logger.recordOutput(logRoot + "RmsErrorPixels", multiCameraSolver.getRmsErrorPixels());
+
+    if (!solved
+        || multiCameraSolver.getRmsErrorPixels()
+            > VisionConstants.MULTI_CAMERA_SOLVE_MAX_RMS_PIXELS) {
+      return;
+    }
+
+    Pose2d pose =
+        new Pose2d(
+            multiCameraSolver.getX(),
+            multiCameraSolver.getY(),
+            new Rotation2d(multiCameraSolver.getThetaRad()));
+    Logger.recordOutput(logRoot + "Pose", pose);
+
+    // Solving for the robot on the floor has no single tag ambiguity to reject
+    AprilTagAlgorithms.findVisionMeasurement(
+            new Pose3d(pose),
+            newestTimestamp,
+            multiCameraSolver.getTagCount(),
+            multiCameraSolver.getAverageTagDistance(),
+            0.0)
+        .ifPresent(visionMeasurements::offer);
+  }
+
+  /** Motion over a time span at constant robot-relative speeds, negative spans go backwards */
+  private static Twist2d getTwist(ChassisSpeeds speeds, double seconds) {
+    return new Twist2d(
+        speeds.vxMetersPerSecond * seconds,
+        speeds.vyMetersPerSecond * seconds,
+        speeds.omegaRadiansPerSecond * seconds);
   }
 
   /**
@@ -243,8 +419,8 @@ public class VisionSubsystem extends VirtualSubsystem {
     return new Trigger(() -> getClosestObject().isPresent());
   }
 
-  /** Return the head of the Queue as a single measurement */
-  public VisionMeasurement pollLatestVisionMeasurement() {
-    return visionMeasurements.poll();
+  /** Returns the channel the drive drains pose measurements from */
+  public VisionMeasurementChannel getMeasurementChannel() {
+    return visionMeasurements;
   }
 }
@@ -0,0 +1,160 @@
+package frc.robot.subsystems.vision;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Small fixed set of threads that process camera frames for any number of cameras.
+ *
+ * <p>Every camera registers a job and gets a slot that holds at most one waiting frame. A frame
+ * arriving while the previous one still waits replaces it, since only the newest frame is worth
+ * processing. A slot is queued on the pool at most once at a time and a camera's job never runs on
+ * two threads at once, so jobs may keep per-camera state without locking. A frame that waited
+ * longer than the deadline by the time a thread picks it up is dropped instead of processed.
+ */
+public class VisionWorkerPool {
+  private final ExecutorService executor;
+  private final long deadlineMicros;
+  private final LongSupplier clockMicros;
+
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong replacedCount = new AtomicLong();
+  private final AtomicLong expiredCount = new AtomicLong();
+  private final AtomicLong overrunCount = new AtomicLong();
+  private final AtomicLong busyMicros = new AtomicLong();
+
+  private long lastLogMicros;
+  private long lastBusyMicros = 0;
+
+  /**
+   * @param threads Number of worker threads, shared by all cameras
+   * @param deadlineSeconds Longest a frame may wait before it is dropped, and longest a job should
+   *     take
+   */
+  public VisionWorkerPool(int threads, double deadlineSeconds) {
+    this(threads, deadlineSeconds, Logger::getRealTimestamp);
+  }
+
+  /** Same as the public constructor, with the clock frame ages are measured on in microseconds. */
+  VisionWorkerPool(int threads, double deadlineSeconds, LongSupplier clockMicros) {
+    AtomicInteger threadCount = new AtomicInteger();
+    executor =
+        Executors.newFixedThreadPool(
+            threads,
+            runnable -> {
+              Thread thread = new Thread(runnable, "VisionWorker" + threadCount.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    deadlineMicros = (long) (deadlineSeconds * 1e6);
+    this.clockMicros = clockMicros;
+    lastLogMicros = clockMicros.getAsLong();
+  }
+
+  /**
+   * Registers a camera's frame processing.
+   *
+   * @param job Processes one frame, runs on a worker thread
+   * @return Accepts frames from any thread and schedules the job on the newest one
+   */
+  public <T> Consumer<T> register(Consumer<T> job) {
+    return new Slot<>(job)::submit;
+  }
+
+  private record PendingFrame<T>(T frame, long submittedMicros) {}
+
+  private class Slot<T> implements Runnable {
+    private final Consumer<T> job;
+    private final AtomicReference<PendingFrame<T>> pending = new AtomicReference<>();
+    // Whether the slot is queued on or running in the pool
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private Slot(Consumer<T> job) {
+      this.job = job;
+    }
+
+    private void submit(T frame) {
+      if (pending.getAndSet(new PendingFrame<>(frame, clockMicros.getAsLong())) != null) {
+        replacedCount.incrementAndGet();
+      }
+      schedule();
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        PendingFrame<T> next = pending.getAndSet(null);
+        if (next == null) {
+          return;
+        }
+
+        long startMicros = clockMicros.getAsLong();
+        if (startMicros - next.submittedMicros() > deadlineMicros) {
+          expiredCount.incrementAndGet();
+          return;
+        }
+
+        job.accept(next.frame());
+
+        long elapsedMicros = clockMicros.getAsLong() - startMicros;
+        busyMicros.addAndGet(elapsedMicros);
+        if (elapsedMicros > deadlineMicros) {
+          overrunCount.incrementAndGet();
+        }
+        completedCount.incrementAndGet();
+      } finally {
+        scheduled.set(false);
+        // A frame submitted while the job ran could not schedule the slot, so do it here
+        if (pending.get() != null) {
+          schedule();
+        }
+      }
+    }
+  }
+
+  /** Returns the number of frames processed. */
+  long getCompletedCount() {
+    return completedCount.get();
+  }
+
+  /** Returns the number of frames replaced by a newer one before a thread picked them up. */
+  long getReplacedCount() {
+    return replacedCount.get();
+  }
+
+  /** Returns the number of frames dropped for waiting longer than the deadline. */
+  long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  /** Logs the pool's counters and how busy its threads were since the last call. Main loop only. */
+  public void logStats(String key) {
+    long nowMicros = clockMicros.getAsLong();
+    long busy = busyMicros.get();
+    long elapsedMicros = nowMicros - lastLogMicros;
+    if (elapsedMicros > 0) {
+      Logger.recordOutput(
+          key + "/AverageBusyThreads", (double) (busy - lastBusyMicros) / elapsedMicros);
+    }
+    lastLogMicros = nowMicros;
+    lastBusyMicros = busy;
+
+    Logger.recordOutput(key + "/Completed", completedCount.get());
+    Logger.recordOutput(key + "/Replaced", replacedCount.get());
+    Logger.recordOutput(key + "/Expired", expiredCount.get());
+    Logger.recordOutput(key + "/Overruns", overrunCount.get());
+  }
+}
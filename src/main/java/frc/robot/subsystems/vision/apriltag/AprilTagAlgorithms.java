@@ -2,51 +2,43 @@ package frc.robot.subsystems.vision.apriltag;
 
 import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import frc.robot.VisionConstants;
 import frc.robot.subsystems.vision.VisionSubsystem.TargetWithSource;
 import frc.robot.subsystems.vision.VisionSubsystem.VisionMeasurement;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 import org.photonvision.EstimatedRobotPose;
 import org.photonvision.PhotonPoseEstimator;
 import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
 
 public class AprilTagAlgorithms {
   /**
-   * Create a {@link VisionMeasurement} with a pose & confidence value from an {@link
-   * EstimatedRobotPose}
+   * Create a {@link VisionMeasurement} with a pose & confidence value from a pose estimate
+   *
+   * @param pose - Estimated robot pose
+   * @param timestamp - Time the frame was captured in seconds
+   * @param tagCount - Number of AprilTags the estimate used
+   * @param averageTagDistance - Average distance from the camera to those tags in meters
+   * @param ambiguity - Pose ambiguity of the tag if only one was used
    */
   public static Optional<VisionMeasurement> findVisionMeasurement(
-      EstimatedRobotPose estimatedPose) {
-    // Empty if we only have one target, and it's not good enough to read
-    if (estimatedPose.targetsUsed.size() == 1
-        && (estimatedPose.targetsUsed.get(0).getPoseAmbiguity()
-                > VisionConstants.POSE_AMBIGUITY_CUTOFF
-            || estimatedPose.targetsUsed.get(0).getPoseAmbiguity() == -1)) {
+      Pose3d pose, double timestamp, int tagCount, double averageTagDistance, double ambiguity) {
+    if (tagCount == 0) {
       return Optional.empty();
     }
 
-    // Remove targets that are not April Tags when calculating estimated pose
-    estimatedPose.targetsUsed.removeIf(target -> target.getFiducialId() == -1);
-
-    // Calculates the sums of every distance using Euclidiean Norm.
-    // Think of it as the Pythagorean theorem except in three dimensions.
-    double sumDistance =
-        estimatedPose.targetsUsed.stream()
-            .mapToDouble(
-                target -> {
-                  Transform3d targetPosition = target.getBestCameraToTarget();
-                  return Math.sqrt(
-                      Math.pow(targetPosition.getX(), 2)
-                          + Math.pow(targetPosition.getY(), 2)
-                          + Math.pow(targetPosition.getZ(), 2));
-                })
-            .sum();
-
-    double averageDistance = sumDistance / estimatedPose.targetsUsed.size();
+    // Empty if we only have one target, and it's not good enough to read
+    if (tagCount == 1 && (ambiguity > VisionConstants.POSE_AMBIGUITY_CUTOFF || ambiguity == -1)) {
+      return Optional.empty();
+    }
 
     // Calculate our 3x1 confidence matrix by clamping the number of targets
     // against the number of targets we see vs the number of targets we
@@ -55,18 +47,125 @@ public class AprilTagAlgorithms {
         VisionConstants.TAG_COUNT_DEVIATION_PARAMS
             .get(
                 MathUtil.clamp(
-                    estimatedPose.targetsUsed.size() - 1,
-                    0,
-                    VisionConstants.TAG_COUNT_DEVIATION_PARAMS.size() - 1))
-            .computeDeviation(averageDistance);
+                    tagCount - 1, 0, VisionConstants.TAG_COUNT_DEVIATION_PARAMS.size() - 1))
+            .computeDeviation(averageTagDistance);
+
+    return Optional.of(new VisionMeasurement(pose, timestamp, confidence));
+  }
+
+  /**
+   * Solves the robot position from a single tag, taking the heading from the drive instead of the
+   * tag's orientation.
+   *
+   * <p>A single tag's orientation is what PnP gets ambiguous about, while its position relative to
+   * the camera is nearly the same for both solutions. With the heading known, that position alone
+   * places the robot, so tags rejected for their ambiguity can still be used. The error is largest
+   * along the line of sight, where it grows with the square of the distance, and across it comes
+   * from the bearing and heading errors. The measurement carries the x and y deviations of that
+   * error ellipse and an infinite heading deviation, since the heading is not measured.
+   *
+   * @param tag - Metrics of the tag seen by the camera
+   * @param timestamp - Time the frame was captured in seconds
+   * @param headingRad - Field-relative robot heading at the time of the frame
+   */
+  public static Optional<VisionMeasurement> findGyroConstrainedMeasurement(
+      TargetMetrics tag, double timestamp, double headingRad) {
+    Pose3d tagPose = tag.fieldPose();
+    if (tagPose == null) {
+      return Optional.empty();
+    }
+
+    Translation3d robotToTag = tag.robotToTarget().getTranslation();
+    double distance = tag.distance();
+    if (distance > VisionConstants.SINGLE_TAG_MAX_DISTANCE_METERS) {
+      return Optional.empty();
+    }
+
+    // Robot position from the tag position and the robot relative tag position on the floor
+    double cos = Math.cos(headingRad);
+    double sin = Math.sin(headingRad);
+    double x = tagPose.getX() - (cos * robotToTag.getX() - sin * robotToTag.getY());
+    double y = tagPose.getY() - (sin * robotToTag.getX() + cos * robotToTag.getY());
+
+    // Error ellipse along and across the line of sight, rotated into the field frame
+    double rangeStdDev =
+        Math.max(
+            VisionConstants.SINGLE_TAG_MIN_RANGE_STD_DEV_METERS,
+            VisionConstants.SINGLE_TAG_RANGE_STD_DEV_PER_METER_SQUARED * distance * distance);
+    double crossRangeStdDev =
+        Math.hypot(robotToTag.getX(), robotToTag.getY())
+            * Math.hypot(
+                VisionConstants.SINGLE_TAG_BEARING_STD_DEV_RAD,
+                VisionConstants.GYRO_HEADING_STD_DEV_RAD);
+    double lineOfSight = headingRad + Math.atan2(robotToTag.getY(), robotToTag.getX());
+    double cosSquared = Math.pow(Math.cos(lineOfSight), 2);
+    double sinSquared = 1.0 - cosSquared;
+    double rangeVariance = rangeStdDev * rangeStdDev;
+    double crossRangeVariance = crossRangeStdDev * crossRangeStdDev;
+
+    Matrix<N3, N1> confidence =
+        VecBuilder.fill(
+            Math.sqrt(rangeVariance * cosSquared + crossRangeVariance * sinSquared),
+            Math.sqrt(rangeVariance * sinSquared + crossRangeVariance * cosSquared),
+            Double.POSITIVE_INFINITY);
+
+    return Optional.of(
+        new VisionMeasurement(
+            new Pose3d(x, y, 0.0, new Rotation3d(0.0, 0.0, headingRad)), timestamp, confidence));
+  }
+
+  /** Number of AprilTags an estimate used, not counting targets that are not AprilTags */
+  public static int getTagCount(List<PhotonTrackedTarget> targetsUsed) {
+    int tagCount = 0;
+    for (PhotonTrackedTarget target : targetsUsed) {
+      if (target.getFiducialId() != -1) {
+        tagCount++;
+      }
+    }
+    return tagCount;
+  }
+
+  /**
+   * Average distance from the camera to the AprilTags an estimate used, in meters
+   *
+   * <p>Reuses the distances already measured for the frame's targets, matched by tag id, instead
+   * of taking the norm of every target's transform again.
+   *
+   * @param targetsUsed Targets the estimate used, taken from the frame
+   * @param frameTargets The frame's targets
+   * @param frameMetrics Metrics of the frame's targets, in the same order
+   */
+  public static double getAverageTagDistance(
+      List<PhotonTrackedTarget> targetsUsed,
+      List<PhotonTrackedTarget> frameTargets,
+      TargetMetrics[] frameMetrics) {
+    double sumDistance = 0.0;
+    int tagCount = 0;
+    for (PhotonTrackedTarget target : targetsUsed) {
+      int id = target.getFiducialId();
+      if (id == -1) {
+        continue;
+      }
+      for (int i = 0; i < frameTargets.size(); i++) {
+        if (frameTargets.get(i).getFiducialId() == id) {
+          sumDistance += frameMetrics[i].distance();
+          tagCount++;
+          break;
+        }
+      }
+    }
+    return tagCount == 0 ? Double.NaN : sumDistance / tagCount;
+  }
 
-    return Optional.of(new VisionMeasurement(estimatedPose, confidence));
+  /** Pose ambiguity of the tag a single tag estimate used, or 0 for a multi-tag estimate */
+  public static double getAmbiguity(List<PhotonTrackedTarget> targetsUsed) {
+    return targetsUsed.size() == 1 ? targetsUsed.get(0).getPoseAmbiguity() : 0.0;
   }
 
   public static Optional<EstimatedRobotPose> estimateRobotPose(
       PhotonPipelineResult frame, PhotonPoseEstimator estimator) {
     // Check if our frame has invalid targets
-    if (AprilTagFiltering.shouldIgnoreFrame(frame, VisionConstants.ALL_TAGS)) {
+    if (AprilTagFiltering.shouldIgnoreFrame(frame, FieldTagIndex.ALL_TAGS)) {
       return Optional.empty();
     } else {
       return estimator.update(frame);
@@ -82,8 +181,7 @@ public class AprilTagAlgorithms {
   public static Optional<TargetWithSource> reduceToLeastAmbiguous(Stream<TargetWithSource> stream) {
     return stream.reduce(
         (targetWithSourceA, targetWithSourceB) ->
-            targetWithSourceA.target().getPoseAmbiguity()
-                    <= targetWithSourceB.target().getPoseAmbiguity()
+            targetWithSourceA.metrics().ambiguity() <= targetWithSourceB.metrics().ambiguity()
                 ? targetWithSourceA
                 : targetWithSourceB);
   }
@@ -1,12 +1,11 @@
 package frc.robot.subsystems.vision.apriltag;
 
-import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.wpilibj.DriverStation;
 import frc.robot.VisionConstants;
 // import frc.util.GarageUtils;
 import java.util.List;
-import java.util.Set;
 import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
 
 public class AprilTagFiltering {
   private AprilTagFiltering() {}
@@ -20,21 +19,23 @@ public class AprilTagFiltering {
    * 3) Targets within a frame do not meet our possible combinations<br>
    *
    * @param frame      - Current {@link PhotonPipelineResult} we process
-   * @param allowedIds - AprilTag IDs we check. Check {@link VisionConstants}.
+   * @param allowedIds - Mask of the AprilTag IDs we check. Check {@link FieldTagIndex}.
    * @return If we should ignore the frame
    */
-  public static boolean shouldIgnoreFrame(PhotonPipelineResult frame, Set<Integer> allowedIds) {
+  public static boolean shouldIgnoreFrame(PhotonPipelineResult frame, long allowedIds) {
     // Ignore if there are either no targets, or if we exceed
     // the number of frames we allow at one time.
     if (!frame.hasTargets() || frame.getTargets().size() > VisionConstants.MAX_FRAME_FIDS) {
       return true;
     }
 
-    List<Integer> ids = frame.targets.stream().map(t -> t.getFiducialId()).toList();
-
-    boolean allowedCombinations = allowedIds.containsAll(ids);
+    for (PhotonTrackedTarget target : frame.targets) {
+      if (!FieldTagIndex.contains(allowedIds, target.getFiducialId())) {
+        return true;
+      }
+    }
 
-    return !allowedCombinations;
+    return false;
     // boolean possibleCombinations =
     // VisionConstants.POSSIBLE_FRAME_FID_COMBOS.stream()
     // .anyMatch(
@@ -48,25 +49,28 @@ public class AprilTagFiltering {
    * Remove targets that are too far to be reliably read.
    *
    * @param frame - Current {@link PhotonPipelineResult} we process
+   * @param metrics - Metrics of the frame's targets, in the same order. Kept in step with the
+   *     frame's targets.
    */
-  public static void removeTooFarTargets(PhotonPipelineResult frame) {
-    frame.targets.removeIf(
-        tag -> {
-          double maxDistance = 6.0;
-          Transform3d transform = tag.getBestCameraToTarget();
-          return transform.getX() > maxDistance || transform.getY() > maxDistance;
-        });
+  public static void removeTooFarTargets(PhotonPipelineResult frame, List<TargetMetrics> metrics) {
+    double maxDistance = 6.0;
+    for (int i = frame.targets.size() - 1; i >= 0; i--) {
+      if (metrics.get(i).distance() > maxDistance) {
+        frame.targets.remove(i);
+        metrics.remove(i);
+      }
+    }
   }
 
-  /** Get IDs we're allowed to read at the time */
-  public static Set<Integer> getAllowedIDs() {
+  /** Get the mask of IDs we're allowed to read at the time */
+  public static long getAllowedIDs() {
     boolean isBlueAlliance = true; // DriverStation.getAlliance().i;
 
     boolean isAutonomous = DriverStation.isAutonomous();
 
     // Assuming we are in autonomous, only allow specific tags to be loaded.
     return isAutonomous
-        ? isBlueAlliance ? VisionConstants.BLUE_TAG_FIDS : VisionConstants.RED_TAG_FIDS
-        : VisionConstants.ALL_TAGS;
+        ? FieldTagIndex.forAlliance(FieldTagIndex.BLUE_TAGS, isBlueAlliance)
+        : FieldTagIndex.ALL_TAGS;
   }
 }
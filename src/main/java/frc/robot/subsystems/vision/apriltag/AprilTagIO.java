@@ -9,10 +9,27 @@ public interface AprilTagIO {
   public static class AprilTagIOInputs {
     public PhotonPipelineResult frame = new PhotonPipelineResult();
     public boolean isDuplicateFrame = false;
+
+    // Robot relative pose and camera distance of every target in the frame, in the same order,
+    // see TargetMetrics
+    public Pose3d[] targetRobotToTargets = new Pose3d[0];
+    public double[] targetDistances = new double[0];
+
     public boolean isConnected = false;
     public int heartbeat = 0;
 
-    public EstimatedPose estimatedPose = new EstimatedPose();
+    // Row-major camera matrix and OpenCV distortion coefficients, empty until the camera publishes
+    // its calibration
+    public double[] cameraMatrix = new double[0];
+    public double[] distCoeffs = new double[0];
+
+    // Every pose estimated since the last update, oldest first
+    public Pose3d[] estimatedPoses = new Pose3d[0];
+    public double[] estimatedPoseTimestamps = new double[0];
+    public int[] estimatedPoseTagCounts = new int[0];
+    public double[] estimatedPoseAverageTagDistances = new double[0];
+    public double[] estimatedPoseAmbiguities = new double[0];
+    public int droppedEstimateCount = 0;
 
     public int[] visibleIds = new int[0];
     public Pose3d[] visiblePoses = new Pose3d[0];
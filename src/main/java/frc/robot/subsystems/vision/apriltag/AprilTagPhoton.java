@@ -1,11 +1,15 @@
 package frc.robot.subsystems.vision.apriltag;
 
 import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.networktables.IntegerSubscriber;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import frc.robot.VisionConstants;
 import frc.robot.VisionConstants.VisionSource;
-import java.util.Arrays;
+import frc.robot.subsystems.vision.PhotonResultListener;
+import frc.robot.subsystems.vision.VisionWorkerPool;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import org.photonvision.PhotonCamera;
 import org.photonvision.PhotonPoseEstimator;
 import org.photonvision.targeting.PhotonPipelineResult;
@@ -14,26 +18,15 @@ import org.photonvision.targeting.PhotonTrackedTarget;
 public class AprilTagPhoton implements AprilTagIO {
   private final PhotonCamera camera;
   private final PhotonPoseEstimator estimator;
+  private final Transform3d robotToCamera;
   private final DuplicateTracker duplicateTracker = new DuplicateTracker();
 
   private final IntegerSubscriber heartbeatEntry;
+  private final PhotonResultListener resultListener;
 
-  private final Thread periodicThread =
-      new Thread(
-          () -> {
-            while (!Thread.currentThread().isInterrupted()) {
-              periodic();
-
-              try {
-                Thread.sleep(10);
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-              }
-            }
-          });
-
-  public AprilTagPhoton(VisionSource source) {
+  public AprilTagPhoton(VisionSource source, VisionWorkerPool workers) {
     camera = new PhotonCamera(source.name());
+    robotToCamera = source.robotToCamera();
 
     estimator =
         new PhotonPoseEstimator(
@@ -51,58 +44,84 @@ public class AprilTagPhoton implements AprilTagIO {
             .getIntegerTopic("heartbeat")
             .subscribe(-1);
 
-    periodicThread.setPriority(Thread.MAX_PRIORITY);
-    periodicThread.start();
+    resultListener =
+        new PhotonResultListener(source.name(), workers.register(this::processFrame));
   }
 
-  private PhotonPipelineResult frame = new PhotonPipelineResult();
-  private boolean isDuplicateFrame = false;
-  private EstimatedPose estimatedPose = new EstimatedPose();
-  private boolean isConnected = false;
-  private int heartbeat = 0;
+  // Written only by processFrame, read once per cycle by updateInputs
+  private final AtomicReference<CameraSnapshot> snapshot =
+      new AtomicReference<>(CameraSnapshot.EMPTY);
 
-  private void periodic() {
-    isConnected = camera.isConnected();
-    heartbeat = (int) heartbeatEntry.get();
+  // Main thread only, so every frame and estimate is reported exactly once
+  private int reportedFrameCount = 0;
+  private int reportedEstimateCount = 0;
+  private int droppedEstimateCount = 0;
 
-    if (!isConnected) {
-      frame = new PhotonPipelineResult();
-      isDuplicateFrame = false;
-      estimatedPose = new EstimatedPose();
+  /** Runs on a vision worker thread for the newest result the camera published. */
+  private void processFrame(PhotonPipelineResult frame) {
+    if (duplicateTracker.isDuplicateFrame(frame)) {
       return;
     }
 
-    PhotonPipelineResult latestFrame = camera.getLatestResult();
-
-    isDuplicateFrame = duplicateTracker.isDuplicateFrame(latestFrame);
-
-    if (isDuplicateFrame) {
-      return;
-    }
-
-    AprilTagFiltering.removeTooFarTargets(latestFrame);
-    frame = latestFrame;
-    estimatedPose = new EstimatedPose(AprilTagAlgorithms.estimateRobotPose(latestFrame, estimator));
+    List<TargetMetrics> targetMetrics = TargetMetrics.of(frame.getTargets(), robotToCamera);
+    AprilTagFiltering.removeTooFarTargets(frame, targetMetrics);
+    EstimatedPose estimatedPose =
+        new EstimatedPose(AprilTagAlgorithms.estimateRobotPose(frame, estimator));
+    snapshot.set(
+        snapshot
+            .get()
+            .withFrame(
+                frame,
+                targetMetrics.toArray(new TargetMetrics[0]),
+                estimatedPose,
+                VisionConstants.CAMERA_ESTIMATE_BUFFER_CAPACITY));
   }
 
   @Override
   public void updateInputs(AprilTagIOInputs inputs) {
-    inputs.frame = frame;
-    inputs.isDuplicateFrame = isDuplicateFrame;
-    inputs.estimatedPose = estimatedPose;
-    inputs.isConnected = isConnected;
-    inputs.heartbeat = heartbeat;
-
-    inputs.visibleIds =
-        inputs.frame.getTargets().stream()
-            .filter(target -> VisionConstants.ALL_TAGS.contains(target.getFiducialId()))
-            .mapToInt(PhotonTrackedTarget::getFiducialId)
-            .toArray();
-
-    inputs.visiblePoses =
-        Arrays.stream(inputs.visibleIds)
-            .boxed()
-            .map(id -> VisionConstants.FIELD_LAYOUT.getTagPose(id).get())
-            .toArray(Pose3d[]::new);
+    CameraSnapshot latest = snapshot.get();
+
+    inputs.isConnected = camera.isConnected();
+    inputs.heartbeat = (int) heartbeatEntry.get();
+
+    if (inputs.isConnected) {
+      inputs.frame = latest.frame();
+      TargetMetrics.toInputs(latest.targetMetrics(), inputs);
+      inputs.isDuplicateFrame = latest.frameCount() == reportedFrameCount;
+      droppedEstimateCount += latest.copyEstimatesSince(inputs, reportedEstimateCount);
+    } else {
+      // Estimates from before the camera disconnected are discarded
+      inputs.frame = new PhotonPipelineResult();
+      TargetMetrics.toInputs(new TargetMetrics[0], inputs);
+      inputs.isDuplicateFrame = false;
+      latest.copyEstimatesSince(inputs, latest.estimateCount());
+    }
+    inputs.droppedEstimateCount = droppedEstimateCount;
+    reportedFrameCount = latest.frameCount();
+    reportedEstimateCount = latest.estimateCount();
+
+    inputs.cameraMatrix =
+        camera.getCameraMatrix().map(matrix -> matrix.getData()).orElse(new double[0]);
+    inputs.distCoeffs =
+        camera.getDistCoeffs().map(matrix -> matrix.getData()).orElse(new double[0]);
+
+    int visibleCount = 0;
+    for (PhotonTrackedTarget target : inputs.frame.getTargets()) {
+      if (FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, target.getFiducialId())) {
+        visibleCount++;
+      }
+    }
+
+    inputs.visibleIds = new int[visibleCount];
+    inputs.visiblePoses = new Pose3d[visibleCount];
+    int i = 0;
+    for (PhotonTrackedTarget target : inputs.frame.getTargets()) {
+      int id = target.getFiducialId();
+      if (FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, id)) {
+        inputs.visibleIds[i] = id;
+        inputs.visiblePoses[i] = FieldTagIndex.getTagPose(id);
+        i++;
+      }
+    }
   }
 }
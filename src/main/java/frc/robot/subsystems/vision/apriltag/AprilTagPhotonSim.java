@@ -2,12 +2,16 @@ package frc.robot.subsystems.vision.apriltag;
 
 import edu.wpi.first.math.geometry.Pose3d;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.wpilibj.smartdashboard.FieldObject2d;
 import frc.robot.VisionConstants;
 import frc.robot.VisionConstants.VisionSource;
-import java.util.Arrays;
+import frc.robot.subsystems.vision.PhotonResultListener;
+import frc.robot.subsystems.vision.VisionWorkerPool;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import org.photonvision.PhotonCamera;
 import org.photonvision.PhotonPoseEstimator;
 import org.photonvision.simulation.PhotonCameraSim;
@@ -18,28 +22,17 @@ import org.photonvision.targeting.PhotonTrackedTarget;
 public class AprilTagPhotonSim implements AprilTagIO {
   private final PhotonCamera camera;
   private final PhotonPoseEstimator estimator;
+  private final Transform3d robotToCamera;
   private final DuplicateTracker duplicateTracker = new DuplicateTracker();
 
   private final NetworkTableEntry heartbeatEntry;
+  private final PhotonResultListener resultListener;
 
   private PhotonCameraSim cameraSim;
 
-  private final Thread periodicThread =
-      new Thread(
-          () -> {
-            while (!Thread.currentThread().isInterrupted()) {
-              periodic();
-
-              try {
-                Thread.sleep(10);
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-              }
-            }
-          });
-
-  public AprilTagPhotonSim(VisionSource source) {
+  public AprilTagPhotonSim(VisionSource source, VisionWorkerPool workers) {
     camera = new PhotonCamera(source.name());
+    robotToCamera = source.robotToCamera();
 
     estimator =
         new PhotonPoseEstimator(
@@ -76,55 +69,81 @@ public class AprilTagPhotonSim implements AprilTagIO {
           cameraSim.setWireframeResolution(1);
         });
 
-    periodicThread.setPriority(Thread.MAX_PRIORITY);
-    periodicThread.start();
+    resultListener =
+        new PhotonResultListener(source.name(), workers.register(this::processFrame));
   }
 
-  private PhotonPipelineResult frame = new PhotonPipelineResult();
-  private boolean isDuplicateFrame = false;
-  private EstimatedPose estimatedPose = new EstimatedPose();
-  private int heartbeat = 0;
+  // Written only by processFrame, read once per cycle by updateInputs
+  private final AtomicReference<CameraSnapshot> snapshot =
+      new AtomicReference<>(CameraSnapshot.EMPTY);
 
-  private void periodic() {
-    heartbeat = (int) heartbeatEntry.getInteger(-1);
+  // Main thread only, so every frame and estimate is reported exactly once
+  private int reportedFrameCount = 0;
+  private int reportedEstimateCount = 0;
+  private int droppedEstimateCount = 0;
 
-    PhotonPipelineResult frame = camera.getLatestResult();
-
-    isDuplicateFrame = duplicateTracker.isDuplicateFrame(frame);
-
-    if (isDuplicateFrame) {
+  /** Runs on a vision worker thread for the newest result the camera published. */
+  private void processFrame(PhotonPipelineResult frame) {
+    if (duplicateTracker.isDuplicateFrame(frame)) {
       return;
     }
 
-    AprilTagFiltering.removeTooFarTargets(frame);
-    this.frame = frame;
-    estimatedPose = new EstimatedPose(AprilTagAlgorithms.estimateRobotPose(frame, estimator));
-
-    updateFieldPoseEstimate();
+    List<TargetMetrics> targetMetrics = TargetMetrics.of(frame.getTargets(), robotToCamera);
+    AprilTagFiltering.removeTooFarTargets(frame, targetMetrics);
+    EstimatedPose estimatedPose =
+        new EstimatedPose(AprilTagAlgorithms.estimateRobotPose(frame, estimator));
+    snapshot.set(
+        snapshot
+            .get()
+            .withFrame(
+                frame,
+                targetMetrics.toArray(new TargetMetrics[0]),
+                estimatedPose,
+                VisionConstants.CAMERA_ESTIMATE_BUFFER_CAPACITY));
+
+    updateFieldPoseEstimate(estimatedPose);
   }
 
   @Override
   public void updateInputs(AprilTagIOInputs inputs) {
-    inputs.frame = frame;
-    inputs.isDuplicateFrame = isDuplicateFrame;
-    inputs.estimatedPose = estimatedPose;
+    CameraSnapshot latest = snapshot.get();
+
+    inputs.frame = latest.frame();
+    TargetMetrics.toInputs(latest.targetMetrics(), inputs);
+    inputs.isDuplicateFrame = latest.frameCount() == reportedFrameCount;
+    droppedEstimateCount += latest.copyEstimatesSince(inputs, reportedEstimateCount);
+    inputs.droppedEstimateCount = droppedEstimateCount;
+    reportedFrameCount = latest.frameCount();
+    reportedEstimateCount = latest.estimateCount();
     inputs.isConnected = camera.isConnected();
-    inputs.heartbeat = heartbeat;
-
-    inputs.visibleIds =
-        inputs.frame.getTargets().stream()
-            .filter(target -> VisionConstants.ALL_TAGS.contains(target.getFiducialId()))
-            .mapToInt(PhotonTrackedTarget::getFiducialId)
-            .toArray();
-
-    inputs.visiblePoses =
-        Arrays.stream(inputs.visibleIds)
-            .boxed()
-            .map(id -> VisionConstants.FIELD_LAYOUT.getTagPose(id).get())
-            .toArray(Pose3d[]::new);
+    inputs.heartbeat = (int) heartbeatEntry.getInteger(-1);
+
+    inputs.cameraMatrix =
+        camera.getCameraMatrix().map(matrix -> matrix.getData()).orElse(new double[0]);
+    inputs.distCoeffs =
+        camera.getDistCoeffs().map(matrix -> matrix.getData()).orElse(new double[0]);
+
+    int visibleCount = 0;
+    for (PhotonTrackedTarget target : inputs.frame.getTargets()) {
+      if (FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, target.getFiducialId())) {
+        visibleCount++;
+      }
+    }
+
+    inputs.visibleIds = new int[visibleCount];
+    inputs.visiblePoses = new Pose3d[visibleCount];
+    int i = 0;
+    for (PhotonTrackedTarget target : inputs.frame.getTargets()) {
+      int id = target.getFiducialId();
+      if (FieldTagIndex.contains(FieldTagIndex.ALL_TAGS, id)) {
+        inputs.visibleIds[i] = id;
+        inputs.visiblePoses[i] = FieldTagIndex.getTagPose(id);
+        i++;
+      }
+    }
   }
 
-  public void updateFieldPoseEstimate() {
+  public void updateFieldPoseEstimate(EstimatedPose estimatedPose) {
     VisionConstants.VISION_SYSTEM_SIM.ifPresent(
         (visionSystemSim) -> {
           FieldObject2d visionEstimation =
@@ -0,0 +1,110 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import frc.robot.subsystems.vision.apriltag.AprilTagIO.AprilTagIOInputs;
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * Everything an AprilTag camera has produced, as of its newest processed frame.
+ *
+ * <p>The camera's frame processing builds a new snapshot for every frame and publishes it through a
+ * single atomic reference, so the main loop reads the frame, counters and estimates of one
+ * consistent point in time with one read and no locks. Nothing in it may be modified after it is
+ * published.
+ *
+ * <p>Instead of a queue the main loop would have to empty, the snapshot carries the most recent
+ * estimates together with the total number ever produced. A reader remembers the total it last saw
+ * and takes the estimates after it, so the frame processing stays the only writer.
+ *
+ * @param frame Newest frame, with targets that are too far already removed
+ * @param targetMetrics Metrics of the frame's targets, in the same order
+ * @param frameCount Number of frames processed so far
+ * @param recentEstimates Most recent present estimates, oldest first
+ * @param recentEstimateDistances Average tag distance of each recent estimate, in the same order,
+ *     taken from the metrics of the frame it came from
+ * @param estimateCount Number of present estimates produced so far
+ */
+public record CameraSnapshot(
+    PhotonPipelineResult frame,
+    TargetMetrics[] targetMetrics,
+    int frameCount,
+    EstimatedPose[] recentEstimates,
+    double[] recentEstimateDistances,
+    int estimateCount) {
+  /** Snapshot of a camera that has not sent a frame yet. */
+  public static final CameraSnapshot EMPTY =
+      new CameraSnapshot(
+          new PhotonPipelineResult(),
+          new TargetMetrics[0],
+          0,
+          new EstimatedPose[0],
+          new double[0],
+          0);
+
+  /**
+   * Returns the snapshot after the next frame.
+   *
+   * @param frame The frame
+   * @param targetMetrics Metrics of the frame's targets, in the same order
+   * @param estimate Estimate from the frame, added if present
+   * @param capacity Maximum number of recent estimates to keep
+   */
+  public CameraSnapshot withFrame(
+      PhotonPipelineResult frame,
+      TargetMetrics[] targetMetrics,
+      EstimatedPose estimate,
+      int capacity) {
+    if (!estimate.isPresent) {
+      return new CameraSnapshot(
+          frame,
+          targetMetrics,
+          frameCount + 1,
+          recentEstimates,
+          recentEstimateDistances,
+          estimateCount);
+    }
+
+    int kept = Math.min(recentEstimates.length, capacity - 1);
+    EstimatedPose[] estimates = new EstimatedPose[kept + 1];
+    System.arraycopy(recentEstimates, recentEstimates.length - kept, estimates, 0, kept);
+    estimates[kept] = estimate;
+    // Measured here on the camera's thread, while the frame's metrics are at hand
+    double[] distances = new double[kept + 1];
+    System.arraycopy(
+        recentEstimateDistances, recentEstimateDistances.length - kept, distances, 0, kept);
+    distances[kept] =
+        AprilTagAlgorithms.getAverageTagDistance(
+            estimate.targets, frame.getTargets(), targetMetrics);
+    return new CameraSnapshot(
+        frame, targetMetrics, frameCount + 1, estimates, distances, estimateCount + 1);
+  }
+
+  /**
+   * Copies the estimates produced after an earlier snapshot into the inputs, oldest first.
+   *
+   * @param inputs Inputs to fill
+   * @param previousEstimateCount {@link #estimateCount()} of the snapshot read last time
+   * @return Number of estimates that were produced but are no longer held, so were dropped
+   */
+  public int copyEstimatesSince(AprilTagIOInputs inputs, int previousEstimateCount) {
+    int newEstimates = estimateCount - previousEstimateCount;
+    int count = Math.min(newEstimates, recentEstimates.length);
+    int first = recentEstimates.length - count;
+
+    inputs.estimatedPoses = new Pose3d[count];
+    inputs.estimatedPoseTimestamps = new double[count];
+    inputs.estimatedPoseTagCounts = new int[count];
+    inputs.estimatedPoseAverageTagDistances = new double[count];
+    inputs.estimatedPoseAmbiguities = new double[count];
+
+    for (int i = 0; i < count; i++) {
+      EstimatedPose estimate = recentEstimates[first + i];
+      inputs.estimatedPoses[i] = estimate.pose;
+      inputs.estimatedPoseTimestamps[i] = estimate.timestamp;
+      inputs.estimatedPoseTagCounts[i] = AprilTagAlgorithms.getTagCount(estimate.targets);
+      inputs.estimatedPoseAverageTagDistances[i] = recentEstimateDistances[first + i];
+      inputs.estimatedPoseAmbiguities[i] = AprilTagAlgorithms.getAmbiguity(estimate.targets);
+    }
+    return newEstimates - count;
+  }
+}
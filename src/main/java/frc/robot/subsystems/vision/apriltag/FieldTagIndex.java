@@ -0,0 +1,123 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.math.geometry.Pose3d;
+import frc.robot.VisionConstants;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Field layout and tag groups of {@link VisionConstants}, indexed by tag id.
+ *
+ * <p>{@link VisionConstants#FIELD_LAYOUT} returns a new {@link java.util.Optional} for every pose
+ * lookup, and the tag groups are {@code Set<Integer>} that box every id they are asked about.
+ * Everything here is built once, so the per-frame lookups are array reads and bit tests that
+ * allocate nothing. Tag groups are {@code long} masks with bit {@code id} set for every tag in the
+ * group, which holds the ids of any FRC field so far.
+ */
+public final class FieldTagIndex {
+  private FieldTagIndex() {}
+
+  private static final int MAX_ID = Long.SIZE - 1;
+
+  // Pose of every tag on the field by id, null for ids that are not on the field
+  private static final Pose3d[] TAG_POSES = buildTagPoses();
+
+  // The tag in the same place on the other alliance's side by id, -1 for ids without one
+  private static final int[] MIRRORED_IDS =
+      buildMirroredIds(
+          new int[][] {
+            {VisionConstants.RED_HUMAN_PLAYER_WALL, VisionConstants.BLUE_HUMAN_PLAYER_WALL},
+            {VisionConstants.RED_HUMAN_PLAYER_INSIDE, VisionConstants.BLUE_HUMAN_PLAYER_INSIDE},
+            {VisionConstants.RED_SPEAKER_OFFSET, VisionConstants.BLUE_SPEAKER_OFFSET},
+            {VisionConstants.RED_SPEAKER_CENTER, VisionConstants.BLUE_SPEAKER_CENTER},
+            {VisionConstants.RED_AMP_TAG, VisionConstants.BLUE_AMP_TAG},
+            {VisionConstants.RED_STAGE_HUMAN, VisionConstants.BLUE_STAGE_HUMAN},
+            {VisionConstants.RED_STAGE_AMP, VisionConstants.BLUE_STAGE_AMP},
+            {VisionConstants.RED_STAGE_CENTER, VisionConstants.BLUE_STAGE_CENTER}
+          });
+
+  public static final long ALL_TAGS = maskOf(VisionConstants.ALL_TAGS);
+  public static final long RED_TAGS = maskOf(VisionConstants.RED_TAG_FIDS);
+  public static final long BLUE_TAGS = maskOf(VisionConstants.BLUE_TAG_FIDS);
+  public static final long RED_SPEAKER_TAGS = maskOf(VisionConstants.RED_SPEAKER_TAGS);
+  public static final long BLUE_SPEAKER_TAGS = maskOf(VisionConstants.BLUE_SPEAKER_TAGS);
+  public static final long RED_HUMAN_PLAYER_TAGS = maskOf(VisionConstants.RED_HUMAN_PLAYER_TAGS);
+  public static final long BLUE_HUMAN_PLAYER_TAGS = maskOf(VisionConstants.BLUE_HUMAN_PLAYER_TAGS);
+  public static final long RED_STAGE_TAGS = maskOf(VisionConstants.RED_STAGE_TAGS);
+  public static final long BLUE_STAGE_TAGS = maskOf(VisionConstants.BLUE_STAGE_TAGS);
+  public static final long ANDERSON_TAGS = maskOf(VisionConstants.ANDERSON_TAGS);
+
+  /** Pose of a tag on the field, or null if no tag with the id is on the field. */
+  public static Pose3d getTagPose(int id) {
+    return id >= 0 && id < TAG_POSES.length ? TAG_POSES[id] : null;
+  }
+
+  /** Whether a tag with the id is on the field. */
+  public static boolean isOnField(int id) {
+    return getTagPose(id) != null;
+  }
+
+  /** Whether a tag group contains the id. */
+  public static boolean contains(long mask, int id) {
+    return id >= 0 && id <= MAX_ID && (mask & (1L << id)) != 0;
+  }
+
+  /** The tag in the same place on the other alliance's side, or -1 if there is none. */
+  public static int getMirroredId(int id) {
+    return id >= 0 && id <= MAX_ID ? MIRRORED_IDS[id] : -1;
+  }
+
+  /** The tag group in the same place on the other alliance's side, e.g. red speaker for blue. */
+  public static long mirror(long mask) {
+    long mirrored = 0;
+    for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+      int mirroredId = MIRRORED_IDS[Long.numberOfTrailingZeros(remaining)];
+      if (mirroredId != -1) {
+        mirrored |= 1L << mirroredId;
+      }
+    }
+    return mirrored;
+  }
+
+  /** Picks the blue group or its red mirror for an alliance. */
+  public static long forAlliance(long blueMask, boolean isBlueAlliance) {
+    return isBlueAlliance ? blueMask : mirror(blueMask);
+  }
+
+  /** Builds the mask of a tag group, for groups outside of {@link VisionConstants}. */
+  public static long maskOf(Set<Integer> ids) {
+    long mask = 0;
+    for (int id : ids) {
+      if (id < 0 || id > MAX_ID) {
+        throw new IllegalArgumentException("Tag id " + id + " does not fit in a tag mask");
+      }
+      mask |= 1L << id;
+    }
+    return mask;
+  }
+
+  private static Pose3d[] buildTagPoses() {
+    int maxId = -1;
+    for (AprilTag tag : VisionConstants.FIELD_LAYOUT.getTags()) {
+      maxId = Math.max(maxId, tag.ID);
+    }
+
+    Pose3d[] poses = new Pose3d[maxId + 1];
+    for (AprilTag tag : VisionConstants.FIELD_LAYOUT.getTags()) {
+      // Through the layout so a changed origin is applied
+      poses[tag.ID] = VisionConstants.FIELD_LAYOUT.getTagPose(tag.ID).orElse(null);
+    }
+    return poses;
+  }
+
+  private static int[] buildMirroredIds(int[][] pairs) {
+    int[] mirroredIds = new int[MAX_ID + 1];
+    Arrays.fill(mirroredIds, -1);
+    for (int[] pair : pairs) {
+      mirroredIds[pair[0]] = pair[1];
+      mirroredIds[pair[1]] = pair[0];
+    }
+    return mirroredIds;
+  }
+}
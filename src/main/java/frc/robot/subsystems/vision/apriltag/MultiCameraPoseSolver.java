@@ -0,0 +1,358 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import edu.wpi.first.math.geometry.Quaternion;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import java.util.List;
+import org.photonvision.targeting.TargetCorner;
+
+/**
+ * Solves for the one robot pose that best explains every AprilTag corner seen by every camera.
+ *
+ * <p>PhotonVision's multi-tag estimate only combines the tags of a single camera and solves a full
+ * 6-DOF camera pose, which is poorly conditioned when that camera sees one tag. Here the corners
+ * from all cameras go into one least squares problem instead. Because the robot drives on the
+ * floor, only x, y and heading are solved, by Gauss-Newton on the reprojection error in pixels,
+ * starting from the odometry pose. Every camera brings its own robot-to-camera transform, which
+ * also lets frames captured at slightly different times be moved to a common time.
+ *
+ * <p>Observations are stored in flat arrays sized once, so adding them and solving never allocates
+ * beyond what the caller passes in. Main thread only.
+ */
+public class MultiCameraPoseSolver {
+  private static final int kMaxIterations = 10;
+  private static final double kConvergedStep = 1e-6;
+  // Corners closer than this to the camera plane, or behind it, mean the pose is far off
+  private static final double kMinDepthMeters = 0.05;
+  // Levenberg-Marquardt style damping that keeps the normal equations solvable
+  private static final double kDamping = 1e-9;
+
+  private final int maxCameras;
+  private final int maxCorners;
+
+  // Per camera: orientation in the robot frame as a row-major 3x3, position, and fx, fy, cx, cy
+  private final double[] cameraRotations;
+  private final double[] cameraTranslations;
+  private final double[] cameraIntrinsics;
+
+  // Per corner: field position, undistorted normalized image position and camera index
+  private final double[] cornerFieldPoints;
+  private final double[] cornerObservations;
+  private final int[] cornerCameras;
+
+  private int cameraCount = 0;
+  private int cornerCount = 0;
+  private int tagCount = 0;
+  private double[] currentDistCoeffs = new double[0];
+
+  private double solvedX = 0.0;
+  private double solvedY = 0.0;
+  private double solvedThetaRad = 0.0;
+  private double rmsErrorPixels = Double.NaN;
+  private double averageCornerDistance = Double.NaN;
+  private int iterations = 0;
+
+  /**
+   * @param maxCameras Most cameras that can take part in one solve
+   * @param maxTags Most tags that can take part in one solve, over all cameras
+   */
+  public MultiCameraPoseSolver(int maxCameras, int maxTags) {
+    this.maxCameras = maxCameras;
+    maxCorners = maxTags * 4;
+    cameraRotations = new double[maxCameras * 9];
+    cameraTranslations = new double[maxCameras * 3];
+    cameraIntrinsics = new double[maxCameras * 4];
+    cornerFieldPoints = new double[maxCorners * 3];
+    cornerObservations = new double[maxCorners * 2];
+    cornerCameras = new int[maxCorners];
+  }
+
+  /** Removes every camera and tag, ready for the next solve. */
+  public void reset() {
+    cameraCount = 0;
+    cornerCount = 0;
+    tagCount = 0;
+  }
+
+  /**
+   * Adds a camera. Tags added afterwards belong to it.
+   *
+   * @param robotToCamera Camera pose relative to the robot at the solve's time
+   * @param cameraMatrix Row-major 3x3 camera intrinsics matrix
+   * @param distCoeffs OpenCV distortion coefficients, only the first five are used
+   * @return Whether the camera was added, false if the intrinsics are unknown or it does not fit
+   */
+  public boolean addCamera(Transform3d robotToCamera, double[] cameraMatrix, double[] distCoeffs) {
+    if (cameraCount == maxCameras || cameraMatrix.length != 9 || cameraMatrix[0] <= 0.0) {
+      return false;
+    }
+
+    // Rotation matrix of the quaternion, see Rotation3d
+    Quaternion q = robotToCamera.getRotation().getQuaternion();
+    double w = q.getW();
+    double x = q.getX();
+    double y = q.getY();
+    double z = q.getZ();
+    int r = cameraCount * 9;
+    cameraRotations[r] = 1 - 2 * (y * y + z * z);
+    cameraRotations[r + 1] = 2 * (x * y - w * z);
+    cameraRotations[r + 2] = 2 * (x * z + w * y);
+    cameraRotations[r + 3] = 2 * (x * y + w * z);
+    cameraRotations[r + 4] = 1 - 2 * (x * x + z * z);
+    cameraRotations[r + 5] = 2 * (y * z - w * x);
+    cameraRotations[r + 6] = 2 * (x * z - w * y);
+    cameraRotations[r + 7] = 2 * (y * z + w * x);
+    cameraRotations[r + 8] = 1 - 2 * (x * x + y * y);
+
+    int t = cameraCount * 3;
+    cameraTranslations[t] = robotToCamera.getX();
+    cameraTranslations[t + 1] = robotToCamera.getY();
+    cameraTranslations[t + 2] = robotToCamera.getZ();
+
+    int k = cameraCount * 4;
+    cameraIntrinsics[k] = cameraMatrix[0];
+    cameraIntrinsics[k + 1] = cameraMatrix[4];
+    cameraIntrinsics[k + 2] = cameraMatrix[2];
+    cameraIntrinsics[k + 3] = cameraMatrix[5];
+
+    currentDistCoeffs = distCoeffs;
+    cameraCount++;
+    return true;
+  }
+
+  /**
+   * Adds a tag seen by the camera added last.
+   *
+   * @param fieldCorners Corners of the tag on the field, in the order of {@code detectedCorners}
+   * @param detectedCorners Corners of the tag in the image in pixels
+   * @return Whether the tag was added, false if it does not fit or the corners do not match
+   */
+  public boolean addTag(List<Translation3d> fieldCorners, List<TargetCorner> detectedCorners) {
+    if (cameraCount == 0
+        || fieldCorners.size() != detectedCorners.size()
+        || cornerCount + fieldCorners.size() > maxCorners) {
+      return false;
+    }
+
+    int k = (cameraCount - 1) * 4;
+    double fx = cameraIntrinsics[k];
+    double fy = cameraIntrinsics[k + 1];
+    double cx = cameraIntrinsics[k + 2];
+    double cy = cameraIntrinsics[k + 3];
+
+    for (int i = 0; i < fieldCorners.size(); i++) {
+      Translation3d fieldCorner = fieldCorners.get(i);
+      TargetCorner detectedCorner = detectedCorners.get(i);
+
+      cornerFieldPoints[cornerCount * 3] = fieldCorner.getX();
+      cornerFieldPoints[cornerCount * 3 + 1] = fieldCorner.getY();
+      cornerFieldPoints[cornerCount * 3 + 2] = fieldCorner.getZ();
+      undistort(
+          (detectedCorner.x - cx) / fx,
+          (detectedCorner.y - cy) / fy,
+          currentDistCoeffs,
+          cornerObservations,
+          cornerCount * 2);
+      cornerCameras[cornerCount] = cameraCount - 1;
+      cornerCount++;
+    }
+    tagCount++;
+    return true;
+  }
+
+  /**
+   * Inverts OpenCV's radial and tangential distortion by fixed-point iteration, the same way as
+   * cv::undistortPoints.
+   */
+  private static void undistort(
+      double distortedX, double distortedY, double[] distCoeffs, double[] out, int offset) {
+    double k1 = distCoeffs.length > 0 ? distCoeffs[0] : 0.0;
+    double k2 = distCoeffs.length > 1 ? distCoeffs[1] : 0.0;
+    double p1 = distCoeffs.length > 2 ? distCoeffs[2] : 0.0;
+    double p2 = distCoeffs.length > 3 ? distCoeffs[3] : 0.0;
+    double k3 = distCoeffs.length > 4 ? distCoeffs[4] : 0.0;
+
+    double x = distortedX;
+    double y = distortedY;
+    for (int i = 0; i < 5; i++) {
+      double r2 = x * x + y * y;
+      double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+      double tangentialX = 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+      double tangentialY = p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+      x = (distortedX - tangentialX) / radial;
+      y = (distortedY - tangentialY) / radial;
+    }
+    out[offset] = x;
+    out[offset + 1] = y;
+  }
+
+  /**
+   * Solves for the robot pose.
+   *
+   * @param initialX Starting x in meters, usually from odometry
+   * @param initialY Starting y in meters
+   * @param initialThetaRad Starting heading in radians
+   * @return Whether the solve converged with every corner in front of its camera
+   */
+  public boolean solve(double initialX, double initialY, double initialThetaRad) {
+    solvedX = initialX;
+    solvedY = initialY;
+    solvedThetaRad = initialThetaRad;
+    rmsErrorPixels = Double.NaN;
+    averageCornerDistance = Double.NaN;
+    iterations = 0;
+
+    if (cornerCount < 3) {
+      return false;
+    }
+
+    while (iterations < kMaxIterations) {
+      iterations++;
+
+      // Normal equations J^T J step = -J^T e, J^T J stored as its upper triangle
+      double h00 = kDamping;
+      double h01 = 0.0;
+      double h02 = 0.0;
+      double h11 = kDamping;
+      double h12 = 0.0;
+      double h22 = kDamping;
+      double g0 = 0.0;
+      double g1 = 0.0;
+      double g2 = 0.0;
+      double sumSquaredError = 0.0;
+      double sumDistance = 0.0;
+
+      double cos = Math.cos(solvedThetaRad);
+      double sin = Math.sin(solvedThetaRad);
+
+      for (int i = 0; i < cornerCount; i++) {
+        int r = cornerCameras[i] * 9;
+        int t = cornerCameras[i] * 3;
+        int k = cornerCameras[i] * 4;
+        double r00 = cameraRotations[r];
+        double r01 = cameraRotations[r + 1];
+        double r02 = cameraRotations[r + 2];
+        double r10 = cameraRotations[r + 3];
+        double r11 = cameraRotations[r + 4];
+        double r12 = cameraRotations[r + 5];
+        double r20 = cameraRotations[r + 6];
+        double r21 = cameraRotations[r + 7];
+        double r22 = cameraRotations[r + 8];
+        double fx = cameraIntrinsics[k];
+        double fy = cameraIntrinsics[k + 1];
+
+        // Corner in the robot frame
+        double dx = cornerFieldPoints[i * 3] - solvedX;
+        double dy = cornerFieldPoints[i * 3 + 1] - solvedY;
+        double robotX = cos * dx + sin * dy;
+        double robotY = -sin * dx + cos * dy;
+        double robotZ = cornerFieldPoints[i * 3 + 2];
+
+        // Corner in the camera frame, X forward, Y left and Z up
+        double qx = robotX - cameraTranslations[t];
+        double qy = robotY - cameraTranslations[t + 1];
+        double qz = robotZ - cameraTranslations[t + 2];
+        double camX = r00 * qx + r10 * qy + r20 * qz;
+        double camY = r01 * qx + r11 * qy + r21 * qz;
+        double camZ = r02 * qx + r12 * qy + r22 * qz;
+        if (camX < kMinDepthMeters) {
+          return false;
+        }
+        sumDistance += Math.sqrt(camX * camX + camY * camY + camZ * camZ);
+
+        // Pixel error, image x is right and y is down
+        double errorU = fx * (-camY / camX - cornerObservations[i * 2]);
+        double errorV = fy * (-camZ / camX - cornerObservations[i * 2 + 1]);
+        sumSquaredError += errorU * errorU + errorV * errorV;
+
+        // Pixel error over the robot frame corner, whose height does not depend on the pose
+        double slopeY = camY / camX;
+        double slopeZ = camZ / camX;
+        double uByRobotX = -fx / camX * (r01 - slopeY * r00);
+        double uByRobotY = -fx / camX * (r11 - slopeY * r10);
+        double vByRobotX = -fy / camX * (r02 - slopeZ * r00);
+        double vByRobotY = -fy / camX * (r12 - slopeZ * r10);
+
+        // Chained with the robot frame corner over x, y and heading
+        double ju0 = -uByRobotX * cos + uByRobotY * sin;
+        double ju1 = -uByRobotX * sin - uByRobotY * cos;
+        double ju2 = uByRobotX * robotY - uByRobotY * robotX;
+        double jv0 = -vByRobotX * cos + vByRobotY * sin;
+        double jv1 = -vByRobotX * sin - vByRobotY * cos;
+        double jv2 = vByRobotX * robotY - vByRobotY * robotX;
+
+        h00 += ju0 * ju0 + jv0 * jv0;
+        h01 += ju0 * ju1 + jv0 * jv1;
+        h02 += ju0 * ju2 + jv0 * jv2;
+        h11 += ju1 * ju1 + jv1 * jv1;
+        h12 += ju1 * ju2 + jv1 * jv2;
+        h22 += ju2 * ju2 + jv2 * jv2;
+        g0 += ju0 * errorU + jv0 * errorV;
+        g1 += ju1 * errorU + jv1 * errorV;
+        g2 += ju2 * errorU + jv2 * errorV;
+      }
+
+      rmsErrorPixels = Math.sqrt(sumSquaredError / (2 * cornerCount));
+      averageCornerDistance = sumDistance / cornerCount;
+
+      // Solve the symmetric 3x3 system by its adjugate
+      double c00 = h11 * h22 - h12 * h12;
+      double c01 = h02 * h12 - h01 * h22;
+      double c02 = h01 * h12 - h02 * h11;
+      double determinant = h00 * c00 + h01 * c01 + h02 * c02;
+      if (!(Math.abs(determinant) > 0.0)) {
+        return false;
+      }
+      double c11 = h00 * h22 - h02 * h02;
+      double c12 = h01 * h02 - h00 * h12;
+      double c22 = h00 * h11 - h01 * h01;
+      double stepX = -(c00 * g0 + c01 * g1 + c02 * g2) / determinant;
+      double stepY = -(c01 * g0 + c11 * g1 + c12 * g2) / determinant;
+      double stepTheta = -(c02 * g0 + c12 * g1 + c22 * g2) / determinant;
+
+      solvedX += stepX;
+      solvedY += stepY;
+      solvedThetaRad += stepTheta;
+
+      if (Math.abs(stepX) + Math.abs(stepY) + Math.abs(stepTheta) < kConvergedStep) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public double getX() {
+    return solvedX;
+  }
+
+  public double getY() {
+    return solvedY;
+  }
+
+  public double getThetaRad() {
+    return solvedThetaRad;
+  }
+
+  /** Returns the RMS reprojection error of the last solve in pixels, before its final step. */
+  public double getRmsErrorPixels() {
+    return rmsErrorPixels;
+  }
+
+  /** Returns the average distance from the cameras to the corners in meters. */
+  public double getAverageTagDistance() {
+    return averageCornerDistance;
+  }
+
+  /** Returns the number of tags added, counting a tag once per camera that saw it. */
+  public int getTagCount() {
+    return tagCount;
+  }
+
+  public int getCameraCount() {
+    return cameraCount;
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+}
@@ -62,6 +62,8 @@ public enum OffsetTags {
   private final int blueId;
   private final double poseOffsetMeters;
   private final Rotation3d extraRotation;
+  private final Pose3d redOffsetPose;
+  private final Pose3d blueOffsetPose;
 
   private OffsetTags(int red, int blue, double poseOffsetMeters) {
     this(red, blue, poseOffsetMeters, new Rotation3d());
@@ -72,6 +74,9 @@ public enum OffsetTags {
     this.blueId = blue;
     this.poseOffsetMeters = poseOffsetMeters;
     this.extraRotation = extraRotation;
+    // The tags don't move, so the offset poses are only built once
+    this.redOffsetPose = getOffsetPoseFrom(FieldTagIndex.getTagPose(redId));
+    this.blueOffsetPose = getOffsetPoseFrom(FieldTagIndex.getTagPose(blueId));
   }
 
   public Pose3d getOffsetPoseFrom(Pose3d pose) {
@@ -91,13 +96,11 @@ public enum OffsetTags {
   }
 
   public Pose3d getRedOffsetPose() {
-    Pose3d pose = VisionConstants.FIELD_LAYOUT.getTagPose(redId).get();
-    return getOffsetPoseFrom(pose);
+    return redOffsetPose;
   }
 
   public Pose3d getBlueOffsetPose() {
-    Pose3d pose = VisionConstants.FIELD_LAYOUT.getTagPose(blueId).get();
-    return getOffsetPoseFrom(pose);
+    return blueOffsetPose;
   }
 
   public Command getDeferredCommand() {
@@ -111,15 +114,15 @@ public enum OffsetTags {
   }
 
   public Pose3d getPose() {
-    return VisionConstants.FIELD_LAYOUT.getTagPose(getId()).get();
+    return FieldTagIndex.getTagPose(getId());
   }
 
   public Pose3d getRedPose() {
-    return VisionConstants.FIELD_LAYOUT.getTagPose(getRedId()).get();
+    return FieldTagIndex.getTagPose(getRedId());
   }
 
   public Pose3d getBluePose() {
-    return VisionConstants.FIELD_LAYOUT.getTagPose(getBlueId()).get();
+    return FieldTagIndex.getTagPose(getBlueId());
   }
 
   public int getId() {
@@ -142,11 +145,8 @@ public enum OffsetTags {
    * @return Distance from robot to target (meters)
    */
   public double getFieldDistanceFrom(Pose2d pose) {
-    Translation2d poseTranslation = pose.getTranslation();
-    Translation2d targetTranslation = getPose().toPose2d().getTranslation();
-    double distanceToTarget = poseTranslation.getDistance(targetTranslation);
-
-    return distanceToTarget;
+    Pose3d targetPose = getPose();
+    return Math.hypot(targetPose.getX() - pose.getX(), targetPose.getY() - pose.getY());
   }
 
   /**
@@ -160,13 +160,8 @@ public enum OffsetTags {
     Optional<Double> distance = Optional.empty();
 
     Optional<TargetWithSource> targetWithSource =
-        AprilTagAlgorithms.filterTags(BobotState.getVisibleAprilTags().stream(), getId())
-            .reduce(
-                (targetWithSourceA, targetWithSourceB) ->
-                    targetWithSourceA.target().getPoseAmbiguity()
-                            <= targetWithSourceB.target().getPoseAmbiguity()
-                        ? targetWithSourceA
-                        : targetWithSourceB);
+        AprilTagAlgorithms.reduceToLeastAmbiguous(
+            AprilTagAlgorithms.filterTags(BobotState.getVisibleAprilTags().stream(), getId()));
 
     if (targetWithSource.isPresent()) {
       Translation2d poseTranslation = pose.getTranslation();
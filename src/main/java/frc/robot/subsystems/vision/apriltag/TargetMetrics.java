@@ -0,0 +1,66 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import frc.robot.subsystems.vision.apriltag.AprilTagIO.AprilTagIOInputs;
+import java.util.ArrayList;
+import java.util.List;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+/**
+ * Everything derived from a single target of a frame that more than one consumer needs.
+ *
+ * <p>Built once per target on the camera's worker thread, right after the frame arrives, and logged
+ * with the inputs so replay sees the same values. Filtering, the visible tag list and everything
+ * reading it use these instead of composing the camera and target transforms again on every call.
+ *
+ * @param robotToTarget Target relative to the robot, through the camera's mounting position
+ * @param distance Straight line distance from the camera to the target in meters
+ * @param ambiguity Pose ambiguity of the target, -1 if PhotonVision did not compute one
+ * @param fieldPose Pose of the tag on the field, or null if the target is not a tag on the field
+ */
+public record TargetMetrics(
+    Transform3d robotToTarget, double distance, double ambiguity, Pose3d fieldPose) {
+  /** Measures a target seen by a camera at {@code robotToCamera}. */
+  public static TargetMetrics of(PhotonTrackedTarget target, Transform3d robotToCamera) {
+    Transform3d cameraToTarget = target.getBestCameraToTarget();
+    return new TargetMetrics(
+        robotToCamera.plus(cameraToTarget),
+        cameraToTarget.getTranslation().getNorm(),
+        target.getPoseAmbiguity(),
+        FieldTagIndex.getTagPose(target.getFiducialId()));
+  }
+
+  /** Measures every target of a frame, in the same order. */
+  public static List<TargetMetrics> of(
+      List<PhotonTrackedTarget> targets, Transform3d robotToCamera) {
+    List<TargetMetrics> metrics = new ArrayList<>(targets.size());
+    for (PhotonTrackedTarget target : targets) {
+      metrics.add(of(target, robotToCamera));
+    }
+    return metrics;
+  }
+
+  /** Restores the metrics of the target at {@code index} of the inputs' frame. */
+  public static TargetMetrics fromInputs(AprilTagIOInputs inputs, int index) {
+    Pose3d robotToTarget = inputs.targetRobotToTargets[index];
+    PhotonTrackedTarget target = inputs.frame.getTargets().get(index);
+    return new TargetMetrics(
+        new Transform3d(robotToTarget.getTranslation(), robotToTarget.getRotation()),
+        inputs.targetDistances[index],
+        target.getPoseAmbiguity(),
+        FieldTagIndex.getTagPose(target.getFiducialId()));
+  }
+
+  /** Writes the metrics of a frame's targets into the inputs, in the same order. */
+  public static void toInputs(TargetMetrics[] metrics, AprilTagIOInputs inputs) {
+    inputs.targetRobotToTargets = new Pose3d[metrics.length];
+    inputs.targetDistances = new double[metrics.length];
+    for (int i = 0; i < metrics.length; i++) {
+      Transform3d robotToTarget = metrics[i].robotToTarget();
+      inputs.targetRobotToTargets[i] =
+          new Pose3d(robotToTarget.getTranslation(), robotToTarget.getRotation());
+      inputs.targetDistances[i] = metrics[i].distance();
+    }
+  }
+}
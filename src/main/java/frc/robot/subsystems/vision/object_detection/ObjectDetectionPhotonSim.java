@@ -6,8 +6,11 @@ import edu.wpi.first.math.geometry.Rotation3d;
 import edu.wpi.first.math.util.Units;
 import frc.robot.VisionConstants;
 import frc.robot.VisionConstants.VisionSource;
+import frc.robot.subsystems.vision.PhotonResultListener;
+import frc.robot.subsystems.vision.VisionWorkerPool;
 import frc.robot.subsystems.vision.apriltag.DuplicateTracker;
 import frc.util.TimeSinceConditionTracker;
+import java.util.concurrent.atomic.AtomicReference;
 import org.photonvision.PhotonCamera;
 import org.photonvision.estimation.TargetModel;
 import org.photonvision.simulation.PhotonCameraSim;
@@ -20,22 +23,9 @@ public class ObjectDetectionPhotonSim implements ObjectDetectionIO {
   private PhotonCameraSim cameraSim;
   private final DuplicateTracker duplicateTracker = new DuplicateTracker();
   private final TimeSinceConditionTracker timeSinceTargetsLostTracker;
+  private final PhotonResultListener resultListener;
 
-  private final Thread periodicThread =
-      new Thread(
-          () -> {
-            while (!Thread.currentThread().isInterrupted()) {
-              periodic();
-
-              try {
-                Thread.sleep(10);
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-              }
-            }
-          });
-
-  public ObjectDetectionPhotonSim(VisionSource source) {
+  public ObjectDetectionPhotonSim(VisionSource source, VisionWorkerPool workers) {
     camera = new PhotonCamera(source.name());
 
     VisionConstants.VISION_SYSTEM_SIM.ifPresent(
@@ -80,33 +70,43 @@ public class ObjectDetectionPhotonSim implements ObjectDetectionIO {
 
     timeSinceTargetsLostTracker = new TimeSinceConditionTracker(() -> !frame.hasTargets(), 0.3);
 
-    periodicThread.setPriority(Thread.MAX_PRIORITY);
-    periodicThread.start();
+    resultListener =
+        new PhotonResultListener(source.name(), workers.register(this::processFrame));
   }
 
+  // processFrame only
   private PhotonPipelineResult frame = new PhotonPipelineResult();
-  private boolean isDuplicateFrame = false;
-  private boolean hasExceededTargetsLostThreshold = false;
 
-  private void periodic() {
-    PhotonPipelineResult latestFrame = camera.getLatestResult();
+  // Written only by processFrame, read once per cycle by updateInputs
+  private final AtomicReference<ObjectDetectionSnapshot> snapshot =
+      new AtomicReference<>(ObjectDetectionSnapshot.EMPTY);
 
-    isDuplicateFrame = duplicateTracker.isDuplicateFrame(latestFrame);
+  // Main thread only, so a frame is only reported as new once
+  private int reportedFrameCount = 0;
 
-    if (isDuplicateFrame) {
+  /** Runs on a vision worker thread for the newest result the camera published. */
+  private void processFrame(PhotonPipelineResult latestFrame) {
+    if (duplicateTracker.isDuplicateFrame(latestFrame)) {
       return;
     }
 
-    frame = camera.getLatestResult();
+    frame = latestFrame;
     timeSinceTargetsLostTracker.update(frame.getTimestampSeconds());
-    hasExceededTargetsLostThreshold = timeSinceTargetsLostTracker.hasExceededThreshold();
+    snapshot.set(
+        new ObjectDetectionSnapshot(
+            frame,
+            snapshot.get().frameCount() + 1,
+            timeSinceTargetsLostTracker.hasExceededThreshold()));
   }
 
   @Override
   public void updateInputs(ObjectDetectionIOInputs inputs) {
-    inputs.frame = frame;
-    inputs.isDuplicateFrame = isDuplicateFrame;
-    inputs.hasExceededTargetlessThreshold = hasExceededTargetsLostThreshold;
+    ObjectDetectionSnapshot latest = snapshot.get();
+
+    inputs.frame = latest.frame();
+    inputs.isDuplicateFrame = latest.frameCount() == reportedFrameCount;
+    reportedFrameCount = latest.frameCount();
+    inputs.hasExceededTargetlessThreshold = latest.hasExceededTargetlessThreshold();
     inputs.isConnected = camera.isConnected();
   }
 }
@@ -0,0 +1,19 @@
+package frc.robot.subsystems.vision.object_detection;
+
+import org.photonvision.targeting.PhotonPipelineResult;
+
+/**
+ * State of an object detection camera as of its newest frame, built by the camera's frame
+ * processing and published as a whole so the main loop never mixes values from two frames.
+ *
+ * @param frame Newest frame
+ * @param frameCount Number of frames processed so far
+ * @param hasExceededTargetlessThreshold Whether the camera has seen no targets for long enough to
+ *     consider them lost
+ */
+public record ObjectDetectionSnapshot(
+    PhotonPipelineResult frame, int frameCount, boolean hasExceededTargetlessThreshold) {
+  /** Snapshot of a camera that has not sent a frame yet. */
+  public static final ObjectDetectionSnapshot EMPTY =
+      new ObjectDetectionSnapshot(new PhotonPipelineResult(), 0, false);
+}
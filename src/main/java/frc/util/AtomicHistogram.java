@@ -0,0 +1,98 @@
+package frc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-width histogram that one thread records into while another periodically summarizes it.
+ *
+ * <p>Recording is two uncontended atomic adds and never allocates, so it is safe to call from
+ * real-time loops. The reader calls {@link #snapshotWindow()} to capture everything recorded since
+ * its previous call, then queries statistics of that window. Values past the last bin are counted
+ * in the last bin.
+ */
+public class AtomicHistogram {
+  private final long binWidth;
+  private final AtomicLongArray bins;
+  private final AtomicLong sum = new AtomicLong();
+
+  // Reader side only
+  private final long[] lastBins;
+  private final long[] windowBins;
+  private long lastSum = 0;
+  private long windowCount = 0;
+  private long windowSum = 0;
+
+  /**
+   * @param binWidth Width of each bin in the recorded unit
+   * @param binCount Number of bins, covering values from 0 to binWidth * binCount
+   */
+  public AtomicHistogram(long binWidth, int binCount) {
+    this.binWidth = binWidth;
+    bins = new AtomicLongArray(binCount);
+    lastBins = new long[binCount];
+    windowBins = new long[binCount];
+  }
+
+  /** Records a value. Negative values are counted in the first bin. */
+  public void record(long value) {
+    int bin = (int) Math.min(Math.max(value, 0) / binWidth, bins.length() - 1);
+    bins.incrementAndGet(bin);
+    sum.addAndGet(value);
+  }
+
+  /**
+   * Captures the values recorded since the previous call as the current window.
+   *
+   * @return Number of values in the window
+   */
+  public long snapshotWindow() {
+    for (int i = 0; i < windowBins.length; i++) {
+      long binCount = bins.get(i);
+      windowBins[i] = binCount - lastBins[i];
+      lastBins[i] = binCount;
+    }
+    long currentSum = sum.get();
+    windowSum = currentSum - lastSum;
+    lastSum = currentSum;
+
+    // Use the bin total so percentiles stay consistent if a record raced the snapshot
+    long total = 0;
+    for (long binCount : windowBins) {
+      total += binCount;
+    }
+    windowCount = total;
+    return windowCount;
+  }
+
+  /** Returns the number of values in the current window. */
+  public long getWindowCount() {
+    return windowCount;
+  }
+
+  /** Returns the mean of the current window, or 0 if it is empty. */
+  public double getWindowMean() {
+    return windowCount == 0 ? 0.0 : (double) windowSum / windowCount;
+  }
+
+  /**
+   * Returns an upper bound for a percentile of the current window, resolved to a bin edge.
+   *
+   * @param percentile Percentile between 0 and 1
+   * @return Upper edge of the bin holding the percentile, or 0 if the window is empty
+   */
+  public double getWindowPercentile(double percentile) {
+    if (windowCount == 0) {
+      return 0.0;
+    }
+    long rank = (long) Math.ceil(percentile * windowCount);
+    long seen = 0;
+    for (int i = 0; i < windowBins.length; i++) {
+      seen += windowBins[i];
+      if (seen >= rank && seen > 0) {
+        return (i + 1) * binWidth;
+      }
+    }
+    return windowBins.length * binWidth;
+  }
+}
@@ -0,0 +1,124 @@
+package frc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of fixed-width frames of primitive doubles.
+ *
+ * <p>Exactly one thread may call {@link #offer} and exactly one (other) thread may call {@link
+ * #drainTo(double[], int)}. Nothing is boxed and neither side ever blocks. A frame only becomes
+ * visible to the consumer once all of its values have been written, so a frame is always read
+ * whole. When the consumer falls behind and the buffer is full, new frames are dropped and counted
+ * as overruns instead of being lost silently.
+ */
+public class DoubleRingBuffer {
+  private final double[] buffer;
+  private final int frameWidth;
+  private final int capacity;
+  private final int mask;
+
+  // Next frame to write, only advanced by the producer
+  private final AtomicLong head = new AtomicLong();
+  // Next frame to read, only advanced by the consumer
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong overruns = new AtomicLong();
+
+  /**
+   * Creates a buffer of single values.
+   *
+   * @param capacity Minimum number of values the buffer can hold, rounded up to a power of two
+   */
+  public DoubleRingBuffer(int capacity) {
+    this(capacity, 1);
+  }
+
+  /**
+   * Creates a buffer of frames.
+   *
+   * @param capacity Minimum number of frames the buffer can hold, rounded up to a power of two
+   * @param frameWidth Number of values in every frame
+   */
+  public DoubleRingBuffer(int capacity, int frameWidth) {
+    this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.frameWidth = frameWidth;
+    buffer = new double[this.capacity * frameWidth];
+    mask = this.capacity - 1;
+  }
+
+  /**
+   * Adds a value to a buffer with a frame width of one. Producer thread only.
+   *
+   * @return Whether the value was stored, false if the buffer was full
+   */
+  public boolean offer(double value) {
+    long currentHead = head.get();
+    if (currentHead - tail.get() >= capacity) {
+      overruns.incrementAndGet();
+      return false;
+    }
+    buffer[(int) (currentHead & mask)] = value;
+    head.lazySet(currentHead + 1);
+    return true;
+  }
+
+  /**
+   * Copies a frame into the buffer. Producer thread only.
+   *
+   * @param frame Array holding at least {@link #getFrameWidth()} values
+   * @return Whether the frame was stored, false if the buffer was full
+   */
+  public boolean offer(double[] frame) {
+    long currentHead = head.get();
+    if (currentHead - tail.get() >= capacity) {
+      overruns.incrementAndGet();
+      return false;
+    }
+    System.arraycopy(frame, 0, buffer, (int) (currentHead & mask) * frameWidth, frameWidth);
+    head.lazySet(currentHead + 1);
+    return true;
+  }
+
+  /** Returns the number of frames ready to be drained. */
+  public int size() {
+    return (int) (head.get() - tail.get());
+  }
+
+  /**
+   * Moves up to {@code maxCount} frames into {@code destination}, oldest first and packed
+   * back-to-back. Consumer thread only.
+   *
+   * @return Number of frames written to {@code destination}
+   */
+  public int drainTo(double[] destination, int maxCount) {
+    long currentTail = tail.get();
+    int count =
+        (int)
+            Math.min(
+                head.get() - currentTail, Math.min(maxCount, destination.length / frameWidth));
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(
+          buffer,
+          (int) ((currentTail + i) & mask) * frameWidth,
+          destination,
+          i * frameWidth,
+          frameWidth);
+    }
+    tail.lazySet(currentTail + count);
+    return count;
+  }
+
+  /** Returns the maximum number of frames the buffer can hold. */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** Returns the number of values in every frame. */
+  public int getFrameWidth() {
+    return frameWidth;
+  }
+
+  /** Returns the total number of frames dropped because the buffer was full. */
+  public long getOverrunCount() {
+    return overruns.get();
+  }
+}
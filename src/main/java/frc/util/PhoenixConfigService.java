@@ -0,0 +1,314 @@
+package frc.util;
+
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.configs.CANcoderConfiguration;
+import com.ctre.phoenix6.configs.CustomParamsConfigs;
+import com.ctre.phoenix6.configs.Pigeon2Configuration;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+import com.ctre.phoenix6.hardware.CANcoder;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import com.ctre.phoenix6.hardware.Pigeon2;
+import com.ctre.phoenix6.hardware.TalonFX;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotBase;
+import frc.robot.BuildConstants;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Applies Phoenix 6 device configs on background threads so the main loop never blocks on a CAN
+ * round-trip.
+ *
+ * <p>Work for one device runs in submission order, while different devices are configured in
+ * parallel, which also parallelizes boot. A hash of the last config successfully applied to each
+ * device is cached, and applying an identical config again is skipped.
+ *
+ * <p>On the robot the hashes are also saved to the RIO, so after a reboot (e.g. a brownout
+ * mid-match) devices whose config did not change are not reconfigured. Like {@link
+ * SparkoidBurnManager}, the build date is part of every hash, so each new deploy reconfigures
+ * everything once. The file is read by {@link #loadHashes()} from robotInit, and written once the
+ * queued work is done, at most every few seconds, instead of after every apply.
+ *
+ * <p>A cached hash alone cannot tell that a device was swapped or factory reset under the same CAN
+ * ID. Every full device config therefore carries a stamp derived from its hash in CustomParam0,
+ * and a cached full config is only skipped after the stamp is read back from the device. A device
+ * without the stamp gets the full config, which also clears its cached partial configs. A cached
+ * partial config, such as {@code MotorOutputConfigs}, is only skipped while the device carries the
+ * stamp of the full config applied before it, so every device should get a full config first.
+ */
+public class PhoenixConfigService {
+  public static final int kConfigAttempts = 3;
+  private static final Path kHashFile = Paths.get("/home/lvuser/phoenix-config-hashes.txt");
+  private static final boolean kPersistHashes = RobotBase.isReal();
+  private static final double kMinSaveIntervalSeconds = 5.0;
+
+  private static final ExecutorService executor =
+      Executors.newFixedThreadPool(
+          4,
+          runnable -> {
+            Thread thread = new Thread(runnable, "PhoenixConfigService");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // Last work submitted per device, so the next submission can be chained after it
+  private static final Map<ParentDevice, CompletableFuture<StatusCode>> tails =
+      new IdentityHashMap<>();
+  // Hash of the config last applied per device and config type
+  private static final Map<String, String> appliedConfigs = new ConcurrentHashMap<>();
+
+  private static final AtomicInteger pending = new AtomicInteger();
+  private static final AtomicInteger skipped = new AtomicInteger();
+  private static final AtomicInteger failures = new AtomicInteger();
+
+  private static final AtomicBoolean hashesDirty = new AtomicBoolean(false);
+  // Main thread only
+  private static long lastSaveMicros = 0;
+
+  private PhoenixConfigService() {}
+
+  /**
+   * Applies a config in the background unless the same config was already applied to the device.
+   * The config must not be modified after it is passed in.
+   *
+   * @param device Device the config is for
+   * @param config Config to apply, compared by its serialized form
+   * @param applier Applies the config, e.g. {@code () -> talon.getConfigurator().apply(config)}
+   * @return Future completed with the final status of the apply
+   */
+  public static CompletableFuture<StatusCode> apply(
+      ParentDevice device, Object config, Supplier<StatusCode> applier) {
+    String deviceKey = getDeviceKey(device);
+    String key = deviceKey + config.getClass().getSimpleName();
+    String hash = hash(config.toString());
+    int stamp = getStamp(hash);
+    CustomParamsConfigs customParams = getCustomParams(config);
+    if (customParams != null) {
+      // Stamped after hashing, since the stamp is derived from the hash
+      customParams.CustomParam0 = stamp;
+    }
+
+    return submit(
+        device,
+        () -> {
+          if (hash.equals(appliedConfigs.get(key))
+              && isStillApplied(device, deviceKey, customParams != null, stamp)) {
+            skipped.incrementAndGet();
+            return StatusCode.OK;
+          }
+          StatusCode status = runWithRetries(applier);
+          if (customParams != null) {
+            // A full device config overwrites every config group applied before it
+            appliedConfigs.keySet().removeIf(appliedKey -> appliedKey.startsWith(deviceKey));
+          }
+          if (status.isOK()) {
+            appliedConfigs.put(key, hash);
+          } else {
+            appliedConfigs.remove(key);
+          }
+          hashesDirty.set(true);
+          return status;
+        });
+  }
+
+  /**
+   * Runs an uncached device operation, such as setting the yaw, in order with the device's configs.
+   *
+   * @return Future completed with the final status of the operation
+   */
+  public static CompletableFuture<StatusCode> run(
+      ParentDevice device, Supplier<StatusCode> operation) {
+    return submit(device, () -> runWithRetries(operation));
+  }
+
+  private static synchronized CompletableFuture<StatusCode> submit(
+      ParentDevice device, Supplier<StatusCode> work) {
+    pending.incrementAndGet();
+    CompletableFuture<StatusCode> tail =
+        tails.getOrDefault(device, CompletableFuture.completedFuture(StatusCode.OK));
+    CompletableFuture<StatusCode> next =
+        tail.handleAsync(
+            (previous, error) -> {
+              try {
+                return work.get();
+              } finally {
+                pending.decrementAndGet();
+              }
+            },
+            executor);
+    tails.put(device, next);
+    return next;
+  }
+
+  private static StatusCode runWithRetries(Supplier<StatusCode> operation) {
+    StatusCode status = StatusCode.OK;
+    for (int attempt = 0; attempt < kConfigAttempts; attempt++) {
+      status = operation.get();
+      if (status.isOK()) {
+        return status;
+      }
+    }
+    failures.incrementAndGet();
+    System.out.println("[PhoenixConfigService] Failed to configure device: " + status);
+    return status;
+  }
+
+  private static String hash(String serializedConfig) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(BuildConstants.BUILD_DATE.getBytes(StandardCharsets.UTF_8));
+      digest.update(serializedConfig.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM provides SHA-256, fall back to the config itself just in case
+      return BuildConstants.BUILD_DATE + serializedConfig;
+    }
+  }
+
+  /** Nonzero stamp for a config hash, within the -32768 to 32767 range of a custom param. */
+  private static int getStamp(String hash) {
+    int stamp = (short) hash.hashCode();
+    return stamp == 0 ? 1 : stamp;
+  }
+
+  /** Custom params of a full device config, or null for a config group. */
+  private static CustomParamsConfigs getCustomParams(Object config) {
+    if (config instanceof TalonFXConfiguration talonConfig) {
+      return talonConfig.CustomParams;
+    } else if (config instanceof CANcoderConfiguration cancoderConfig) {
+      return cancoderConfig.CustomParams;
+    } else if (config instanceof Pigeon2Configuration pigeonConfig) {
+      return pigeonConfig.CustomParams;
+    }
+    return null;
+  }
+
+  /**
+   * Whether the device still holds a config the cache says was applied. A full config is checked
+   * for its own stamp, a partial config for the stamp of the device's cached full config, since a
+   * swapped or reset device has neither.
+   */
+  private static boolean isStillApplied(
+      ParentDevice device, String deviceKey, boolean isFullConfig, int stamp) {
+    if (isFullConfig) {
+      return hasStamp(device, stamp);
+    }
+    String fullConfigName = getFullConfigName(device);
+    String fullConfigHash =
+        fullConfigName == null ? null : appliedConfigs.get(deviceKey + fullConfigName);
+    return fullConfigHash != null && hasStamp(device, getStamp(fullConfigHash));
+  }
+
+  /** Class name of the device's full config, as used in its cache key, or null if unknown. */
+  private static String getFullConfigName(ParentDevice device) {
+    if (device instanceof TalonFX) {
+      return TalonFXConfiguration.class.getSimpleName();
+    } else if (device instanceof CANcoder) {
+      return CANcoderConfiguration.class.getSimpleName();
+    } else if (device instanceof Pigeon2) {
+      return Pigeon2Configuration.class.getSimpleName();
+    }
+    return null;
+  }
+
+  /** Reads the device's custom params back and checks them for the stamp. */
+  private static boolean hasStamp(ParentDevice device, int stamp) {
+    CustomParamsConfigs onDevice = new CustomParamsConfigs();
+    StatusCode status;
+    if (device instanceof TalonFX talon) {
+      status = talon.getConfigurator().refresh(onDevice);
+    } else if (device instanceof CANcoder cancoder) {
+      status = cancoder.getConfigurator().refresh(onDevice);
+    } else if (device instanceof Pigeon2 pigeon) {
+      status = pigeon.getConfigurator().refresh(onDevice);
+    } else {
+      return false;
+    }
+    return status.isOK() && onDevice.CustomParam0 == stamp;
+  }
+
+  /**
+   * Loads the hashes saved before the last reboot. Call once from robotInit, before any device is
+   * configured. If the file cannot be read every device is configured again.
+   */
+  public static void loadHashes() {
+    if (!kPersistHashes || !Files.exists(kHashFile)) {
+      return;
+    }
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(kHashFile, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      DriverStation.reportWarning(
+          "[PhoenixConfigService] Failed to load config hashes: " + e.getMessage(), false);
+      return;
+    }
+    int loaded = 0;
+    for (String line : lines) {
+      int separator = line.lastIndexOf('=');
+      if (separator > 0) {
+        // Anything applied since boot is newer than the file
+        appliedConfigs.putIfAbsent(line.substring(0, separator), line.substring(separator + 1));
+        loaded++;
+      }
+    }
+    System.out.println("[PhoenixConfigService] Loaded " + loaded + " config hashes");
+  }
+
+  private static synchronized void saveHashes() {
+    if (!kPersistHashes) {
+      return;
+    }
+    List<String> lines = new ArrayList<>();
+    appliedConfigs.forEach((key, hash) -> lines.add(key + "=" + hash));
+    try {
+      Files.write(kHashFile, lines, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      DriverStation.reportWarning(
+          "[PhoenixConfigService] Failed to save config hashes: " + e.getMessage(), false);
+    }
+  }
+
+  private static String getDeviceKey(ParentDevice device) {
+    return device.getClass().getSimpleName()
+        + "/"
+        + device.getNetwork()
+        + "/"
+        + device.getDeviceID()
+        + "/";
+  }
+
+  /** Logs how much configuration work is outstanding. Call once per robot loop. */
+  public static void logStatus() {
+    Logger.recordOutput("PhoenixConfig/Pending", pending.get());
+    Logger.recordOutput("PhoenixConfig/Skipped", skipped.get());
+    Logger.recordOutput("PhoenixConfig/Failures", failures.get());
+
+    // One write for a whole burst of applies, such as boot, off the main thread
+    long nowMicros = Logger.getRealTimestamp();
+    if (pending.get() == 0
+        && nowMicros - lastSaveMicros >= kMinSaveIntervalSeconds * 1e6
+        && hashesDirty.compareAndSet(true, false)) {
+      lastSaveMicros = nowMicros;
+      executor.execute(PhoenixConfigService::saveHashes);
+    }
+  }
+}
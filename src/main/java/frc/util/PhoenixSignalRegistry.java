@@ -0,0 +1,59 @@
+package frc.util;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import java.util.ArrayList;
+import java.util.List;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Refreshes every low-rate Phoenix 6 status signal once per robot loop.
+ *
+ * <p>IO classes register their signals at construction and then only read the cached values in
+ * updateInputs. {@link #refreshAll()} refreshes all of them with one call per CAN bus, since
+ * Phoenix rejects a refresh that spans buses, instead of one blocking call per device.
+ */
+public class PhoenixSignalRegistry {
+  private static final List<String> networks = new ArrayList<>();
+  private static BaseStatusSignal[][] signalsByNetwork = new BaseStatusSignal[0][];
+
+  private PhoenixSignalRegistry() {}
+
+  /**
+   * Adds signals to the batched refresh.
+   *
+   * @param device Device the signals belong to, used to group them by CAN bus
+   * @param signals Signals to refresh every loop
+   */
+  public static void register(ParentDevice device, BaseStatusSignal... signals) {
+    int group = networks.indexOf(device.getNetwork());
+    if (group == -1) {
+      networks.add(device.getNetwork());
+      BaseStatusSignal[][] newSignalsByNetwork = new BaseStatusSignal[networks.size()][];
+      System.arraycopy(signalsByNetwork, 0, newSignalsByNetwork, 0, signalsByNetwork.length);
+      newSignalsByNetwork[networks.size() - 1] = new BaseStatusSignal[0];
+      signalsByNetwork = newSignalsByNetwork;
+      group = networks.size() - 1;
+    }
+
+    BaseStatusSignal[] groupSignals = signalsByNetwork[group];
+    BaseStatusSignal[] newGroupSignals = new BaseStatusSignal[groupSignals.length + signals.length];
+    System.arraycopy(groupSignals, 0, newGroupSignals, 0, groupSignals.length);
+    System.arraycopy(signals, 0, newGroupSignals, groupSignals.length, signals.length);
+    signalsByNetwork[group] = newGroupSignals;
+  }
+
+  /** Refreshes every registered signal. Call once at the start of every robot loop. */
+  public static void refreshAll() {
+    if (signalsByNetwork.length == 0) {
+      return;
+    }
+
+    long startMicros = Logger.getRealTimestamp();
+    for (BaseStatusSignal[] networkSignals : signalsByNetwork) {
+      BaseStatusSignal.refreshAll(networkSignals);
+    }
+    Logger.recordOutput(
+        "PhoenixSignals/RefreshMs", (Logger.getRealTimestamp() - startMicros) / 1000.0);
+  }
+}
@@ -0,0 +1,156 @@
+package frc.util;
+
+import edu.wpi.first.math.MathUtil;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fixed-capacity history of timestamped 2d poses stored in primitive arrays.
+ *
+ * <p>One thread writes samples in time order while any number of threads look up interpolated
+ * poses. Lookups binary search the history and write into a caller-owned array, so neither side
+ * allocates. Readers use optimistic reads and only take the read lock if a write raced with them.
+ */
+public class PoseHistoryBuffer {
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+  private final int capacity;
+  private final int mask;
+
+  // Total number of samples written since the last clear, guarded by lock
+  private long count = 0;
+  private final StampedLock lock = new StampedLock();
+
+  /**
+   * @param capacity Minimum number of samples to keep, rounded up to a power of two
+   */
+  public PoseHistoryBuffer(int capacity) {
+    this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    mask = this.capacity - 1;
+    timestamps = new double[this.capacity];
+    xs = new double[this.capacity];
+    ys = new double[this.capacity];
+    thetas = new double[this.capacity];
+  }
+
+  /**
+   * Records a pose, overwriting the oldest sample once full. A timestamp older than the newest
+   * sample means time restarted, so the history is cleared first.
+   *
+   * @param timestamp Time of the sample in seconds
+   */
+  public void addSample(double timestamp, double x, double y, double thetaRad) {
+    long stamp = lock.writeLock();
+    try {
+      if (count > 0 && timestamp < timestamps[index(count - 1)]) {
+        count = 0;
+      }
+      int i = index(count);
+      timestamps[i] = timestamp;
+      xs[i] = x;
+      ys[i] = y;
+      thetas[i] = thetaRad;
+      count++;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /** Removes every sample, e.g. after the pose was reset and old samples no longer connect. */
+  public void clear() {
+    long stamp = lock.writeLock();
+    try {
+      count = 0;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Looks up the pose at a time, interpolating between the samples around it. Times newer than
+   * the newest sample return the newest sample.
+   *
+   * @param timestamp Time to look up in seconds
+   * @param out Array of at least three values that receives x, y and theta in radians
+   * @return Whether a pose was found, false if the history is empty or no longer reaches back to
+   *     the requested time
+   */
+  public boolean sample(double timestamp, double[] out) {
+    long stamp = lock.tryOptimisticRead();
+    boolean found = read(timestamp, out);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        found = read(timestamp, out);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return found;
+  }
+
+  /** Returns the timestamp of the oldest sample, or NaN if the history is empty. */
+  public double getOldestTimestamp() {
+    long stamp = lock.readLock();
+    try {
+      return count == 0 ? Double.NaN : timestamps[index(count - Math.min(count, capacity))];
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /** Returns the timestamp of the newest sample, or NaN if the history is empty. */
+  public double getNewestTimestamp() {
+    long stamp = lock.readLock();
+    try {
+      return count == 0 ? Double.NaN : timestamps[index(count - 1)];
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private boolean read(double timestamp, double[] out) {
+    long written = count;
+    if (written == 0) {
+      return false;
+    }
+    long low = written - Math.min(written, capacity);
+    long high = written - 1;
+    if (timestamp < timestamps[index(low)]) {
+      return false;
+    }
+
+    // Find the newest sample at or before the requested time
+    while (low < high) {
+      long mid = (low + high + 1) >>> 1;
+      if (timestamps[index(mid)] <= timestamp) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    int before = index(low);
+    if (low == written - 1) {
+      out[0] = xs[before];
+      out[1] = ys[before];
+      out[2] = thetas[before];
+      return true;
+    }
+
+    int after = index(low + 1);
+    double span = timestamps[after] - timestamps[before];
+    double fraction = span > 0.0 ? (timestamp - timestamps[before]) / span : 0.0;
+    out[0] = xs[before] + (xs[after] - xs[before]) * fraction;
+    out[1] = ys[before] + (ys[after] - ys[before]) * fraction;
+    out[2] =
+        MathUtil.angleModulus(
+            thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * fraction);
+    return true;
+  }
+
+  private int index(long sample) {
+    return (int) (sample & mask);
+  }
+}
@@ -0,0 +1,175 @@
+package frc.util;
+
+import com.ctre.phoenix6.controls.ControlRequest;
+import com.ctre.phoenix6.controls.NeutralOut;
+import com.ctre.phoenix6.controls.PositionVoltage;
+import com.ctre.phoenix6.controls.VelocityVoltage;
+import com.ctre.phoenix6.controls.VoltageOut;
+import com.ctre.phoenix6.hardware.TalonFX;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Sends control requests to a TalonFX without allocating and without repeating itself.
+ *
+ * <p>Each output owns one preallocated instance of every control request it supports. A request is
+ * only sent when its type or value changed, or when the keepalive period passed since the last
+ * frame, so a motor held at a constant output stops flooding the bus every loop.
+ */
+public class TalonFXOutput {
+  public static final double kDefaultKeepaliveSeconds = 0.1;
+
+  private static final List<TalonFXOutput> outputs = new ArrayList<>();
+
+  private static final int kNone = 0;
+  private static final int kVoltage = 1;
+  private static final int kVelocity = 2;
+  private static final int kPosition = 3;
+  private static final int kNeutral = 4;
+
+  private final Consumer<ControlRequest> sender;
+  private final LongSupplier clockMicros;
+  private final String logKey;
+  private final long keepaliveMicros;
+
+  private final VoltageOut voltageRequest;
+  private final VelocityVoltage velocityRequest;
+  private final PositionVoltage positionRequest;
+  private final NeutralOut neutralRequest = new NeutralOut();
+
+  private int lastRequest = kNone;
+  private double lastValue = 0.0;
+  private double lastFeedforward = 0.0;
+  private long lastSentMicros = 0;
+
+  // Only the thread sending requests writes these, volatile so logAll on the main thread reads
+  // whole and current values
+  private volatile long sentCount = 0;
+  private volatile long suppressedCount = 0;
+
+  /**
+   * @param talon Motor to control
+   * @param logKey Key the frame counters are logged under
+   * @param enableFOC Whether requests use FOC commutation, which needs a Phoenix Pro license
+   */
+  public TalonFXOutput(TalonFX talon, String logKey, boolean enableFOC) {
+    this(talon, logKey, enableFOC, kDefaultKeepaliveSeconds);
+  }
+
+  /**
+   * @param talon Motor to control
+   * @param logKey Key the frame counters are logged under
+   * @param enableFOC Whether requests use FOC commutation, which needs a Phoenix Pro license
+   * @param keepaliveSeconds Longest time an unchanged request goes without being sent again
+   */
+  public TalonFXOutput(TalonFX talon, String logKey, boolean enableFOC, double keepaliveSeconds) {
+    this(talon::setControl, Logger::getRealTimestamp, logKey, enableFOC, keepaliveSeconds);
+  }
+
+  /**
+   * @param sender Sends a request to the motor
+   * @param clockMicros Current time in microseconds
+   * @param logKey Key the frame counters are logged under
+   * @param enableFOC Whether requests use FOC commutation
+   * @param keepaliveSeconds Longest time an unchanged request goes without being sent again
+   */
+  TalonFXOutput(
+      Consumer<ControlRequest> sender,
+      LongSupplier clockMicros,
+      String logKey,
+      boolean enableFOC,
+      double keepaliveSeconds) {
+    this.sender = sender;
+    this.clockMicros = clockMicros;
+    this.logKey = logKey;
+    this.keepaliveMicros = (long) (keepaliveSeconds * 1e6);
+    voltageRequest = new VoltageOut(0.0).withEnableFOC(enableFOC);
+    velocityRequest = new VelocityVoltage(0.0).withEnableFOC(enableFOC);
+    positionRequest = new PositionVoltage(0.0).withEnableFOC(enableFOC);
+    outputs.add(this);
+  }
+
+  /** Runs the motor at a voltage. */
+  public void setVoltage(double volts) {
+    if (shouldSend(kVoltage, volts, 0.0)) {
+      sender.accept(voltageRequest.withOutput(volts));
+    }
+  }
+
+  /**
+   * Runs the motor's velocity closed loop.
+   *
+   * @param velocityRotPerSec Velocity setpoint in mechanism rotations per second
+   * @param feedforwardVolts Feedforward added to the closed loop output
+   */
+  public void setVelocity(double velocityRotPerSec, double feedforwardVolts) {
+    if (shouldSend(kVelocity, velocityRotPerSec, feedforwardVolts)) {
+      sender.accept(
+          velocityRequest.withVelocity(velocityRotPerSec).withFeedForward(feedforwardVolts));
+    }
+  }
+
+  /**
+   * Runs the motor's position closed loop.
+   *
+   * @param positionRot Position setpoint in mechanism rotations
+   */
+  public void setPosition(double positionRot) {
+    if (shouldSend(kPosition, positionRot, 0.0)) {
+      sender.accept(positionRequest.withPosition(positionRot));
+    }
+  }
+
+  /** Lets the motor coast or brake according to its neutral mode. */
+  public void stop() {
+    if (shouldSend(kNeutral, 0.0, 0.0)) {
+      sender.accept(neutralRequest);
+    }
+  }
+
+  /**
+   * Forgets the last request, so the next one is sent even if unchanged. Call when something else
+   * may have controlled the motor in between.
+   */
+  public void invalidate() {
+    lastRequest = kNone;
+  }
+
+  private boolean shouldSend(int request, double value, double feedforward) {
+    long nowMicros = clockMicros.getAsLong();
+    if (request == lastRequest
+        && value == lastValue
+        && feedforward == lastFeedforward
+        && nowMicros - lastSentMicros < keepaliveMicros) {
+      suppressedCount++;
+      return false;
+    }
+    lastRequest = request;
+    lastValue = value;
+    lastFeedforward = feedforward;
+    lastSentMicros = nowMicros;
+    sentCount++;
+    return true;
+  }
+
+  /** Returns the number of control frames sent. */
+  public long getSentCount() {
+    return sentCount;
+  }
+
+  /** Returns the number of control frames skipped because nothing changed. */
+  public long getSuppressedCount() {
+    return suppressedCount;
+  }
+
+  /** Logs the frame counters of every output. Call once per robot loop. */
+  public static void logAll() {
+    for (TalonFXOutput output : outputs) {
+      Logger.recordOutput(output.logKey + "/FramesSent", output.sentCount);
+      Logger.recordOutput(output.logKey + "/FramesSuppressed", output.suppressedCount);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+class DriveSnapshotTest {
+  private static final double kEpsilon = 1E-9;
+  // Readers of the drive state in one cycle: BobotState, PathPlanner, logging and the commands
+  private static final int kConsumers = 6;
+
+  private final SwerveDriveKinematics kinematics =
+      new SwerveDriveKinematics(Drive.getModuleTranslations());
+
+  @Test
+  void speedsMatchKinematics() {
+    Random random = new Random(4);
+    for (int sample = 0; sample < 100; sample++) {
+      SwerveModuleState[] states = new SwerveModuleState[4];
+      for (int i = 0; i < 4; i++) {
+        states[i] =
+            new SwerveModuleState(
+                random.nextDouble() * 8 - 4,
+                new Rotation2d(random.nextDouble() * 2 * Math.PI - Math.PI));
+      }
+      Pose2d pose = new Pose2d(3.0, 4.0, new Rotation2d(random.nextDouble() * 2 * Math.PI));
+
+      DriveSnapshot snapshot = DriveSnapshot.of(1.0, kinematics, states, pose, pose, pose, 0.2);
+
+      assertSame(states, snapshot.moduleStates());
+      ChassisSpeeds expected = kinematics.toChassisSpeeds(states);
+      assertSpeedsEqual(expected, snapshot.robotRelativeSpeeds());
+      assertSpeedsEqual(
+          ChassisSpeeds.fromRobotRelativeSpeeds(expected, pose.getRotation()),
+          snapshot.fieldRelativeSpeeds());
+    }
+  }
+
+  @Test
+  void predictedPoseFollowsSpeeds() {
+    SwerveModuleState[] states = new SwerveModuleState[4];
+    for (int i = 0; i < 4; i++) {
+      states[i] = new SwerveModuleState(2.0, Rotation2d.fromDegrees(30.0 * i));
+    }
+    Pose2d pose = new Pose2d(1.0, 2.0, Rotation2d.fromDegrees(45.0));
+
+    DriveSnapshot snapshot = DriveSnapshot.of(1.0, kinematics, states, pose, pose, pose, 0.2);
+
+    ChassisSpeeds speeds = snapshot.robotRelativeSpeeds();
+    Pose2d expected =
+        pose.exp(
+            new Twist2d(
+                speeds.vxMetersPerSecond * 0.2,
+                speeds.vyMetersPerSecond * 0.2,
+                speeds.omegaRadiansPerSecond * 0.2));
+    assertEquals(expected.getX(), snapshot.predictedPose().getX(), kEpsilon);
+    assertEquals(expected.getY(), snapshot.predictedPose().getY(), kEpsilon);
+    assertEquals(
+        expected.getRotation().getRadians(),
+        snapshot.predictedPose().getRotation().getRadians(),
+        kEpsilon);
+  }
+
+  @Test
+  @Tag("benchmark")
+  void sharedSnapshotIsCheaperThanRecomputingPerConsumer(TestReporter reporter) {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    SwerveModuleState[] states = new SwerveModuleState[4];
+    for (int i = 0; i < 4; i++) {
+      states[i] = new SwerveModuleState(2.0 + i, Rotation2d.fromDegrees(20.0 * i));
+    }
+    Pose2d pose = new Pose2d(1.0, 2.0, Rotation2d.fromDegrees(45.0));
+    double[] sink = new double[1];
+
+    // The replaced getters, every consumer building the module states and running the kinematics
+    Runnable baselineCycle =
+        () -> {
+          for (int consumer = 0; consumer < kConsumers; consumer++) {
+            ChassisSpeeds speeds = kinematics.toChassisSpeeds(getModuleStates(states));
+            ChassisSpeeds fieldSpeeds =
+                ChassisSpeeds.fromRobotRelativeSpeeds(speeds, pose.getRotation());
+            Pose2d predicted = DriveSnapshot.predictPose(pose, speeds, 0.2);
+            sink[0] += fieldSpeeds.vxMetersPerSecond + predicted.getX();
+          }
+        };
+    // One snapshot per cycle, the consumers only reading it
+    Runnable cycle =
+        () -> {
+          DriveSnapshot snapshot =
+              DriveSnapshot.of(1.0, kinematics, getModuleStates(states), pose, pose, pose, 0.2);
+          for (int consumer = 0; consumer < kConsumers; consumer++) {
+            sink[0] +=
+                snapshot.fieldRelativeSpeeds().vxMetersPerSecond + snapshot.predictedPose().getX();
+          }
+        };
+
+    for (int round = 0; round < 10; round++) {
+      runCycles(baselineCycle, 10_000);
+      runCycles(cycle, 10_000);
+    }
+
+    // Quietest of several rounds, so JIT and GC noise does not decide the comparison
+    long baselineNanos = Long.MAX_VALUE;
+    long nanos = Long.MAX_VALUE;
+    long baselineBytes = Long.MAX_VALUE;
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startNanos = threads.getCurrentThreadCpuTime();
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(baselineCycle, 10_000);
+      baselineNanos = Math.min(baselineNanos, threads.getCurrentThreadCpuTime() - startNanos);
+      baselineBytes =
+          Math.min(baselineBytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+
+      startNanos = threads.getCurrentThreadCpuTime();
+      startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(cycle, 10_000);
+      nanos = Math.min(nanos, threads.getCurrentThreadCpuTime() - startNanos);
+      bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+    }
+
+    reporter.publishEntry("cpuNanosPer10000Cycles", Long.toString(nanos));
+    reporter.publishEntry("recomputingCpuNanosPer10000Cycles", Long.toString(baselineNanos));
+    reporter.publishEntry("bytesPer10000Cycles", Long.toString(bytes));
+    reporter.publishEntry("recomputingBytesPer10000Cycles", Long.toString(baselineBytes));
+    assertTrue(
+        baselineNanos > 2 * nanos,
+        "CPU time of 10000 cycles, " + nanos + " ns against " + baselineNanos + " ns recomputing");
+    assertTrue(
+        baselineBytes > 2 * bytes,
+        "Bytes of 10000 cycles, " + bytes + " against " + baselineBytes + " recomputing");
+  }
+
+  /** Stands in for Drive.getModuleStates, which builds new states from the modules. */
+  private static SwerveModuleState[] getModuleStates(SwerveModuleState[] measured) {
+    SwerveModuleState[] states = new SwerveModuleState[measured.length];
+    for (int i = 0; i < measured.length; i++) {
+      states[i] = new SwerveModuleState(measured[i].speedMetersPerSecond, measured[i].angle);
+    }
+    return states;
+  }
+
+  private static void runCycles(Runnable cycle, int cycles) {
+    for (int i = 0; i < cycles; i++) {
+      cycle.run();
+    }
+  }
+
+  private static void assertSpeedsEqual(ChassisSpeeds expected, ChassisSpeeds actual) {
+    assertEquals(expected.vxMetersPerSecond, actual.vxMetersPerSecond, kEpsilon);
+    assertEquals(expected.vyMetersPerSecond, actual.vyMetersPerSecond, kEpsilon);
+    assertEquals(expected.omegaRadiansPerSecond, actual.omegaRadiansPerSecond, kEpsilon);
+  }
+}
@@ -0,0 +1,133 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Translation2d;
+import frc.util.PoseHistoryBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+class FixedLagPoseSmootherTest {
+  private static final double kDtSeconds = 1.0 / Module.ODOMETRY_FREQUENCY;
+  private static final double kKeyframePeriodSeconds = 0.02;
+  private static final double kWindowSeconds = 1.0;
+  private static final int kSamplesPerCycle = 5;
+
+  // Odometry drifted off the true trajectory by this transform, x and y in meters and heading
+  private static final double kDriftX = 0.3;
+  private static final double kDriftY = -0.2;
+  private static final double kDriftThetaRad = 0.1;
+
+  private final PoseHistoryBuffer history = new PoseHistoryBuffer(1024);
+  private final SwerveOdometryIntegrator odometry =
+      new SwerveOdometryIntegrator(
+          new Translation2d(0.35, 0.35),
+          new Translation2d(0.35, -0.35),
+          new Translation2d(-0.35, 0.35),
+          new Translation2d(-0.35, -0.35));
+
+  /** The known trajectory, a curve that keeps turning. */
+  private static double[] truth(double timestamp) {
+    return new double[] {
+      1.0 + 1.5 * timestamp, 2.0 + 0.5 * Math.sin(timestamp), MathUtil.angleModulus(0.4 * timestamp)
+    };
+  }
+
+  /** Odometry of the known trajectory, offset by the drift but with the same motion. */
+  private static double[] odometry(double timestamp) {
+    double[] pose = truth(timestamp);
+    double cos = Math.cos(kDriftThetaRad);
+    double sin = Math.sin(kDriftThetaRad);
+    return new double[] {
+      kDriftX + cos * pose[0] - sin * pose[1],
+      kDriftY + sin * pose[0] + cos * pose[1],
+      MathUtil.angleModulus(pose[2] + kDriftThetaRad)
+    };
+  }
+
+  @Test
+  void windowSolveRecoversKnownTrajectory() {
+    FixedLagPoseSmoother smoother =
+        new FixedLagPoseSmoother(
+            odometry, history, kKeyframePeriodSeconds, kWindowSeconds, kWindowSeconds);
+
+    // Three seconds of 20 ms cycles, with a frame of the true pose every 100 ms, 100 ms late
+    int sample = 0;
+    double now = 0.0;
+    for (int cycle = 0; cycle < 150; cycle++) {
+      for (int i = 0; i < kSamplesPerCycle; i++, sample++) {
+        now = sample * kDtSeconds;
+        double[] pose = odometry(now);
+        history.addSample(now, pose[0], pose[1], pose[2]);
+      }
+      if (cycle % 5 == 0 && now > 0.1) {
+        double timestamp = now - 0.1;
+        double[] pose = truth(timestamp);
+        assertTrue(
+            smoother.addVisionMeasurement(timestamp, pose[0], pose[1], pose[2], 0.02, 0.02, 0.02));
+      }
+      smoother.update();
+    }
+
+    // The odometry is 0.3 m off, the smoothed window has to lie on the true trajectory
+    double[] estimate = new double[3];
+    for (double timestamp = now - 0.9; timestamp <= now; timestamp += 0.01) {
+      assertTrue(smoother.sample(timestamp, estimate));
+      double[] expected = truth(timestamp);
+      assertEquals(expected[0], estimate[0], 1E-4);
+      assertEquals(expected[1], estimate[1], 1E-4);
+      assertEquals(0.0, MathUtil.angleModulus(estimate[2] - expected[2]), 1E-4);
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  void fullWindowSolveFitsInLoop(TestReporter reporter) {
+    // No budget, so every update runs the full solve until it converges
+    FixedLagPoseSmoother smoother =
+        new FixedLagPoseSmoother(odometry, history, kKeyframePeriodSeconds, kWindowSeconds, 1.0);
+    Random random = new Random(9);
+
+    long[] solveNanos = new long[500];
+    int sample = 0;
+    for (int cycle = 0; cycle < 1000; cycle++) {
+      double now = 0.0;
+      for (int i = 0; i < kSamplesPerCycle; i++, sample++) {
+        now = sample * kDtSeconds;
+        history.addSample(now, 1.5 * now, 0.2 * now, MathUtil.angleModulus(0.3 * now));
+      }
+      // Noisy late frames on every keyframe, so each cycle moves the whole window
+      for (double timestamp = Math.max(0.0, now - 0.98); timestamp <= now; timestamp += 0.02) {
+        smoother.addVisionMeasurement(
+            timestamp,
+            1.5 * timestamp + random.nextGaussian() * 0.2,
+            0.2 * timestamp + random.nextGaussian() * 0.2,
+            MathUtil.angleModulus(0.3 * timestamp + random.nextGaussian() * 0.1),
+            0.3,
+            0.3,
+            0.3);
+      }
+      smoother.update();
+
+      // The first half warms up the JIT
+      if (cycle >= 500) {
+        solveNanos[cycle - 500] = (long) (smoother.getLastSolveSeconds() * 1e9);
+      }
+    }
+
+    assertTrue(smoother.getKeyframeCount() >= kWindowSeconds / kKeyframePeriodSeconds);
+    Arrays.sort(solveNanos);
+    long medianNanos = solveNanos[solveNanos.length / 2];
+    reporter.publishEntry("medianSolveNanos", Long.toString(medianNanos));
+    reporter.publishEntry("maxSolveNanos", Long.toString(solveNanos[solveNanos.length - 1]));
+    // Measured on the machine running the benchmark, not the RIO. A tenth of the 20 ms loop here
+    // leaves room for the RIO's much slower cores, confirm on the robot with
+    // Odometry/Smoother/SolveMs before relying on it.
+    assertTrue(medianNanos < 2_000_000, "Median full-window solve took " + medianNanos + " ns");
+  }
+}
@@ -0,0 +1,125 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.util.Units;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ModuleTest {
+  private static final double kEpsilon = 1E-9;
+  private static final double kWheelRadius = Units.inchesToMeters(2.0);
+
+  /** Reports a fixed module angle and records the onboard setpoints of both control paths. */
+  private static class FakeModuleIO implements ModuleIO {
+    double angleRad = 0.0;
+    double velocityRadPerSec = Double.NaN;
+    double setpointAngleRad = Double.NaN;
+
+    @Override
+    public void updateInputs(ModuleIOInputs inputs) {
+      inputs.turnAbsolutePosition = new Rotation2d(angleRad);
+      inputs.turnPosition = new Rotation2d(angleRad);
+    }
+
+    @Override
+    public boolean hasOnboardClosedLoop() {
+      return true;
+    }
+
+    @Override
+    public void setDriveVelocity(double velocityRadPerSec, double feedforwardVolts) {
+      this.velocityRadPerSec = velocityRadPerSec;
+    }
+
+    @Override
+    public void setTurnPosition(Rotation2d position) {
+      setpointAngleRad = position.getRadians();
+    }
+
+    @Override
+    public double getFrameTurnAngleRad(double[] frame) {
+      return angleRad;
+    }
+
+    @Override
+    public void setHighRateSetpoint(
+        double driveVelocityRadPerSec, double driveFeedforwardVolts, double angleRad) {
+      velocityRadPerSec = driveVelocityRadPerSec;
+      setpointAngleRad = angleRad;
+    }
+  }
+
+  private FakeModuleIO io;
+  private Module module;
+
+  @BeforeAll
+  static void initializeHal() {
+    HAL.initialize(500, 0);
+  }
+
+  @BeforeEach
+  void setup() {
+    io = new FakeModuleIO();
+    module = new Module(io, 0);
+  }
+
+  @Test
+  void highRateSetpointWrapsAround() {
+    // Across the ±180° seam the error is small, so neither path flips the module
+    assertHighRateMatchesMainLoop(Math.toRadians(179.0), 2.0, Math.toRadians(-179.0));
+    assertHighRateMatchesMainLoop(Math.toRadians(-170.0), 2.0, Math.toRadians(175.0));
+  }
+
+  @Test
+  void highRateSetpointFlipsPastNinetyDegrees() {
+    assertHighRateMatchesMainLoop(0.1, 2.0, 0.1 + Math.toRadians(135.0));
+    // Flipped to 45° off the module angle, driving backwards at cos(45°) of the speed
+    assertEquals(0.0, MathUtil.angleModulus(io.setpointAngleRad - (0.1 - Math.PI / 4)), kEpsilon);
+    assertEquals(-2.0 * Math.cos(Math.PI / 4), io.velocityRadPerSec * kWheelRadius, kEpsilon);
+
+    assertHighRateMatchesMainLoop(Math.toRadians(170.0), -1.5, Math.toRadians(-60.0));
+  }
+
+  @Test
+  void highRateSetpointMatchesMainLoop() {
+    Random random = new Random(3);
+    for (int sample = 0; sample < 500; sample++) {
+      double currentRad = random.nextDouble() * 2 * Math.PI - Math.PI;
+      double goalRad = random.nextDouble() * 2 * Math.PI - Math.PI;
+      // Right at 90° the two paths may round to different sides of the flip
+      if (Math.abs(Math.abs(MathUtil.angleModulus(goalRad - currentRad)) - Math.PI / 2) < 1E-6) {
+        continue;
+      }
+      assertHighRateMatchesMainLoop(currentRad, random.nextDouble() * 8 - 4, goalRad);
+    }
+  }
+
+  /**
+   * Runs a goal through {@link Module#runSetpoint} and {@link Module#periodic}, then through {@link
+   * Module#runHighRateSetpoint}, and checks both send the same onboard setpoints.
+   */
+  private void assertHighRateMatchesMainLoop(double currentRad, double speed, double goalRad) {
+    io.angleRad = currentRad;
+    module.runSetpoint(new SwerveModuleState(speed, new Rotation2d(goalRad)));
+    // The first periodic latches the turn offset, so getAngle reports the module angle from then on
+    module.periodic();
+    module.runSetpoint(new SwerveModuleState(speed, new Rotation2d(goalRad)));
+    module.periodic();
+    double expectedVelocity = io.velocityRadPerSec;
+    double expectedAngleRad = io.setpointAngleRad;
+
+    io.velocityRadPerSec = Double.NaN;
+    io.setpointAngleRad = Double.NaN;
+    module.runHighRateSetpoint(new double[0], speed, goalRad);
+
+    assertEquals(expectedVelocity, io.velocityRadPerSec, kEpsilon);
+    assertEquals(0.0, MathUtil.angleModulus(io.setpointAngleRad - expectedAngleRad), kEpsilon);
+  }
+}
@@ -0,0 +1,147 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveDriveOdometry;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SwerveOdometryIntegratorTest {
+  private static final double kEpsilon = 1E-9;
+
+  // Not square, so mixed up rows or signs in the forward kinematics show up
+  private static final Translation2d[] kModules = {
+    new Translation2d(0.35, 0.25),
+    new Translation2d(0.35, -0.25),
+    new Translation2d(-0.30, 0.25),
+    new Translation2d(-0.30, -0.25)
+  };
+
+  @Test
+  void twistMatchesKinematics() {
+    SwerveDriveKinematics kinematics = new SwerveDriveKinematics(kModules);
+    SwerveOdometryIntegrator integrator = new SwerveOdometryIntegrator(kModules);
+    Random random = new Random(1);
+
+    double[] distances = new double[4];
+    double[] angles = new double[4];
+    integrator.computeTwist(distances, angles);
+
+    for (int sample = 0; sample < 100; sample++) {
+      SwerveModulePosition[] deltas = new SwerveModulePosition[4];
+      for (int i = 0; i < 4; i++) {
+        double delta = random.nextDouble() * 0.1 - 0.05;
+        distances[i] += delta;
+        angles[i] = random.nextDouble() * 2 * Math.PI - Math.PI;
+        deltas[i] = new SwerveModulePosition(delta, new Rotation2d(angles[i]));
+      }
+
+      integrator.computeTwist(distances, angles);
+      Twist2d expected = kinematics.toTwist2d(deltas);
+
+      assertEquals(expected.dx, integrator.getTwistDx(), kEpsilon);
+      assertEquals(expected.dy, integrator.getTwistDy(), kEpsilon);
+      assertEquals(expected.dtheta, integrator.getTwistDtheta(), kEpsilon);
+    }
+  }
+
+  @Test
+  void firstSampleOnlyLatchesPositions() {
+    SwerveOdometryIntegrator integrator = new SwerveOdometryIntegrator(kModules);
+
+    integrator.computeTwist(new double[] {1.0, 2.0, 3.0, 4.0}, new double[4]);
+
+    assertEquals(0.0, integrator.getTwistDx());
+    assertEquals(0.0, integrator.getTwistDy());
+    assertEquals(0.0, integrator.getTwistDtheta());
+  }
+
+  @Test
+  void poseMatchesOdometry() {
+    SwerveDriveKinematics kinematics = new SwerveDriveKinematics(kModules);
+    SwerveOdometryIntegrator integrator = new SwerveOdometryIntegrator(kModules);
+    Random random = new Random(2);
+
+    double[] distances = new double[4];
+    double[] angles = new double[4];
+    SwerveModulePosition[] positions = toPositions(distances, angles);
+    double headingRad = 0.3;
+
+    Pose2d start = new Pose2d(1.0, 2.0, new Rotation2d(0.5));
+    SwerveDriveOdometry odometry =
+        new SwerveDriveOdometry(kinematics, new Rotation2d(headingRad), positions, start);
+    integrator.computeTwist(distances, angles);
+    integrator.resetPose(start, headingRad);
+
+    for (int sample = 0; sample < 500; sample++) {
+      for (int i = 0; i < 4; i++) {
+        distances[i] += random.nextDouble() * 0.04;
+        angles[i] = MathUtil.angleModulus(angles[i] + random.nextDouble() * 0.2 - 0.1);
+      }
+      headingRad += random.nextDouble() * 0.04 - 0.02;
+
+      odometry.update(new Rotation2d(headingRad), toPositions(distances, angles));
+      integrator.computeTwist(distances, angles);
+      integrator.integrate(headingRad);
+
+      Pose2d expected = odometry.getPoseMeters();
+      assertEquals(expected.getX(), integrator.getX(), 1E-6);
+      assertEquals(expected.getY(), integrator.getY(), 1E-6);
+      assertEquals(expected.getRotation().getRadians(), integrator.getThetaRad(), 1E-6);
+    }
+  }
+
+  @Test
+  void integrationCycleDoesNotAllocate() {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    SwerveOdometryIntegrator integrator = new SwerveOdometryIntegrator(kModules);
+    double[] distances = new double[4];
+    double[] angles = new double[4];
+
+    // Warm up so the loop runs compiled, the way it does on the robot
+    for (int round = 0; round < 20; round++) {
+      runCycles(integrator, distances, angles, 5_000);
+    }
+
+    // The first reads of the counter can include one-off allocations of the JVM itself. Any
+    // allocation in the cycle would show up in every round, so the quietest round has to be zero.
+    long fewestBytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long before = threads.getThreadAllocatedBytes(threadId);
+      runCycles(integrator, distances, angles, 10_000);
+      fewestBytes = Math.min(fewestBytes, threads.getThreadAllocatedBytes(threadId) - before);
+    }
+
+    assertEquals(0, fewestBytes, "Bytes allocated by 10000 integration cycles");
+  }
+
+  private static void runCycles(
+      SwerveOdometryIntegrator integrator, double[] distances, double[] angles, int cycles) {
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      for (int i = 0; i < distances.length; i++) {
+        distances[i] += 0.001 * (i + 1);
+        angles[i] = 0.01 * cycle;
+      }
+      integrator.computeTwist(distances, angles);
+      integrator.integrate(0.001 * cycle);
+    }
+  }
+
+  private static SwerveModulePosition[] toPositions(double[] distances, double[] angles) {
+    SwerveModulePosition[] positions = new SwerveModulePosition[distances.length];
+    for (int i = 0; i < distances.length; i++) {
+      positions[i] = new SwerveModulePosition(distances[i], new Rotation2d(angles[i]));
+    }
+    return positions;
+  }
+}
@@ -0,0 +1,309 @@
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Twist2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import frc.util.PoseHistoryBuffer;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+class SwervePoseEstimatorTest {
+  private static final double kEpsilon = 1E-6;
+  private static final double kDtSeconds = 1.0 / Module.ODOMETRY_FREQUENCY;
+  private static final double kStateStdDev = 0.1;
+  // Samples between a vision capture and its arrival, 100 ms at the odometry frequency
+  private static final int kLatencySamples = 25;
+
+  private static final Translation2d[] kModules = {
+    new Translation2d(0.35, 0.25),
+    new Translation2d(0.35, -0.25),
+    new Translation2d(-0.30, 0.25),
+    new Translation2d(-0.30, -0.25)
+  };
+
+  /** Wheel odometry written into a shared history the way Drive does. */
+  private static class Odometry {
+    final SwerveOdometryIntegrator integrator = new SwerveOdometryIntegrator(kModules);
+    final PoseHistoryBuffer history = new PoseHistoryBuffer(1024);
+    final double[] distances = new double[4];
+    final double[] angles = new double[4];
+    double headingRad = 0.3;
+    double timestamp = 0.0;
+
+    Odometry(Pose2d start) {
+      integrator.computeTwist(distances, angles);
+      integrator.resetPose(start, headingRad);
+      history.addSample(timestamp, integrator.getX(), integrator.getY(), integrator.getThetaRad());
+    }
+
+    /** Drives one odometry period with the wheel and heading changes chosen by the random. */
+    void step(Random random) {
+      for (int i = 0; i < 4; i++) {
+        distances[i] += random.nextDouble() * 0.02;
+        angles[i] = MathUtil.angleModulus(angles[i] + random.nextDouble() * 0.1 - 0.05);
+      }
+      headingRad += random.nextDouble() * 0.02 - 0.01;
+      timestamp += kDtSeconds;
+
+      integrator.computeTwist(distances, angles);
+      integrator.integrate(headingRad);
+      history.addSample(timestamp, integrator.getX(), integrator.getY(), integrator.getThetaRad());
+    }
+
+    SwerveModulePosition[] getPositions() {
+      SwerveModulePosition[] positions = new SwerveModulePosition[4];
+      for (int i = 0; i < 4; i++) {
+        positions[i] = new SwerveModulePosition(distances[i], new Rotation2d(angles[i]));
+      }
+      return positions;
+    }
+  }
+
+  @Test
+  void matchesWpilibEstimatorInOrder() {
+    Random random = new Random(5);
+    Pose2d start = new Pose2d(1.0, 2.0, new Rotation2d(0.5));
+    Odometry odometry = new Odometry(start);
+    SwervePoseEstimator estimator =
+        new SwervePoseEstimator(
+            odometry.integrator, odometry.history, kStateStdDev, kStateStdDev, kStateStdDev);
+    SwerveDrivePoseEstimator expected =
+        new SwerveDrivePoseEstimator(
+            new SwerveDriveKinematics(kModules),
+            new Rotation2d(odometry.headingRad),
+            odometry.getPositions(),
+            start,
+            VecBuilder.fill(kStateStdDev, kStateStdDev, kStateStdDev),
+            VecBuilder.fill(0.9, 0.9, 0.9));
+
+    double[] timestamps = new double[1000];
+    for (int sample = 0; sample < timestamps.length; sample++) {
+      odometry.step(random);
+      timestamps[sample] = odometry.timestamp;
+      expected.updateWithTime(
+          odometry.timestamp, new Rotation2d(odometry.headingRad), odometry.getPositions());
+
+      // Measurements are captured on an odometry sample, so neither side has to interpolate
+      if (sample >= kLatencySamples && sample % 10 == 0) {
+        double timestamp = timestamps[sample - kLatencySamples];
+        double x = estimator.getX() + random.nextDouble() * 0.4 - 0.2;
+        double y = estimator.getY() + random.nextDouble() * 0.4 - 0.2;
+        double thetaRad = estimator.getThetaRad() + random.nextDouble() * 0.2 - 0.1;
+        double stdDevXY = 0.1 + random.nextDouble();
+        double stdDevThetaRad = 0.1 + random.nextDouble();
+
+        assertTrue(
+            estimator.addVisionMeasurement(
+                timestamp, x, y, thetaRad, stdDevXY, stdDevXY, stdDevThetaRad));
+        expected.addVisionMeasurement(
+            new Pose2d(x, y, new Rotation2d(thetaRad)),
+            timestamp,
+            VecBuilder.fill(stdDevXY, stdDevXY, stdDevThetaRad));
+      }
+
+      Pose2d expectedPose = expected.getEstimatedPosition();
+      assertEquals(expectedPose.getX(), estimator.getX(), kEpsilon);
+      assertEquals(expectedPose.getY(), estimator.getY(), kEpsilon);
+      assertEquals(
+          0.0,
+          MathUtil.angleModulus(estimator.getThetaRad() - expectedPose.getRotation().getRadians()),
+          kEpsilon);
+    }
+  }
+
+  @Test
+  void outOfOrderMeasurementIsFusedAgainstCurrentCorrection() {
+    Random random = new Random(6);
+    Odometry odometry = new Odometry(new Pose2d());
+    SwervePoseEstimator estimator =
+        new SwervePoseEstimator(
+            odometry.integrator, odometry.history, kStateStdDev, kStateStdDev, kStateStdDev);
+    for (int sample = 0; sample < 100; sample++) {
+      odometry.step(random);
+    }
+    double newerTimestamp = odometry.timestamp - 0.1;
+    double olderTimestamp = odometry.timestamp - 0.3;
+
+    assertTrue(estimator.addVisionMeasurement(newerTimestamp, 1.0, 0.5, 0.2, 0.3, 0.3, 0.3));
+
+    // The estimate at the older time already includes the newer measurement
+    double[] before = new double[3];
+    assertTrue(estimator.sample(olderTimestamp, before));
+    Pose2d measurement = new Pose2d(before[0] + 0.5, before[1] - 0.3, new Rotation2d(0.1));
+    assertTrue(
+        estimator.addVisionMeasurement(
+            olderTimestamp,
+            measurement.getX(),
+            measurement.getY(),
+            measurement.getRotation().getRadians(),
+            0.3,
+            0.3,
+            0.3));
+
+    // Same gain as the in-order case, applied to that estimate without replaying the newer one
+    Pose2d estimate = new Pose2d(before[0], before[1], new Rotation2d(before[2]));
+    Twist2d twist = estimate.log(measurement);
+    double gain = getGain(0.3);
+    Pose2d expected =
+        estimate.exp(new Twist2d(twist.dx * gain, twist.dy * gain, twist.dtheta * gain));
+    double[] after = new double[3];
+    assertTrue(estimator.sample(olderTimestamp, after));
+    assertEquals(expected.getX(), after[0], kEpsilon);
+    assertEquals(expected.getY(), after[1], kEpsilon);
+    assertEquals(expected.getRotation().getRadians(), after[2], kEpsilon);
+    assertEquals(2, estimator.getAcceptedCount());
+  }
+
+  @Test
+  void measurementOlderThanHistoryIsRejected() {
+    Random random = new Random(7);
+    Odometry odometry = new Odometry(new Pose2d());
+    SwervePoseEstimator estimator =
+        new SwervePoseEstimator(
+            odometry.integrator, odometry.history, kStateStdDev, kStateStdDev, kStateStdDev);
+    for (int sample = 0; sample < 1100; sample++) {
+      odometry.step(random);
+    }
+
+    assertFalse(estimator.addVisionMeasurement(0.0, 1.0, 1.0, 0.0, 0.3, 0.3, 0.3));
+    assertEquals(1, estimator.getRejectedCount());
+  }
+
+  @Test
+  void cycleAllocatesNothing() {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Runnable cycle = createCycle(new Random(8));
+    runCycles(cycle, 10_000);
+
+    // Fewest of several rounds, so allocations by the JIT itself do not decide it
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(cycle, 2_000);
+      bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+    }
+
+    assertEquals(0, bytes, "Bytes allocated by 2000 cycles");
+  }
+
+  @Test
+  @Tag("benchmark")
+  void usesThreeTimesLessCpuThanWpilibTrio(TestReporter reporter) {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Runnable baselineCycle = createBaselineCycle(new Random(8));
+    Runnable cycle = createCycle(new Random(8));
+
+    for (int round = 0; round < 10; round++) {
+      runCycles(baselineCycle, 1_000);
+      runCycles(cycle, 1_000);
+    }
+
+    // Quietest of several rounds, so JIT and GC noise does not decide the comparison
+    long baselineNanos = Long.MAX_VALUE;
+    long nanos = Long.MAX_VALUE;
+    long baselineBytes = Long.MAX_VALUE;
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startNanos = threads.getCurrentThreadCpuTime();
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(baselineCycle, 2_000);
+      baselineNanos = Math.min(baselineNanos, threads.getCurrentThreadCpuTime() - startNanos);
+      baselineBytes =
+          Math.min(baselineBytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+
+      startNanos = threads.getCurrentThreadCpuTime();
+      startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(cycle, 2_000);
+      nanos = Math.min(nanos, threads.getCurrentThreadCpuTime() - startNanos);
+      bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+    }
+
+    reporter.publishEntry("cpuNanosPer2000Cycles", Long.toString(nanos));
+    reporter.publishEntry("wpilibCpuNanosPer2000Cycles", Long.toString(baselineNanos));
+    reporter.publishEntry("bytesPer2000Cycles", Long.toString(bytes));
+    reporter.publishEntry("wpilibBytesPer2000Cycles", Long.toString(baselineBytes));
+    assertTrue(
+        baselineNanos >= 3 * nanos,
+        "CPU time of 2000 cycles, " + nanos + " ns against " + baselineNanos + " ns for WPILib");
+  }
+
+  /** The replaced setup, three WPILib estimators updated on every odometry sample. */
+  private static Runnable createBaselineCycle(Random random) {
+    Odometry odometry = new Odometry(new Pose2d());
+    SwerveDrivePoseEstimator[] estimators = new SwerveDrivePoseEstimator[3];
+    for (int i = 0; i < 3; i++) {
+      estimators[i] =
+          new SwerveDrivePoseEstimator(
+              new SwerveDriveKinematics(kModules),
+              new Rotation2d(odometry.headingRad),
+              odometry.getPositions(),
+              new Pose2d());
+    }
+    return () -> {
+      for (int sample = 0; sample < 5; sample++) {
+        odometry.step(random);
+        for (SwerveDrivePoseEstimator estimator : estimators) {
+          estimator.updateWithTime(
+              odometry.timestamp, new Rotation2d(odometry.headingRad), odometry.getPositions());
+        }
+      }
+      // Fused and vision-only views take the measurement, wheel-only ignores it
+      Pose2d measurement = new Pose2d(1.0, 1.0, new Rotation2d(0.1));
+      for (int i = 0; i < 2; i++) {
+        estimators[i].addVisionMeasurement(
+            measurement, odometry.timestamp - 0.05, VecBuilder.fill(0.3, 0.3, 0.3));
+      }
+    };
+  }
+
+  /** The same work on one shared history, the integrator standing in for the wheel-only view. */
+  private static Runnable createCycle(Random random) {
+    Odometry odometry = new Odometry(new Pose2d());
+    SwervePoseEstimator fused =
+        new SwervePoseEstimator(
+            odometry.integrator, odometry.history, kStateStdDev, kStateStdDev, kStateStdDev);
+    SwervePoseEstimator visionOnly =
+        new SwervePoseEstimator(
+            odometry.integrator,
+            odometry.history,
+            Double.POSITIVE_INFINITY,
+            Double.POSITIVE_INFINITY,
+            Double.POSITIVE_INFINITY);
+    return () -> {
+      for (int sample = 0; sample < 5; sample++) {
+        odometry.step(random);
+      }
+      double timestamp = odometry.timestamp - 0.05;
+      fused.addVisionMeasurement(timestamp, 1.0, 1.0, 0.1, 0.3, 0.3, 0.3);
+      visionOnly.addVisionMeasurement(timestamp, 1.0, 1.0, 0.1, 0.3, 0.3, 0.3);
+    };
+  }
+
+  private static void runCycles(Runnable cycle, int cycles) {
+    for (int i = 0; i < cycles; i++) {
+      cycle.run();
+    }
+  }
+
+  /** Steady-state gain of SwerveDrivePoseEstimator for one axis. */
+  private static double getGain(double measurementStdDev) {
+    double q = kStateStdDev * kStateStdDev;
+    return q / (q + Math.sqrt(q * measurementStdDev * measurementStdDev));
+  }
+}
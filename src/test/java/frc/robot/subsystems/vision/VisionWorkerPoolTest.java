@@ -0,0 +1,315 @@
+package frc.robot.subsystems.vision;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import frc.robot.VisionConstants;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class VisionWorkerPoolTest {
+  private static final long kDeadlineMicros =
+      (long) (VisionConstants.VISION_FRAME_DEADLINE_SECONDS * 1e6);
+
+  private final AtomicLong nowMicros = new AtomicLong(1_000_000);
+
+  @Test
+  void newerFrameReplacesPendingFrame() throws InterruptedException {
+    VisionWorkerPool pool = createPool(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> processed = new CopyOnWriteArrayList<>();
+    Consumer<Integer> camera =
+        pool.register(
+            frame -> {
+              processed.add(frame);
+              if (frame == 0) {
+                await(release);
+              }
+            });
+
+    camera.accept(0);
+    awaitCondition(() -> processed.size() == 1);
+    // Both arrive while frame 0 is processed, only the newest is still worth processing
+    camera.accept(1);
+    camera.accept(2);
+    release.countDown();
+
+    awaitCondition(() -> pool.getCompletedCount() == 2);
+    assertEquals(List.of(0, 2), processed);
+    assertEquals(1, pool.getReplacedCount());
+  }
+
+  @Test
+  void framePastDeadlineIsDropped() throws InterruptedException {
+    VisionWorkerPool pool = createPool(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> processed = new CopyOnWriteArrayList<>();
+    Consumer<Integer> camera =
+        pool.register(
+            frame -> {
+              processed.add(frame);
+              if (frame == 0) {
+                await(release);
+              }
+            });
+
+    camera.accept(0);
+    awaitCondition(() -> processed.size() == 1);
+    camera.accept(1);
+    // Frame 1 waits out the whole deadline behind frame 0
+    nowMicros.addAndGet(kDeadlineMicros + 1);
+    release.countDown();
+
+    awaitCondition(() -> pool.getExpiredCount() == 1);
+    // Frames within the deadline are still processed
+    camera.accept(2);
+    awaitCondition(() -> pool.getCompletedCount() == 2);
+    assertEquals(List.of(0, 2), processed);
+  }
+
+  @Test
+  void threadCountStaysFixed() throws InterruptedException {
+    VisionWorkerPool pool = createPool(2);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    List<Consumer<Integer>> cameras = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      cameras.add(pool.register(frame -> threads.add(Thread.currentThread())));
+    }
+
+    for (int frame = 0; frame < 50; frame++) {
+      for (Consumer<Integer> camera : cameras) {
+        camera.accept(frame);
+      }
+      Thread.sleep(1);
+    }
+    awaitCondition(() -> pool.getCompletedCount() + pool.getReplacedCount() == 16 * 50);
+
+    assertTrue(threads.size() <= 2, threads.size() + " threads ran jobs");
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {4, 8, 16})
+  void countsEveryFrameForManyCameras(int cameraCount) throws InterruptedException {
+    int threadCount = VisionConstants.VISION_WORKER_THREADS;
+    int steadyPeriods = 20;
+    int stalledPeriods = 5;
+    long framePeriodMicros = 20_000;
+    VisionWorkerPool pool = createPool(threadCount);
+    AtomicReference<CountDownLatch> gate = new AtomicReference<>(new CountDownLatch(0));
+    AtomicInteger started = new AtomicInteger();
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    List<Consumer<Integer>> cameras = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < cameraCount; i++) {
+      cameras.add(
+          pool.register(
+              frame -> {
+                threads.add(Thread.currentThread());
+                started.incrementAndGet();
+                await(gate.get());
+              }));
+    }
+
+    // Every camera sends a frame each period and the pool catches up before the next one
+    for (int period = 0; period < steadyPeriods; period++) {
+      for (Consumer<Integer> camera : cameras) {
+        camera.accept(period);
+      }
+      long expected = (long) cameraCount * (period + 1);
+      awaitCondition(() -> pool.getCompletedCount() == expected);
+      nowMicros.addAndGet(framePeriodMicros);
+    }
+    String steady =
+        String.format(
+            "%d cameras, steady: %d completed, %d replaced, %d expired",
+            cameraCount,
+            pool.getCompletedCount(),
+            pool.getReplacedCount(),
+            pool.getExpiredCount());
+    assertEquals((long) cameraCount * steadyPeriods, pool.getCompletedCount(), steady);
+    assertEquals(0, pool.getReplacedCount(), steady);
+    assertEquals(0, pool.getExpiredCount(), steady);
+
+    // The jobs stall while the cameras keep sending, longer than the deadline
+    gate.set(new CountDownLatch(1));
+    int startedBefore = started.get();
+    for (int period = 0; period < stalledPeriods; period++) {
+      for (Consumer<Integer> camera : cameras) {
+        camera.accept(steadyPeriods + period);
+      }
+      // Every thread has taken a frame before the next ones arrive
+      awaitCondition(() -> started.get() == startedBefore + threadCount);
+      nowMicros.addAndGet(framePeriodMicros);
+    }
+    nowMicros.addAndGet(kDeadlineMicros);
+    gate.get().countDown();
+    awaitCondition(
+        () ->
+            pool.getCompletedCount() + pool.getExpiredCount()
+                == (long) cameraCount * steadyPeriods + threadCount + cameraCount);
+
+    // The frames the threads had taken finish, every slot then holds only its newest frame, which
+    // waited out the deadline. Frames already taken are not replaced by the first newer one.
+    String stalled =
+        String.format(
+            "%d cameras, stalled: %d completed, %d replaced, %d expired",
+            cameraCount,
+            pool.getCompletedCount(),
+            pool.getReplacedCount(),
+            pool.getExpiredCount());
+    assertEquals(
+        (long) cameraCount * steadyPeriods + threadCount, pool.getCompletedCount(), stalled);
+    assertEquals(
+        (long) (cameraCount - threadCount) * (stalledPeriods - 1)
+            + (long) threadCount * (stalledPeriods - 2),
+        pool.getReplacedCount(),
+        stalled);
+    assertEquals(cameraCount, pool.getExpiredCount(), stalled);
+    assertTrue(threads.size() <= threadCount, threads.size() + " threads ran jobs");
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {4, 8, 16})
+  @Tag("benchmark")
+  void keepsUpLikeThreadPerCamera(int cameras, TestReporter reporter)
+      throws InterruptedException {
+    int framesPerCamera = 100;
+    long framePeriodNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    long jobNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // The replaced setup, a thread per camera processing every frame it receives
+    AtomicLong baselineCompleted = new AtomicLong();
+    List<BlockingQueue<Integer>> queues = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < cameras; i++) {
+      BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(framesPerCamera);
+      queues.add(queue);
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  while (true) {
+                    queue.take();
+                    busyWait(jobNanos);
+                    baselineCompleted.incrementAndGet();
+                  }
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              });
+      thread.setDaemon(true);
+      thread.start();
+    }
+    runCameras(cameras, framesPerCamera, framePeriodNanos, i -> queues.get(i)::offer);
+    // How far behind the cameras the threads are once the last frame is sent
+    long baselineBacklogNanos =
+        awaitCondition(() -> baselineCompleted.get() == cameras * framesPerCamera);
+
+    // The same cameras sharing the pool, on the real clock
+    VisionWorkerPool pool =
+        new VisionWorkerPool(
+            VisionConstants.VISION_WORKER_THREADS,
+            VisionConstants.VISION_FRAME_DEADLINE_SECONDS,
+            () -> System.nanoTime() / 1000);
+    List<Consumer<Integer>> slots = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < cameras; i++) {
+      slots.add(pool.register(frame -> busyWait(jobNanos)));
+    }
+    runCameras(cameras, framesPerCamera, framePeriodNanos, slots::get);
+    long poolBacklogNanos =
+        awaitCondition(
+            () ->
+                pool.getCompletedCount() + pool.getReplacedCount() + pool.getExpiredCount()
+                    == cameras * framesPerCamera);
+
+    reporter.publishEntry("cameras", Integer.toString(cameras));
+    reporter.publishEntry("threadPerCameraCompleted", Long.toString(baselineCompleted.get()));
+    reporter.publishEntry("threadPerCameraBacklogNanos", Long.toString(baselineBacklogNanos));
+    reporter.publishEntry("poolCompleted", Long.toString(pool.getCompletedCount()));
+    reporter.publishEntry("poolReplaced", Long.toString(pool.getReplacedCount()));
+    reporter.publishEntry("poolExpired", Long.toString(pool.getExpiredCount()));
+    reporter.publishEntry("poolBacklogNanos", Long.toString(poolBacklogNanos));
+    // With more work than cores, a thread per camera falls further behind every frame, while the
+    // pool drops stale frames and stays within the deadline
+    assertTrue(
+        poolBacklogNanos <= Math.max(baselineBacklogNanos, kDeadlineMicros * 1000),
+        String.format(
+            "%d cameras: pool of %d threads completed %d, replaced %d, expired %d and was %d ns"
+                + " behind, thread per camera completed %d and was %d ns behind",
+            cameras,
+            VisionConstants.VISION_WORKER_THREADS,
+            pool.getCompletedCount(),
+            pool.getReplacedCount(),
+            pool.getExpiredCount(),
+            poolBacklogNanos,
+            baselineCompleted.get(),
+            baselineBacklogNanos));
+  }
+
+  private VisionWorkerPool createPool(int threads) {
+    return new VisionWorkerPool(
+        threads, VisionConstants.VISION_FRAME_DEADLINE_SECONDS, nowMicros::get);
+  }
+
+  /** Feeds every camera a frame each period. */
+  private static void runCameras(
+      int cameras,
+      int framesPerCamera,
+      long framePeriodNanos,
+      IntFunction<Consumer<Integer>> camera)
+      throws InterruptedException {
+    long startNanos = System.nanoTime();
+    for (int frame = 0; frame < framesPerCamera; frame++) {
+      for (int i = 0; i < cameras; i++) {
+        camera.apply(i).accept(frame);
+      }
+      long nextNanos = startNanos + (frame + 1) * framePeriodNanos;
+      long sleepNanos = nextNanos - System.nanoTime();
+      if (sleepNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      }
+    }
+  }
+
+  /** Stands in for PhotonPoseEstimator.update, keeping a core busy for the time. */
+  private static void busyWait(long nanos) {
+    long endNanos = System.nanoTime() + nanos;
+    while (System.nanoTime() < endNanos) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Waits for the condition, returns how long it took. */
+  private static long awaitCondition(BooleanSupplier condition) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    long timeoutNanos = startNanos + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < timeoutNanos, "Timed out waiting for the pool");
+      Thread.sleep(1);
+    }
+    return System.nanoTime() - startNanos;
+  }
+}
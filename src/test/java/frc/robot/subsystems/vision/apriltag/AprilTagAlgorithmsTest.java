@@ -0,0 +1,121 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import frc.robot.VisionConstants;
+import frc.robot.subsystems.vision.VisionSubsystem.VisionMeasurement;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+class AprilTagAlgorithmsTest {
+  private static final double kEpsilon = 1E-9;
+
+  // Tag up on a wall, facing back towards the origin
+  private static final Pose3d kTagPose = new Pose3d(5.0, 3.0, 1.0, new Rotation3d(0.0, 0.0, 2.5));
+
+  /** Metrics of the tag as seen by a robot at the position with the heading. */
+  private static TargetMetrics seenFrom(double robotX, double robotY, double headingRad) {
+    // Field offset from the robot to the tag, rotated into the robot frame
+    double dx = kTagPose.getX() - robotX;
+    double dy = kTagPose.getY() - robotY;
+    double cos = Math.cos(headingRad);
+    double sin = Math.sin(headingRad);
+    Translation3d robotToTag =
+        new Translation3d(cos * dx + sin * dy, -sin * dx + cos * dy, kTagPose.getZ());
+    return new TargetMetrics(
+        new Transform3d(robotToTag, new Rotation3d()), robotToTag.getNorm(), 0.4, kTagPose);
+  }
+
+  @Test
+  void gyroConstrainedMeasurementPlacesRobot() {
+    double headingRad = 0.6;
+    Optional<VisionMeasurement> measurement =
+        AprilTagAlgorithms.findGyroConstrainedMeasurement(
+            seenFrom(2.0, 1.0, headingRad), 7.5, headingRad);
+
+    assertTrue(measurement.isPresent());
+    assertEquals(2.0, measurement.get().pose().getX(), kEpsilon);
+    assertEquals(1.0, measurement.get().pose().getY(), kEpsilon);
+    assertEquals(headingRad, measurement.get().pose().getRotation().getZ(), kEpsilon);
+    assertEquals(7.5, measurement.get().timestamp());
+  }
+
+  @Test
+  void gyroConstrainedCovarianceFollowsLineOfSight() {
+    TargetMetrics tag = seenFrom(2.0, 1.0, 0.6);
+    VisionMeasurement measurement =
+        AprilTagAlgorithms.findGyroConstrainedMeasurement(tag, 7.5, 0.6).orElseThrow();
+
+    // Field-frame error ellipse of the 3 m by 2 m line of sight from the robot to the tag
+    double distance = tag.distance();
+    double rangeStdDev =
+        Math.max(
+            VisionConstants.SINGLE_TAG_MIN_RANGE_STD_DEV_METERS,
+            VisionConstants.SINGLE_TAG_RANGE_STD_DEV_PER_METER_SQUARED * distance * distance);
+    double crossRangeStdDev =
+        Math.hypot(3.0, 2.0)
+            * Math.hypot(
+                VisionConstants.SINGLE_TAG_BEARING_STD_DEV_RAD,
+                VisionConstants.GYRO_HEADING_STD_DEV_RAD);
+    double cos = 3.0 / Math.hypot(3.0, 2.0);
+    double sin = 2.0 / Math.hypot(3.0, 2.0);
+    double varianceX = Math.pow(rangeStdDev * cos, 2) + Math.pow(crossRangeStdDev * sin, 2);
+    double varianceY = Math.pow(rangeStdDev * sin, 2) + Math.pow(crossRangeStdDev * cos, 2);
+
+    assertEquals(Math.sqrt(varianceX), measurement.confidence().get(0, 0), kEpsilon);
+    assertEquals(Math.sqrt(varianceY), measurement.confidence().get(1, 0), kEpsilon);
+    // The heading is the gyro's, so the estimate must not move towards it
+    assertEquals(Double.POSITIVE_INFINITY, measurement.confidence().get(2, 0));
+    // Mostly along x here, so the range error dominates x
+    assertTrue(measurement.confidence().get(0, 0) > measurement.confidence().get(1, 0));
+  }
+
+  @Test
+  void gyroConstrainedMeasurementSkipsFarAndUnknownTags() {
+    TargetMetrics far = seenFrom(-1.0, -1.0, 0.0);
+    assertTrue(far.distance() > VisionConstants.SINGLE_TAG_MAX_DISTANCE_METERS);
+    assertTrue(AprilTagAlgorithms.findGyroConstrainedMeasurement(far, 7.5, 0.0).isEmpty());
+
+    TargetMetrics near = seenFrom(2.0, 1.0, 0.6);
+    TargetMetrics offField =
+        new TargetMetrics(near.robotToTarget(), near.distance(), near.ambiguity(), null);
+    assertTrue(AprilTagAlgorithms.findGyroConstrainedMeasurement(offField, 7.5, 0.6).isEmpty());
+  }
+
+  @Test
+  void averageTagDistanceReusesFrameMetrics() {
+    // Targets at the camera, so only the frame's metrics can give the distances
+    PhotonTrackedTarget near = target(3);
+    PhotonTrackedTarget notTag = target(-1);
+    PhotonTrackedTarget far = target(5);
+    PhotonTrackedTarget unused = target(8);
+    List<PhotonTrackedTarget> frameTargets = List.of(unused, far, notTag, near);
+    TargetMetrics[] frameMetrics = {metrics(6.0), metrics(4.0), metrics(1.0), metrics(2.0)};
+
+    assertEquals(
+        3.0,
+        AprilTagAlgorithms.getAverageTagDistance(
+            List.of(near, notTag, far), frameTargets, frameMetrics),
+        kEpsilon);
+    assertTrue(
+        Double.isNaN(
+            AprilTagAlgorithms.getAverageTagDistance(
+                List.of(notTag), frameTargets, frameMetrics)));
+  }
+
+  private static PhotonTrackedTarget target(int id) {
+    return new PhotonTrackedTarget(
+        0.0, 0.0, 1.0, 0.0, id, new Transform3d(), new Transform3d(), 0.2, List.of(), List.of());
+  }
+
+  private static TargetMetrics metrics(double distance) {
+    return new TargetMetrics(new Transform3d(), distance, 0.2, null);
+  }
+}
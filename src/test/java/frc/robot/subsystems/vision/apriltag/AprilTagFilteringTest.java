@@ -0,0 +1,72 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+class AprilTagFilteringTest {
+  @BeforeAll
+  static void initializeHal() {
+    // The tag groups behind FieldTagIndex are loaded with the vision constants
+    HAL.initialize(500, 0);
+  }
+
+  @AfterEach
+  void resetDriverStation() {
+    DriverStationSim.resetData();
+    DriverStationSim.notifyNewData();
+  }
+
+  private static void setAutonomous(boolean autonomous) {
+    DriverStationSim.setEnabled(true);
+    DriverStationSim.setAutonomous(autonomous);
+    DriverStationSim.notifyNewData();
+  }
+
+  private static PhotonPipelineResult frameOf(int... ids) {
+    Transform3d cameraToTarget = new Transform3d();
+    List<PhotonTrackedTarget> targets = new ArrayList<>();
+    for (int id : ids) {
+      targets.add(
+          new PhotonTrackedTarget(
+              0.0, 0.0, 1.0, 0.0, id, cameraToTarget, cameraToTarget, 0.1, List.of(), List.of()));
+    }
+    return new PhotonPipelineResult(20.0, targets);
+  }
+
+  @Test
+  void allowsOwnAllianceTagsInAutonomous() {
+    setAutonomous(true);
+
+    // The alliance is not read from the driver station yet, so autonomous is always blue
+    assertEquals(FieldTagIndex.BLUE_TAGS, AprilTagFiltering.getAllowedIDs());
+  }
+
+  @Test
+  void allowsAllTagsInTeleop() {
+    setAutonomous(false);
+
+    assertEquals(FieldTagIndex.ALL_TAGS, AprilTagFiltering.getAllowedIDs());
+  }
+
+  @Test
+  void ignoresFramesWithTagsOutsideMask() {
+    long blueTags = FieldTagIndex.BLUE_TAGS;
+
+    assertFalse(AprilTagFiltering.shouldIgnoreFrame(frameOf(7, 8), blueTags));
+    assertTrue(AprilTagFiltering.shouldIgnoreFrame(frameOf(7, 4), blueTags));
+    assertTrue(AprilTagFiltering.shouldIgnoreFrame(frameOf(7, -1), blueTags));
+    assertTrue(AprilTagFiltering.shouldIgnoreFrame(frameOf(), FieldTagIndex.ALL_TAGS));
+  }
+}
@@ -0,0 +1,125 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.hal.HAL;
+import frc.robot.VisionConstants;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class FieldTagIndexTest {
+  @BeforeAll
+  static void initializeHal() {
+    // The field layout and tag groups are loaded with the vision constants
+    HAL.initialize(500, 0);
+  }
+
+  /** Every id the mask can hold is in it exactly when the set has it. */
+  private static void assertMaskMatches(Set<Integer> ids, long mask) {
+    for (int id = 0; id < Long.SIZE; id++) {
+      assertEquals(ids.contains(id), FieldTagIndex.contains(mask, id), "Tag " + id);
+    }
+  }
+
+  @Test
+  void masksMatchTagGroups() {
+    assertMaskMatches(VisionConstants.ALL_TAGS, FieldTagIndex.ALL_TAGS);
+    assertMaskMatches(VisionConstants.RED_TAG_FIDS, FieldTagIndex.RED_TAGS);
+    assertMaskMatches(VisionConstants.BLUE_TAG_FIDS, FieldTagIndex.BLUE_TAGS);
+    assertMaskMatches(VisionConstants.RED_SPEAKER_TAGS, FieldTagIndex.RED_SPEAKER_TAGS);
+    assertMaskMatches(VisionConstants.BLUE_SPEAKER_TAGS, FieldTagIndex.BLUE_SPEAKER_TAGS);
+    assertMaskMatches(VisionConstants.RED_HUMAN_PLAYER_TAGS, FieldTagIndex.RED_HUMAN_PLAYER_TAGS);
+    assertMaskMatches(
+        VisionConstants.BLUE_HUMAN_PLAYER_TAGS, FieldTagIndex.BLUE_HUMAN_PLAYER_TAGS);
+    assertMaskMatches(VisionConstants.RED_STAGE_TAGS, FieldTagIndex.RED_STAGE_TAGS);
+    assertMaskMatches(VisionConstants.BLUE_STAGE_TAGS, FieldTagIndex.BLUE_STAGE_TAGS);
+    assertMaskMatches(VisionConstants.ANDERSON_TAGS, FieldTagIndex.ANDERSON_TAGS);
+  }
+
+  @Test
+  void containsOnlyIdsThatFit() {
+    assertFalse(FieldTagIndex.contains(-1L, -1));
+    assertFalse(FieldTagIndex.contains(-1L, Long.SIZE));
+    assertFalse(FieldTagIndex.contains(-1L, Integer.MIN_VALUE));
+    assertThrows(IllegalArgumentException.class, () -> FieldTagIndex.maskOf(Set.of(1, 64)));
+    assertThrows(IllegalArgumentException.class, () -> FieldTagIndex.maskOf(Set.of(-1)));
+  }
+
+  @Test
+  void tagPosesMatchFieldLayout() {
+    for (AprilTag tag : VisionConstants.FIELD_LAYOUT.getTags()) {
+      assertEquals(
+          VisionConstants.FIELD_LAYOUT.getTagPose(tag.ID).orElseThrow(),
+          FieldTagIndex.getTagPose(tag.ID),
+          "Tag " + tag.ID);
+    }
+    for (int id : new int[] {-1, 0, 17, 1000}) {
+      assertNull(FieldTagIndex.getTagPose(id), "Tag " + id);
+      assertFalse(FieldTagIndex.isOnField(id), "Tag " + id);
+    }
+  }
+
+  @Test
+  void mirroredIdsPairRedWithBlue() {
+    assertMirrored(VisionConstants.RED_HUMAN_PLAYER_WALL, VisionConstants.BLUE_HUMAN_PLAYER_WALL);
+    assertMirrored(
+        VisionConstants.RED_HUMAN_PLAYER_INSIDE, VisionConstants.BLUE_HUMAN_PLAYER_INSIDE);
+    assertMirrored(VisionConstants.RED_SPEAKER_OFFSET, VisionConstants.BLUE_SPEAKER_OFFSET);
+    assertMirrored(VisionConstants.RED_SPEAKER_CENTER, VisionConstants.BLUE_SPEAKER_CENTER);
+    assertMirrored(VisionConstants.RED_AMP_TAG, VisionConstants.BLUE_AMP_TAG);
+    assertMirrored(VisionConstants.RED_STAGE_HUMAN, VisionConstants.BLUE_STAGE_HUMAN);
+    assertMirrored(VisionConstants.RED_STAGE_AMP, VisionConstants.BLUE_STAGE_AMP);
+    assertMirrored(VisionConstants.RED_STAGE_CENTER, VisionConstants.BLUE_STAGE_CENTER);
+
+    // Mirroring twice is the same tag, and ids off the field have no mirror
+    for (int id = 0; id < Long.SIZE; id++) {
+      int mirroredId = FieldTagIndex.getMirroredId(id);
+      if (mirroredId != -1) {
+        assertEquals(id, FieldTagIndex.getMirroredId(mirroredId), "Tag " + id);
+      } else {
+        assertFalse(FieldTagIndex.isOnField(id), "Tag " + id);
+      }
+    }
+    assertEquals(-1, FieldTagIndex.getMirroredId(-1));
+    assertEquals(-1, FieldTagIndex.getMirroredId(Long.SIZE));
+  }
+
+  private static void assertMirrored(int redId, int blueId) {
+    assertEquals(blueId, FieldTagIndex.getMirroredId(redId), "Mirror of red tag " + redId);
+    assertEquals(redId, FieldTagIndex.getMirroredId(blueId), "Mirror of blue tag " + blueId);
+  }
+
+  @Test
+  void mirrorSwapsAllianceGroups() {
+    assertEquals(FieldTagIndex.RED_TAGS, FieldTagIndex.mirror(FieldTagIndex.BLUE_TAGS));
+    assertEquals(FieldTagIndex.BLUE_TAGS, FieldTagIndex.mirror(FieldTagIndex.RED_TAGS));
+    assertEquals(
+        FieldTagIndex.RED_SPEAKER_TAGS, FieldTagIndex.mirror(FieldTagIndex.BLUE_SPEAKER_TAGS));
+    assertEquals(
+        FieldTagIndex.RED_HUMAN_PLAYER_TAGS,
+        FieldTagIndex.mirror(FieldTagIndex.BLUE_HUMAN_PLAYER_TAGS));
+    assertEquals(FieldTagIndex.RED_STAGE_TAGS, FieldTagIndex.mirror(FieldTagIndex.BLUE_STAGE_TAGS));
+    assertEquals(FieldTagIndex.ALL_TAGS, FieldTagIndex.mirror(FieldTagIndex.ALL_TAGS));
+    assertEquals(FieldTagIndex.ANDERSON_TAGS, FieldTagIndex.mirror(FieldTagIndex.ANDERSON_TAGS));
+    assertEquals(0L, FieldTagIndex.mirror(0L));
+    // Ids without a mirror are dropped
+    assertEquals(0L, FieldTagIndex.mirror(1L << 40));
+  }
+
+  @Test
+  void forAlliancePicksBlueOrItsMirror() {
+    assertEquals(
+        FieldTagIndex.BLUE_SPEAKER_TAGS,
+        FieldTagIndex.forAlliance(FieldTagIndex.BLUE_SPEAKER_TAGS, true));
+    assertEquals(
+        FieldTagIndex.RED_SPEAKER_TAGS,
+        FieldTagIndex.forAlliance(FieldTagIndex.BLUE_SPEAKER_TAGS, false));
+    assertEquals(FieldTagIndex.BLUE_TAGS, FieldTagIndex.forAlliance(FieldTagIndex.BLUE_TAGS, true));
+    assertEquals(FieldTagIndex.RED_TAGS, FieldTagIndex.forAlliance(FieldTagIndex.BLUE_TAGS, false));
+  }
+}
@@ -0,0 +1,216 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.photonvision.targeting.TargetCorner;
+
+class MultiCameraPoseSolverTest {
+  private static final double kEpsilon = 1E-6;
+  private static final double kTagHalfSize = 0.165 / 2.0;
+  // Row-major intrinsics of a 1280 by 800 camera
+  private static final double[] kCameraMatrix = {
+    900.0, 0.0, 640.0, 0.0, 900.0, 400.0, 0.0, 0.0, 1.0
+  };
+  private static final double[] kNoDistortion = new double[0];
+
+  // The true robot pose, and the odometry pose the solve starts from
+  private static final double kRobotX = 3.0;
+  private static final double kRobotY = 2.0;
+  private static final double kRobotThetaRad = 0.4;
+  private static final double kOdometryX = kRobotX + 0.3;
+  private static final double kOdometryY = kRobotY - 0.2;
+  private static final double kOdometryThetaRad = kRobotThetaRad + 0.1;
+
+  // Four corner cameras looking outwards and slightly up, like the robot's
+  private static final Transform3d[] kRobotToCameras = {
+    new Transform3d(new Translation3d(0.3, 0.3, 0.25), new Rotation3d(0.0, -0.3, 0.5)),
+    new Transform3d(new Translation3d(0.3, -0.3, 0.25), new Rotation3d(0.0, -0.3, -0.5)),
+    new Transform3d(new Translation3d(-0.3, 0.3, 0.25), new Rotation3d(0.0, -0.3, Math.PI - 0.5)),
+    new Transform3d(new Translation3d(-0.3, -0.3, 0.25), new Rotation3d(0.1, -0.3, 0.5 - Math.PI))
+  };
+
+  private final MultiCameraPoseSolver solver = new MultiCameraPoseSolver(4, 8);
+
+  /** Corners of a tag in front of a camera, facing back towards it. */
+  private static List<Translation3d> tagInFrontOf(
+      Transform3d robotToCamera, double distance, double offsetRad) {
+    double cameraYaw = kRobotThetaRad + robotToCamera.getRotation().getZ() + offsetRad;
+    Translation3d camera = toField(robotToCamera.getTranslation());
+    double centerX = camera.getX() + distance * Math.cos(cameraYaw);
+    double centerY = camera.getY() + distance * Math.sin(cameraYaw);
+    // Left of the tag as seen by the camera
+    double leftX = -Math.sin(cameraYaw) * kTagHalfSize;
+    double leftY = Math.cos(cameraYaw) * kTagHalfSize;
+    double z = 1.0;
+    return List.of(
+        new Translation3d(centerX - leftX, centerY - leftY, z - kTagHalfSize),
+        new Translation3d(centerX + leftX, centerY + leftY, z - kTagHalfSize),
+        new Translation3d(centerX + leftX, centerY + leftY, z + kTagHalfSize),
+        new Translation3d(centerX - leftX, centerY - leftY, z + kTagHalfSize));
+  }
+
+  /** Robot frame point on the field, at the true robot pose. */
+  private static Translation3d toField(Translation3d robotPoint) {
+    return robotPoint
+        .rotateBy(new Rotation3d(0.0, 0.0, kRobotThetaRad))
+        .plus(new Translation3d(kRobotX, kRobotY, 0.0));
+  }
+
+  /** Pixels of field points as the camera sees them from the true robot pose. */
+  private static List<TargetCorner> project(
+      Transform3d robotToCamera, List<Translation3d> fieldPoints, double[] distCoeffs) {
+    Translation3d camera = toField(robotToCamera.getTranslation());
+    Rotation3d cameraRotation =
+        robotToCamera.getRotation().plus(new Rotation3d(0.0, 0.0, kRobotThetaRad));
+    List<TargetCorner> corners = new ArrayList<>();
+    for (Translation3d fieldPoint : fieldPoints) {
+      // Camera frame, X forward, Y left and Z up
+      Translation3d point = fieldPoint.minus(camera).rotateBy(cameraRotation.unaryMinus());
+      double x = -point.getY() / point.getX();
+      double y = -point.getZ() / point.getX();
+
+      // OpenCV's distortion model
+      double k1 = distCoeffs.length > 0 ? distCoeffs[0] : 0.0;
+      double k2 = distCoeffs.length > 1 ? distCoeffs[1] : 0.0;
+      double p1 = distCoeffs.length > 2 ? distCoeffs[2] : 0.0;
+      double p2 = distCoeffs.length > 3 ? distCoeffs[3] : 0.0;
+      double k3 = distCoeffs.length > 4 ? distCoeffs[4] : 0.0;
+      double r2 = x * x + y * y;
+      double radial = 1 + k1 * r2 + k2 * r2 * r2 + k3 * r2 * r2 * r2;
+      double distortedX = x * radial + 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+      double distortedY = y * radial + p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+
+      corners.add(
+          new TargetCorner(
+              kCameraMatrix[0] * distortedX + kCameraMatrix[2],
+              kCameraMatrix[4] * distortedY + kCameraMatrix[5]));
+    }
+    return corners;
+  }
+
+  private void addCameraWithTags(Transform3d robotToCamera, double[] distCoeffs, int tags) {
+    assertTrue(solver.addCamera(robotToCamera, kCameraMatrix, distCoeffs));
+    for (int i = 0; i < tags; i++) {
+      List<Translation3d> tag = tagInFrontOf(robotToCamera, 2.5 + i, 0.2 * i - 0.1);
+      assertTrue(solver.addTag(tag, project(robotToCamera, tag, distCoeffs)));
+    }
+  }
+
+  private void assertSolvedTruePose(double epsilon) {
+    assertTrue(solver.solve(kOdometryX, kOdometryY, kOdometryThetaRad));
+    assertEquals(kRobotX, solver.getX(), epsilon);
+    assertEquals(kRobotY, solver.getY(), epsilon);
+    assertEquals(kRobotThetaRad, solver.getThetaRad(), epsilon);
+  }
+
+  @Test
+  void solvesPoseFromEveryCamera() {
+    for (Transform3d robotToCamera : kRobotToCameras) {
+      addCameraWithTags(robotToCamera, kNoDistortion, 2);
+    }
+
+    assertSolvedTruePose(kEpsilon);
+    assertEquals(4, solver.getCameraCount());
+    assertEquals(8, solver.getTagCount());
+    assertTrue(solver.getRmsErrorPixels() < 1E-3);
+    assertTrue(solver.getIterations() < 10);
+  }
+
+  @Test
+  void solvesPoseFromOneTagOfOneCamera() {
+    // The case PhotonVision's 6-DOF solve of a single tag cannot tell apart from its mirror
+    addCameraWithTags(kRobotToCameras[1], kNoDistortion, 1);
+
+    assertSolvedTruePose(kEpsilon);
+  }
+
+  @Test
+  void undistortsCorners() {
+    double[] distCoeffs = {0.05, -0.02, 0.001, -0.001, 0.003};
+    for (Transform3d robotToCamera : kRobotToCameras) {
+      addCameraWithTags(robotToCamera, distCoeffs, 1);
+    }
+
+    assertSolvedTruePose(1E-4);
+  }
+
+  @Test
+  void rejectsCornerBehindCamera() {
+    assertTrue(solver.addCamera(kRobotToCameras[0], kCameraMatrix, kNoDistortion));
+    // Seen by the front camera but placed behind it, so the pixels cannot belong to that pose
+    List<Translation3d> tag = tagInFrontOf(kRobotToCameras[0], 2.5, 0.0);
+    List<TargetCorner> pixels = project(kRobotToCameras[0], tag, kNoDistortion);
+    List<Translation3d> behind = tagInFrontOf(kRobotToCameras[0], -2.5, 0.0);
+    assertTrue(solver.addTag(behind, pixels));
+
+    assertFalse(solver.solve(kRobotX, kRobotY, kRobotThetaRad));
+  }
+
+  @Test
+  void rejectsWhatDoesNotFit() {
+    MultiCameraPoseSolver small = new MultiCameraPoseSolver(1, 1);
+    List<Translation3d> tag = tagInFrontOf(kRobotToCameras[0], 2.5, 0.0);
+    List<TargetCorner> pixels = project(kRobotToCameras[0], tag, kNoDistortion);
+
+    // No tags before a camera, and no camera without intrinsics
+    assertFalse(small.addTag(tag, pixels));
+    assertFalse(small.addCamera(kRobotToCameras[0], new double[0], kNoDistortion));
+    assertTrue(small.addCamera(kRobotToCameras[0], kCameraMatrix, kNoDistortion));
+    assertFalse(small.addCamera(kRobotToCameras[1], kCameraMatrix, kNoDistortion));
+    assertFalse(small.addTag(tag, pixels.subList(0, 3)));
+    assertTrue(small.addTag(tag, pixels));
+    assertFalse(small.addTag(tag, pixels));
+
+    small.reset();
+    assertEquals(0, small.getCameraCount());
+    assertEquals(0, small.getTagCount());
+    assertFalse(small.solve(kRobotX, kRobotY, kRobotThetaRad));
+  }
+
+  @Test
+  void solveAllocatesNothing() {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    List<List<Translation3d>> tags = new ArrayList<>();
+    List<List<TargetCorner>> pixels = new ArrayList<>();
+    for (Transform3d robotToCamera : kRobotToCameras) {
+      List<Translation3d> tag = tagInFrontOf(robotToCamera, 2.5, 0.0);
+      tags.add(tag);
+      pixels.add(project(robotToCamera, tag, kNoDistortion));
+    }
+    Runnable cycle =
+        () -> {
+          solver.reset();
+          for (int i = 0; i < kRobotToCameras.length; i++) {
+            solver.addCamera(kRobotToCameras[i], kCameraMatrix, kNoDistortion);
+            solver.addTag(tags.get(i), pixels.get(i));
+          }
+          solver.solve(kOdometryX, kOdometryY, kOdometryThetaRad);
+        };
+    for (int i = 0; i < 10_000; i++) {
+      cycle.run();
+    }
+
+    // Fewest of several rounds, so allocations by the JIT itself do not decide it
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 1_000; i++) {
+        cycle.run();
+      }
+      bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+    }
+
+    assertEquals(0, bytes, "Bytes allocated by 1000 solves");
+  }
+}
@@ -0,0 +1,191 @@
+package frc.robot.subsystems.vision.apriltag;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose3d;
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.math.geometry.Translation3d;
+import frc.robot.VisionConstants;
+import frc.robot.subsystems.vision.apriltag.AprilTagIO.AprilTagIOInputs;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+class TargetMetricsTest {
+  private static final double kEpsilon = 1E-9;
+
+  private static final Transform3d kRobotToCamera =
+      new Transform3d(new Translation3d(0.3, -0.2, 0.5), new Rotation3d(0.0, -0.5, 0.4));
+
+  // Four corner cameras, like the robot's
+  private static final Transform3d[] kRobotToCameras = {
+    new Transform3d(new Translation3d(0.3, 0.3, 0.25), new Rotation3d(0.0, -0.3, 0.5)),
+    new Transform3d(new Translation3d(0.3, -0.3, 0.25), new Rotation3d(0.0, -0.3, -0.5)),
+    new Transform3d(new Translation3d(-0.3, 0.3, 0.25), new Rotation3d(0.0, -0.3, Math.PI - 0.5)),
+    new Transform3d(new Translation3d(-0.3, -0.3, 0.25), new Rotation3d(0.0, -0.3, 0.5 - Math.PI))
+  };
+  private static final int kTagsPerCamera = 4;
+  // Far target filter, visible tags, single tag solve, estimate distance and the tag trackers
+  private static final int kConsumers = 5;
+
+  @BeforeAll
+  static void initializeHal() {
+    // The field layout behind FieldTagIndex is loaded with the vision constants
+    HAL.initialize(500, 0);
+  }
+
+  private static PhotonTrackedTarget target(int id, double x, double y, double ambiguity) {
+    Transform3d cameraToTarget =
+        new Transform3d(new Translation3d(x, y, 0.4), new Rotation3d(0.1, 0.0, Math.PI - 0.2));
+    return new PhotonTrackedTarget(
+        0.0, 0.0, 1.0, 0.0, id, cameraToTarget, cameraToTarget, ambiguity, List.of(), List.of());
+  }
+
+  @Test
+  void inputsRoundTripKeepsMetrics() {
+    List<PhotonTrackedTarget> targets =
+        List.of(target(7, 2.5, 0.3, 0.1), target(-1, 1.0, -0.5, -1.0), target(4, 3.5, -1.2, 0.3));
+    TargetMetrics[] metrics =
+        TargetMetrics.of(targets, kRobotToCamera).toArray(new TargetMetrics[0]);
+
+    AprilTagIOInputs inputs = new AprilTagIOInputs();
+    inputs.frame = new PhotonPipelineResult(20.0, targets);
+    TargetMetrics.toInputs(metrics, inputs);
+
+    assertEquals(targets.size(), inputs.targetRobotToTargets.length);
+    for (int i = 0; i < targets.size(); i++) {
+      TargetMetrics expected = metrics[i];
+      TargetMetrics restored = TargetMetrics.fromInputs(inputs, i);
+
+      Transform3d robotToTarget = kRobotToCamera.plus(targets.get(i).getBestCameraToTarget());
+      assertTransformEquals(robotToTarget, expected.robotToTarget());
+      assertTransformEquals(expected.robotToTarget(), restored.robotToTarget());
+      assertEquals(
+          targets.get(i).getBestCameraToTarget().getTranslation().getNorm(), restored.distance());
+      assertEquals(expected.distance(), restored.distance());
+      assertEquals(expected.ambiguity(), restored.ambiguity());
+      assertSame(expected.fieldPose(), restored.fieldPose());
+    }
+    // Only tags on the field have a field pose
+    assertSame(FieldTagIndex.getTagPose(7), metrics[0].fieldPose());
+    assertNull(metrics[1].fieldPose());
+  }
+
+  @Test
+  @Tag("benchmark")
+  void sharedMetricsAreCheaperThanRebuildingPerConsumer(TestReporter reporter) {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    List<List<PhotonTrackedTarget>> frames = new ArrayList<>();
+    for (int camera = 0; camera < kRobotToCameras.length; camera++) {
+      List<PhotonTrackedTarget> targets = new ArrayList<>();
+      for (int i = 0; i < kTagsPerCamera; i++) {
+        int id = 1 + camera * kTagsPerCamera + i;
+        targets.add(target(id, 2.0 + 0.5 * i, 0.3 * i - 0.5, 0.05 * i));
+      }
+      frames.add(targets);
+    }
+    double[] sink = new double[1];
+
+    // The replaced code, every consumer composing the transforms and looking up the layout
+    Runnable baselineCycle =
+        () -> {
+          for (int camera = 0; camera < kRobotToCameras.length; camera++) {
+            for (int consumer = 0; consumer < kConsumers; consumer++) {
+              for (PhotonTrackedTarget target : frames.get(camera)) {
+                Transform3d cameraToTarget = target.getBestCameraToTarget();
+                Transform3d robotToTarget = kRobotToCameras[camera].plus(cameraToTarget);
+                Pose3d fieldPose =
+                    VisionConstants.FIELD_LAYOUT.getTagPose(target.getFiducialId()).orElse(null);
+                sink[0] +=
+                    robotToTarget.getX()
+                        + cameraToTarget.getTranslation().getNorm()
+                        + target.getPoseAmbiguity()
+                        + fieldPose.getX();
+              }
+            }
+          }
+        };
+    // Metrics built once per frame, the consumers only reading them
+    Runnable cycle =
+        () -> {
+          for (int camera = 0; camera < kRobotToCameras.length; camera++) {
+            List<TargetMetrics> metrics =
+                TargetMetrics.of(frames.get(camera), kRobotToCameras[camera]);
+            for (int consumer = 0; consumer < kConsumers; consumer++) {
+              for (int i = 0; i < metrics.size(); i++) {
+                TargetMetrics shared = metrics.get(i);
+                sink[0] +=
+                    shared.robotToTarget().getX()
+                        + shared.distance()
+                        + shared.ambiguity()
+                        + shared.fieldPose().getX();
+              }
+            }
+          }
+        };
+
+    for (int round = 0; round < 10; round++) {
+      runCycles(baselineCycle, 2_000);
+      runCycles(cycle, 2_000);
+    }
+
+    // Quietest of several rounds, so JIT and GC noise does not decide the comparison
+    long baselineNanos = Long.MAX_VALUE;
+    long nanos = Long.MAX_VALUE;
+    long baselineBytes = Long.MAX_VALUE;
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startNanos = threads.getCurrentThreadCpuTime();
+      long startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(baselineCycle, 2_000);
+      baselineNanos = Math.min(baselineNanos, threads.getCurrentThreadCpuTime() - startNanos);
+      baselineBytes =
+          Math.min(baselineBytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+
+      startNanos = threads.getCurrentThreadCpuTime();
+      startBytes = threads.getThreadAllocatedBytes(threadId);
+      runCycles(cycle, 2_000);
+      nanos = Math.min(nanos, threads.getCurrentThreadCpuTime() - startNanos);
+      bytes = Math.min(bytes, threads.getThreadAllocatedBytes(threadId) - startBytes);
+    }
+
+    reporter.publishEntry("cpuNanosPer2000Cycles", Long.toString(nanos));
+    reporter.publishEntry("rebuildingCpuNanosPer2000Cycles", Long.toString(baselineNanos));
+    reporter.publishEntry("bytesPer2000Cycles", Long.toString(bytes));
+    reporter.publishEntry("rebuildingBytesPer2000Cycles", Long.toString(baselineBytes));
+    assertTrue(
+        baselineNanos > 2 * nanos,
+        "CPU time of 2000 cycles, " + nanos + " ns against " + baselineNanos + " ns rebuilding");
+    assertTrue(
+        baselineBytes > 2 * bytes,
+        "Bytes of 2000 cycles, " + bytes + " against " + baselineBytes + " rebuilding");
+  }
+
+  private static void runCycles(Runnable cycle, int cycles) {
+    for (int i = 0; i < cycles; i++) {
+      cycle.run();
+    }
+  }
+
+  private static void assertTransformEquals(Transform3d expected, Transform3d actual) {
+    assertEquals(expected.getX(), actual.getX(), kEpsilon);
+    assertEquals(expected.getY(), actual.getY(), kEpsilon);
+    assertEquals(expected.getZ(), actual.getZ(), kEpsilon);
+    assertEquals(expected.getRotation().getX(), actual.getRotation().getX(), kEpsilon);
+    assertEquals(expected.getRotation().getY(), actual.getRotation().getY(), kEpsilon);
+    assertEquals(expected.getRotation().getZ(), actual.getRotation().getZ(), kEpsilon);
+  }
+}
@@ -0,0 +1,109 @@
+package frc.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import com.ctre.phoenix6.controls.ControlRequest;
+import com.ctre.phoenix6.controls.NeutralOut;
+import com.ctre.phoenix6.controls.VelocityVoltage;
+import com.ctre.phoenix6.controls.VoltageOut;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TalonFXOutputTest {
+  private final List<ControlRequest> sent = new ArrayList<>();
+  // Values of the sent requests, read at send time since the request objects are reused
+  private final List<Double> sentValues = new ArrayList<>();
+  private long nowMicros = 1_000_000;
+  private TalonFXOutput output;
+
+  @BeforeEach
+  void setup() {
+    output =
+        new TalonFXOutput(
+            request -> {
+              sent.add(request);
+              if (request instanceof VoltageOut voltage) {
+                sentValues.add(voltage.Output);
+              } else if (request instanceof VelocityVoltage velocity) {
+                sentValues.add(velocity.Velocity);
+              } else {
+                sentValues.add(Double.NaN);
+              }
+            },
+            () -> nowMicros,
+            "Test",
+            false,
+            0.1);
+  }
+
+  @Test
+  void unchangedRequestIsSuppressed() {
+    output.setVoltage(3.0);
+    nowMicros += 20_000;
+    output.setVoltage(3.0);
+    nowMicros += 20_000;
+    output.setVoltage(3.0);
+
+    assertEquals(1, sent.size());
+    assertEquals(1, output.getSentCount());
+    assertEquals(2, output.getSuppressedCount());
+  }
+
+  @Test
+  void changedValueIsSent() {
+    output.setVoltage(3.0);
+    output.setVoltage(4.0);
+
+    assertEquals(List.of(3.0, 4.0), sentValues);
+  }
+
+  @Test
+  void changedFeedforwardIsSent() {
+    output.setVelocity(10.0, 0.5);
+    output.setVelocity(10.0, 0.6);
+
+    assertEquals(2, sent.size());
+  }
+
+  @Test
+  void changedTypeIsSent() {
+    output.setVoltage(0.0);
+    output.stop();
+    output.setVoltage(0.0);
+
+    assertEquals(3, sent.size());
+    assertInstanceOf(VoltageOut.class, sent.get(0));
+    assertInstanceOf(NeutralOut.class, sent.get(1));
+    assertInstanceOf(VoltageOut.class, sent.get(2));
+  }
+
+  @Test
+  void keepaliveResendsUnchangedRequest() {
+    output.setVoltage(3.0);
+    nowMicros += 99_999;
+    output.setVoltage(3.0);
+    assertEquals(1, sent.size());
+
+    nowMicros += 1;
+    output.setVoltage(3.0);
+    assertEquals(2, sent.size());
+
+    // The keepalive period starts over with the resent frame
+    nowMicros += 50_000;
+    output.setVoltage(3.0);
+    assertEquals(2, sent.size());
+  }
+
+  @Test
+  void invalidateForcesNextRequest() {
+    output.setVoltage(3.0);
+    output.invalidate();
+    output.setVoltage(3.0);
+
+    assertEquals(2, sent.size());
+    assertEquals(0, output.getSuppressedCount());
+  }
+}